@@ -30,6 +30,11 @@ public class AppConfig {
     Integer defaultPageSize = 20;
     Integer defaultPage = 1;
 
+    /**
+     * The maximum number of runs which may be addressed by a single batch request
+     */
+    Integer maxBatchSize = 5000;
+
     /**
      *
      */
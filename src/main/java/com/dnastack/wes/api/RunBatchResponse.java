@@ -0,0 +1,23 @@
+package com.dnastack.wes.api;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.*;
+
+import java.util.List;
+
+@Getter
+@Setter
+@AllArgsConstructor
+@EqualsAndHashCode
+@NoArgsConstructor
+@ToString
+@Builder
+public class RunBatchResponse {
+
+    /**
+     * The outcome of each run in the batch, in the order the runs were requested
+     */
+    @JsonProperty("runs")
+    List<RunBatchResult> runs;
+
+}
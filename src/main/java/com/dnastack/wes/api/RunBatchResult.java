@@ -0,0 +1,34 @@
+package com.dnastack.wes.api;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.*;
+
+/**
+ * The outcome of a single run in a batch. Exactly one of the run id or the error response is set
+ */
+@Getter
+@Setter
+@AllArgsConstructor
+@EqualsAndHashCode
+@NoArgsConstructor
+@ToString
+@Builder
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class RunBatchResult {
+
+    @JsonProperty("run_id")
+    String runId;
+
+    @JsonProperty("error_response")
+    ErrorResponse errorResponse;
+
+    public static RunBatchResult submitted(String runId) {
+        return RunBatchResult.builder().runId(runId).build();
+    }
+
+    public static RunBatchResult failed(int errorCode, String msg) {
+        return RunBatchResult.builder().errorResponse(new ErrorResponse(msg, errorCode)).build();
+    }
+
+}
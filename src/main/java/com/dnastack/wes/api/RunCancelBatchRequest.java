@@ -0,0 +1,36 @@
+package com.dnastack.wes.api;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.*;
+
+import java.util.List;
+
+/**
+ * Selects the runs to cancel, either by listing their ids or by the tags and states of the runs. The ids and the
+ * selector are mutually exclusive
+ */
+@Getter
+@Setter
+@AllArgsConstructor
+@EqualsAndHashCode
+@NoArgsConstructor
+@ToString
+@Builder
+public class RunCancelBatchRequest {
+
+    @JsonProperty("run_ids")
+    List<String> runIds;
+
+    /**
+     * Only cancel runs which have every one of these tags, each formatted as <code>key:value</code>
+     */
+    @JsonProperty("tags")
+    List<String> tags;
+
+    /**
+     * Only cancel runs in one of these states. Defaults to every state in which a run can be canceled
+     */
+    @JsonProperty("states")
+    List<State> states;
+
+}
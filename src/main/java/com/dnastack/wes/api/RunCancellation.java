@@ -0,0 +1,13 @@
+package com.dnastack.wes.api;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public record RunCancellation(@JsonProperty("run_id") String runId, CancellationState state, @JsonProperty("error_response") ErrorResponse errorResponse) {
+
+    public enum CancellationState {
+        CANCELING,
+        FAILED,
+        NOT_FOUND
+    }
+
+}
@@ -0,0 +1,5 @@
+package com.dnastack.wes.api;
+
+import java.util.List;
+
+public record RunCancellations(List<RunCancellation> cancellations) {}
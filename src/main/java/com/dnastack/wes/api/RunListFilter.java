@@ -0,0 +1,51 @@
+package com.dnastack.wes.api;
+
+import lombok.*;
+
+import java.time.ZonedDateTime;
+import java.util.List;
+
+/**
+ * Filters which may be applied when listing runs. All filters are optional, and a run must match every filter which is
+ * provided to be listed.
+ */
+@Getter
+@Setter
+@AllArgsConstructor
+@EqualsAndHashCode
+@NoArgsConstructor
+@ToString
+@Builder
+public class RunListFilter {
+
+    /**
+     * Only list runs in one of these states
+     */
+    List<State> states;
+
+    /**
+     * Only list runs which have every one of these tags, each formatted as <code>key:value</code>
+     */
+    List<String> tags;
+
+    /**
+     * Only list runs of workflows with this name
+     */
+    String name;
+
+    /**
+     * Only list runs submitted at or after this time
+     */
+    ZonedDateTime submittedAfter;
+
+    /**
+     * Only list runs which started at or after this time
+     */
+    ZonedDateTime startedAfter;
+
+    /**
+     * Only list runs which ended at or before this time
+     */
+    ZonedDateTime endedBefore;
+
+}
@@ -0,0 +1,41 @@
+package com.dnastack.wes.api;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.*;
+
+import java.time.Instant;
+
+/**
+ * A change to the state of a run, delivered to the callback url of the run
+ */
+@Getter
+@Setter
+@AllArgsConstructor
+@EqualsAndHashCode
+@NoArgsConstructor
+@ToString
+@Builder
+public class RunStateChange {
+
+    /**
+     * Unique for every change, so that receivers can discard changes which are delivered more than once
+     */
+    @JsonProperty("event_id")
+    String eventId;
+
+    @JsonProperty("run_id")
+    String runId;
+
+    @JsonProperty("state")
+    State state;
+
+    @JsonProperty("previous_state")
+    State previousState;
+
+    /**
+     * When the change was detected
+     */
+    @JsonProperty("time")
+    Instant time;
+
+}
@@ -0,0 +1,29 @@
+package com.dnastack.wes.api;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.*;
+
+import java.util.List;
+
+@Getter
+@Setter
+@AllArgsConstructor
+@EqualsAndHashCode
+@NoArgsConstructor
+@ToString
+@Builder
+public class RunStatusBatchResponse {
+
+    /**
+     * The status of every requested run which exists, in the order the runs were requested
+     */
+    @JsonProperty("runs")
+    List<RunStatus> runs;
+
+    /**
+     * The requested run ids which do not exist, or are not visible to the caller
+     */
+    @JsonProperty("not_found")
+    List<String> notFound;
+
+}
@@ -0,0 +1,27 @@
+package com.dnastack.wes.api;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.*;
+
+import java.util.List;
+import java.util.Map;
+
+@Getter
+@Setter
+@AllArgsConstructor
+@EqualsAndHashCode
+@NoArgsConstructor
+@ToString
+@Builder
+public class RunStatusWatchRequest {
+
+    @JsonProperty("run_ids")
+    List<String> runIds;
+
+    /**
+     * The state the caller last saw each run in. Runs without a known state are reported immediately
+     */
+    @JsonProperty("states")
+    Map<String, State> states;
+
+}
@@ -0,0 +1,43 @@
+package com.dnastack.wes.api;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.*;
+
+import java.time.Instant;
+
+/**
+ * The progress of a run which was accepted for asynchronous submission. The run id is assigned when the submission is
+ * accepted, and becomes the id of the run in cromwell once it has been submitted
+ */
+@Getter
+@Setter
+@AllArgsConstructor
+@EqualsAndHashCode
+@NoArgsConstructor
+@ToString
+@Builder(toBuilder = true)
+public class RunSubmission {
+
+    @JsonProperty("run_id")
+    String runId;
+
+    @JsonProperty("state")
+    SubmissionState state;
+
+    @JsonProperty("accepted_time")
+    Instant acceptedTime;
+
+    @JsonProperty("updated_time")
+    Instant updatedTime;
+
+    @JsonProperty("error_response")
+    ErrorResponse errorResponse;
+
+    public enum SubmissionState {
+        QUEUED,
+        SUBMITTING,
+        SUBMITTED,
+        FAILED
+    }
+
+}
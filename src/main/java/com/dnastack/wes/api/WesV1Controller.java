@@ -4,25 +4,40 @@ package com.dnastack.wes.api;
 import com.dnastack.audit.aspect.AuditActionUri;
 import com.dnastack.audit.util.AuditIgnore;
 import com.dnastack.wes.AppConfig;
+import com.dnastack.wes.cromwell.CromwellLogFollower;
+import com.dnastack.wes.cromwell.CromwellRunWatcher;
 import com.dnastack.wes.cromwell.CromwellService;
+import com.dnastack.wes.cromwell.CromwellSubmissionQueue;
+import com.dnastack.wes.cromwell.StreamingRunRequestReader;
+import com.dnastack.wes.security.AccessEvaluator;
 import com.dnastack.wes.security.AuthenticatedUser;
 import com.dnastack.wes.utils.RangeHeaderUtils;
 import com.dnastack.wes.workflow.WorkflowAuthorizerService;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpRange;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.net.URI;
+import java.time.ZonedDateTime;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
 
 
 @Slf4j
@@ -33,7 +48,12 @@ public class WesV1Controller {
 
     private final WorkflowAuthorizerService workflowAuthorizerService;
     private final CromwellService adapter;
+    private final CromwellSubmissionQueue submissionQueue;
+    private final StreamingRunRequestReader streamingRunRequestReader;
+    private final CromwellLogFollower logFollower;
+    private final CromwellRunWatcher runWatcher;
     private final AppConfig config;
+    private final AccessEvaluator accessEvaluator;
 
     private final boolean securityEnabled;
 
@@ -41,12 +61,22 @@ public class WesV1Controller {
     WesV1Controller(
         WorkflowAuthorizerService workflowAuthorizerService,
         CromwellService adapter,
+        CromwellSubmissionQueue submissionQueue,
+        StreamingRunRequestReader streamingRunRequestReader,
+        CromwellLogFollower logFollower,
+        CromwellRunWatcher runWatcher,
         AppConfig config,
+        ObjectProvider<AccessEvaluator> accessEvaluator,
         @Value("${security.authentication.enabled}") boolean securityEnabled
     ) {
         this.workflowAuthorizerService = workflowAuthorizerService;
         this.adapter = adapter;
+        this.submissionQueue = submissionQueue;
+        this.streamingRunRequestReader = streamingRunRequestReader;
+        this.logFollower = logFollower;
+        this.runWatcher = runWatcher;
         this.config = config;
+        this.accessEvaluator = accessEvaluator.getIfAvailable();
         this.securityEnabled = securityEnabled;
     }
 
@@ -73,7 +103,8 @@ public class WesV1Controller {
     @PostMapping(value = "/runs", produces = {
         MediaType.APPLICATION_JSON_VALUE
     }, consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
-    public RunId submitRun(
+    public ResponseEntity<RunId> submitRun(
+        @RequestHeader(name = "Prefer", required = false) String prefer,
         @RequestPart("workflow_url") String workflowUrl,
         @RequestPart(name = "workflow_type", required = false) String workflowType,
         @RequestPart(name = "workflow_type_version", required = false) String workflowTypeVersion,
@@ -90,7 +121,58 @@ public class WesV1Controller {
             .tags(tags).build();
 
         workflowAuthorizerService.authorize(workflowUrl, workflowAttachments);
-        return adapter.execute(runRequest);
+        if (submissionQueue.shouldAccept(prefer != null && prefer.contains("respond-async"))) {
+            RunSubmission submission = submissionQueue.accept(runRequest);
+            return ResponseEntity.accepted()
+                .location(URI.create("/ga4gh/wes/v1/runs/" + submission.getRunId() + "/submission"))
+                .body(RunId.builder().runId(submission.getRunId()).build());
+        }
+        return ResponseEntity.ok(adapter.execute(runRequest));
+    }
+
+    @PreAuthorize("@accessEvaluator.canAccessResource('/ga4gh/wes/v1/runs', 'workbench.runs.execute', 'wes')")
+    @PostMapping(value = "/runs:stream", produces = {
+        MediaType.APPLICATION_JSON_VALUE
+    }, consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public RunId submitStreamedRun(@AuditIgnore HttpServletRequest request) throws IOException {
+        RunRequest runRequest = streamingRunRequestReader.read(request);
+        try {
+            workflowAuthorizerService.authorize(runRequest.getWorkflowUrl(), runRequest.getWorkflowAttachments());
+            return adapter.execute(runRequest);
+        } catch (RuntimeException e) {
+            streamingRunRequestReader.discard(runRequest);
+            throw e;
+        }
+    }
+
+    @AuditActionUri("wes:run:submission")
+    @PreAuthorize("@accessEvaluator.canAccessResource('/ga4gh/wes/v1/runs/' + #runId, 'workbench.runs.get', 'wes')")
+    @GetMapping(value = "/runs/{run_id}/submission", produces = { MediaType.APPLICATION_JSON_VALUE })
+    public RunSubmission getRunSubmission(@PathVariable("run_id") String runId) {
+        return submissionQueue.getSubmission(runId);
+    }
+
+    @PreAuthorize("@accessEvaluator.canAccessResource('/ga4gh/wes/v1/runs', 'workbench.runs.execute', 'wes')")
+    @PostMapping(value = "/runs:batch", produces = {
+        MediaType.APPLICATION_JSON_VALUE
+    }, consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public RunBatchResponse submitRuns(
+        @RequestPart("workflow_url") String workflowUrl,
+        @RequestPart(name = "workflow_type", required = false) String workflowType,
+        @RequestPart(name = "workflow_type_version", required = false) String workflowTypeVersion,
+        @AuditIgnore @RequestPart(name = "workflow_engine_parameters", required = false) Map<String, String> workflowEngineParams,
+        @AuditIgnore @RequestPart(name = "workflow_params") List<Map<String, Object>> workflowParams,
+        @RequestPart(name = "tags", required = false) Map<String, String> tags,
+        @AuditIgnore @RequestPart(name = "workflow_attachment", required = false) MultipartFile[] workflowAttachments
+    ) {
+
+        RunRequest runRequest = RunRequest.builder().workflowUrl(workflowUrl).workflowType(workflowType)
+            .workflowEngineParameters(workflowEngineParams)
+            .workflowTypeVersion(workflowTypeVersion).workflowAttachments(workflowAttachments)
+            .tags(tags).build();
+
+        workflowAuthorizerService.authorize(workflowUrl, workflowAttachments);
+        return adapter.executeBatch(runRequest, workflowParams);
     }
 
     @AuditActionUri("wes:runs:list")
@@ -98,16 +180,25 @@ public class WesV1Controller {
     @GetMapping(path = "/runs", produces = MediaType.APPLICATION_JSON_VALUE)
     public RunListResponse getRuns(
         @RequestParam(value = "page_size", required = false) Integer pageSize,
-        @RequestParam(value = "page_token", required = false) String pageToken
+        @RequestParam(value = "page_token", required = false) String pageToken,
+        @RequestParam(value = "state", required = false) List<State> states,
+        @RequestParam(value = "tag", required = false) List<String> tags,
+        @RequestParam(value = "name", required = false) String name,
+        @RequestParam(value = "submitted_after", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) ZonedDateTime submittedAfter,
+        @RequestParam(value = "started_after", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) ZonedDateTime startedAfter,
+        @RequestParam(value = "ended_before", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) ZonedDateTime endedBefore
     ) {
-        return adapter.listRuns(pageSize, pageToken);
+        RunListFilter filter = RunListFilter.builder().states(states).tags(tags).name(name)
+            .submittedAfter(submittedAfter).startedAfter(startedAfter).endedBefore(endedBefore).build();
+        return adapter.listRuns(filter, pageSize, pageToken);
     }
 
     @AuditActionUri("wes:run:read")
     @PreAuthorize("@accessEvaluator.canAccessResource('/ga4gh/wes/v1/runs/' + #runId, 'workbench.runs.get', 'wes')")
     @GetMapping(value = "/runs/{run_id}", produces = { MediaType.APPLICATION_JSON_VALUE })
-    public RunLog getRun(@PathVariable("run_id") String runId) {
-        return adapter.getRun(runId);
+    public void getRun(HttpServletResponse response, @PathVariable("run_id") String runId) throws IOException {
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        adapter.writeRun(response.getOutputStream(), runId);
     }
 
     @AuditActionUri("wes:run:status")
@@ -117,6 +208,27 @@ public class WesV1Controller {
         return adapter.getRunStatus(runId);
     }
 
+    @AuditActionUri("wes:runs:status")
+    @PreAuthorize("@accessEvaluator.canAccessResource('/ga4gh/wes/v1/runs', 'workbench.runs.list', 'wes')")
+    @PostMapping(value = "/runs/status:batch", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+    public RunStatusBatchResponse getRunStatuses(@RequestBody RunStatusBatchRequest request) {
+        return adapter.getRunStatuses(request.getRunIds(), canAccessRun("workbench.runs.get"));
+    }
+
+    @AuditActionUri("wes:runs:status")
+    @PreAuthorize("@accessEvaluator.canAccessResource('/ga4gh/wes/v1/runs', 'workbench.runs.list', 'wes')")
+    @GetMapping(value = "/runs/status:watch", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter watchRunStatuses(@RequestParam("run_id") List<String> runIds) {
+        return runWatcher.watch(runIds, canAccessRun("workbench.runs.get"));
+    }
+
+    @AuditActionUri("wes:runs:status")
+    @PreAuthorize("@accessEvaluator.canAccessResource('/ga4gh/wes/v1/runs', 'workbench.runs.list', 'wes')")
+    @PostMapping(value = "/runs/status:watch", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+    public DeferredResult<RunStatusBatchResponse> waitForRunStatusChange(@RequestBody RunStatusWatchRequest request) {
+        return runWatcher.waitForChange(request, canAccessRun("workbench.runs.get"));
+    }
+
     @AuditActionUri("wes:run:cancel")
     @PreAuthorize("@accessEvaluator.canAccessResource('/ga4gh/wes/v1/runs/' + #runId, 'workbench.runs.cancel', 'wes')")
     @PostMapping(path = "/runs/{runId}/cancel", produces = MediaType.APPLICATION_JSON_VALUE)
@@ -125,11 +237,19 @@ public class WesV1Controller {
     }
 
 
+    @AuditActionUri("wes:runs:cancel")
+    @PreAuthorize("@accessEvaluator.canAccessResource('/ga4gh/wes/v1/runs', 'workbench.runs.cancel', 'wes')")
+    @PostMapping(path = "/runs/cancel:batch", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+    public RunCancellations cancelRuns(@RequestBody RunCancelBatchRequest request) {
+        return adapter.cancelRuns(request, canAccessRun("workbench.runs.cancel"));
+    }
+
     @AuditActionUri("wes:run:stderr")
     @PreAuthorize("@accessEvaluator.canAccessResource('/ga4gh/wes/v1/runs/' + #runId, 'workbench.runs.logs.get', 'wes')")
     @GetMapping(value = "/runs/{runId}/logs/stderr", produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
     public void getStderr(HttpServletResponse response, @RequestHeader HttpHeaders headers, @PathVariable String runId) throws IOException {
-        adapter.getLogBytes(response.getOutputStream(), runId, RangeHeaderUtils.getRangeFromHeaders(response, headers));
+        byte[] failuresLog = adapter.getFailuresLog(runId);
+        RangeHeaderUtils.writeRange(response, failuresLog, RangeHeaderUtils.getRangeFromHeaders(response, headers));
     }
 
     @AuditActionUri("wes:run:stderr")
@@ -156,6 +276,30 @@ public class WesV1Controller {
         adapter.getLogBytes(response.getOutputStream(), runId, taskId, "stdout", RangeHeaderUtils.getRangeFromHeaders(response, headers));
     }
 
+    @AuditActionUri("wes:run:stderr")
+    @PreAuthorize("@accessEvaluator.canAccessResource('/ga4gh/wes/v1/runs/' + #runId, 'workbench.runs.logs.get', 'wes')")
+    @GetMapping(value = "/runs/{runId}/logs/task/{taskId}/stderr:follow", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter followTaskStderr(
+        @PathVariable String runId,
+        @PathVariable String taskId,
+        @RequestParam(value = "offset", defaultValue = "0") long offset,
+        @RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId
+    ) throws IOException {
+        return logFollower.follow(runId, taskId, "stderr", lastEventId != null ? lastEventId : offset);
+    }
+
+    @AuditActionUri("wes:run:stdout")
+    @PreAuthorize("@accessEvaluator.canAccessResource('/ga4gh/wes/v1/runs/' + #runId, 'workbench.runs.logs.get', 'wes')")
+    @GetMapping(value = "/runs/{runId}/logs/task/{taskId}/stdout:follow", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter followTaskStdout(
+        @PathVariable String runId,
+        @PathVariable String taskId,
+        @RequestParam(value = "offset", defaultValue = "0") long offset,
+        @RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId
+    ) throws IOException {
+        return logFollower.follow(runId, taskId, "stdout", lastEventId != null ? lastEventId : offset);
+    }
+
     @AuditActionUri("wes:run:stderr")
     @PreAuthorize("@accessEvaluator.canAccessResource('/ga4gh/wes/v1/runs/' + #runId, 'workbench.runs.logs.get', 'wes')")
     @GetMapping(value = "/runs/{runId}/logs/task/{taskName}/{index}/stderr", produces = MediaType.APPLICATION_OCTET_STREAM_VALUE)
@@ -182,6 +326,15 @@ public class WesV1Controller {
         adapter.getLogBytes(response.getOutputStream(), runId, taskName, index, "stdout", RangeHeaderUtils.getRangeFromHeaders(response, headers));
     }
 
-
+    /**
+     * Endpoints acting on many runs are only authorized for the runs collection, so each run they touch is checked the
+     * same way the single run endpoints check it. Every run is accessible if access is not evaluated per resource.
+     */
+    private Predicate<String> canAccessRun(String action) {
+        if (accessEvaluator == null) {
+            return runId -> true;
+        }
+        return runId -> accessEvaluator.canAccessResource("/ga4gh/wes/v1/runs/" + runId, Set.of(action), Set.of("wes"));
+    }
 
 }
@@ -0,0 +1,48 @@
+package com.dnastack.wes.cromwell;
+
+import feign.form.FormData;
+import feign.form.FormProperty;
+import lombok.*;
+
+import java.util.Map;
+
+
+/**
+ * A request to submit several runs of the same workflow through cromwell's batch api. Each run shares the workflow,
+ * dependencies, options and labels, while the inputs are a json array holding the inputs of each run
+ */
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@ToString
+@EqualsAndHashCode
+@Builder
+public class CromwellBatchExecutionRequest {
+
+
+    @FormProperty("workflowUrl")
+    String workflowUrl;
+
+    @FormProperty("workflowOnHold")
+    Boolean workflowOnHold;
+
+    @FormProperty("workflowSource")
+    String workflowSource;
+
+    @FormProperty("workflowDependencies")
+    FormData workflowDependencies;
+
+    @FormProperty("workflowOptions")
+    Map<String, Object> workflowOptions;
+
+    /**
+     * The serialized json array of inputs. A collection would be encoded as one form part per element
+     */
+    @FormProperty("workflowInputs")
+    String workflowInputs;
+
+    @FormProperty("labels")
+    Map<String, String> labels;
+
+}
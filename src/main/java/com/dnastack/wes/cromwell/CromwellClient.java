@@ -4,8 +4,10 @@ import feign.Headers;
 import feign.Param;
 import feign.QueryMap;
 import feign.RequestLine;
+import feign.Response;
 import org.springframework.http.MediaType;
 
+import java.util.List;
 import java.util.Map;
 
 
@@ -33,16 +35,31 @@ public interface CromwellClient {
     CromwellStatus getStatus(@Param("id") String id);
 
 
-    @RequestLine("GET /api/workflows/" + API_VERSION + "/{id}/metadata?expandSubWorkflows=true")
-    CromwellMetadataResponse getMetadata(@Param("id") String id);
+    @RequestLine("GET /api/workflows/" + API_VERSION + "/{id}/metadata")
+    CromwellMetadataResponse getMetadata(@Param("id") String id, @QueryMap CromwellMetadataQuery query);
+
+    /**
+     * Retrieve the metadata without decoding it, so that the body can be read as a stream. The caller is responsible for
+     * closing the response
+     */
+    @RequestLine("GET /api/workflows/" + API_VERSION + "/{id}/metadata")
+    Response streamMetadata(@Param("id") String id, @QueryMap CromwellMetadataQuery query);
 
 
     @RequestLine("POST /api/workflows/" + API_VERSION + "/{id}/abort")
     CromwellStatus abortWorkflow(@Param("id") String id);
 
 
+    @RequestLine("POST /api/workflows/" + API_VERSION + "/{id}/releaseHold")
+    CromwellStatus releaseHold(@Param("id") String id);
+
+
     @RequestLine("POST /api/workflows/" + API_VERSION)
     @Headers("Content-Type: " + MediaType.MULTIPART_FORM_DATA_VALUE)
     CromwellStatus createWorkflow(CromwellExecutionRequest executionRequest);
 
+    @RequestLine("POST /api/workflows/" + API_VERSION + "/batch")
+    @Headers("Content-Type: " + MediaType.MULTIPART_FORM_DATA_VALUE)
+    List<CromwellStatus> createWorkflows(CromwellBatchExecutionRequest executionRequest);
+
 }
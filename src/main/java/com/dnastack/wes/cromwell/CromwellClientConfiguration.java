@@ -1,9 +1,9 @@
 package com.dnastack.wes.cromwell;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-import feign.Client;
 import feign.Feign;
 import feign.Logger;
+import feign.Request;
 import feign.auth.BasicAuthRequestInterceptor;
 import feign.codec.Decoder;
 import feign.codec.Encoder;
@@ -11,10 +11,22 @@ import feign.form.FormEncoder;
 import feign.jackson.JacksonDecoder;
 import feign.jackson.JacksonEncoder;
 import feign.okhttp.OkHttpClient;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.okhttp3.OkHttpConnectionPoolMetrics;
+import io.micrometer.core.instrument.binder.okhttp3.OkHttpMetricsEventListener;
 import lombok.extern.slf4j.Slf4j;
+import okhttp3.ConnectionPool;
+import okhttp3.Interceptor;
+import okhttp3.Protocol;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
 @Slf4j
 @Configuration
 public class CromwellClientConfiguration {
@@ -27,11 +39,50 @@ public class CromwellClientConfiguration {
     public Decoder decoder(ObjectMapper mapper) {
         return new JacksonDecoder(mapper);
     }
+
+    /**
+     * The http client shared by every request to cromwell. Connections are pooled and kept alive between requests, the
+     * number of requests in flight at once is bounded, and each request is recorded under the
+     * <code>cromwell.http.client</code> metrics tagged with its {@link CromwellOperation}.
+     */
+    @Bean
+    public okhttp3.OkHttpClient cromwellHttpClient(CromwellConfig cromwellConfig, MeterRegistry meterRegistry) {
+        CromwellConfig.TransportConfig transport = cromwellConfig.getTransport();
+        ConnectionPool connectionPool = new ConnectionPool(transport.getMaxIdleConnections(), transport.getKeepAlive()
+            .toMillis(), TimeUnit.MILLISECONDS);
+        new OkHttpConnectionPoolMetrics(connectionPool).bindTo(meterRegistry);
+
+        okhttp3.OkHttpClient.Builder builder = new okhttp3.OkHttpClient.Builder()
+            .connectionPool(connectionPool)
+            .connectTimeout(transport.getConnectTimeout())
+            .readTimeout(transport.getReadTimeout())
+            .eventListener(OkHttpMetricsEventListener.builder(meterRegistry, "cromwell.http.client")
+                .uriMapper(request -> CromwellOperation.of(request).name())
+                .build())
+            .addInterceptor(concurrencyLimit(transport.getMaxConcurrentRequests()))
+            .addInterceptor(operationTimeouts(transport));
+        if (!transport.isCompression()) {
+            // okhttp requests gzip and decompresses the response unless an encoding has already been set
+            builder.addInterceptor(chain -> chain.proceed(chain.request()
+                .newBuilder()
+                .header("Accept-Encoding", "identity")
+                .build()));
+        }
+        if (transport.isHttp2PriorKnowledge()) {
+            builder.protocols(List.of(Protocol.H2_PRIOR_KNOWLEDGE));
+        }
+        return builder.build();
+    }
+
     @Bean
-    public CromwellClient cromwellClient(Encoder encoder, Decoder decoder, CromwellConfig cromwellConfig) {
-        Client httpClient = new OkHttpClient();
+    public CromwellClient cromwellClient(Encoder encoder, Decoder decoder, CromwellConfig cromwellConfig, okhttp3.OkHttpClient cromwellHttpClient) {
+        // feign rebuilds the okhttp client for every request whose options differ from the client's own timeouts, so
+        // the options must mirror them
+        Request.Options options = new Request.Options(cromwellHttpClient.connectTimeoutMillis(), TimeUnit.MILLISECONDS, cromwellHttpClient
+            .readTimeoutMillis(), TimeUnit.MILLISECONDS, cromwellHttpClient.followRedirects());
 
-        Feign.Builder builder = Feign.builder().client(httpClient).encoder(encoder).decoder(decoder)
+        Feign.Builder builder = Feign.builder().client(new OkHttpClient(cromwellHttpClient)).options(options)
+            .encoder(encoder).decoder(decoder)
             .logger(new SimpleLogger()).logLevel(Logger.Level.BASIC);
         if (cromwellConfig.getPassword() != null && cromwellConfig.getUsername() != null) {
             builder.requestInterceptor(new BasicAuthRequestInterceptor(cromwellConfig
@@ -42,6 +93,37 @@ public class CromwellClientConfiguration {
 
     }
 
+    /**
+     * Feign executes requests synchronously, which the okhttp dispatcher does not limit, so requests in flight are
+     * bounded here instead
+     */
+    private static Interceptor concurrencyLimit(int maxConcurrentRequests) {
+        Semaphore permits = new Semaphore(maxConcurrentRequests, true);
+        return chain -> {
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting to send request to cromwell");
+            }
+            try {
+                return chain.proceed(chain.request());
+            } finally {
+                permits.release();
+            }
+        };
+    }
+
+    private static Interceptor operationTimeouts(CromwellConfig.TransportConfig transport) {
+        return chain -> {
+            Duration readTimeout = transport.getReadTimeouts().get(CromwellOperation.of(chain.request()));
+            if (readTimeout == null) {
+                return chain.proceed(chain.request());
+            }
+            return chain.withReadTimeout((int) readTimeout.toMillis(), TimeUnit.MILLISECONDS).proceed(chain.request());
+        };
+    }
+
     public static class SimpleLogger extends Logger {
 
         @Override
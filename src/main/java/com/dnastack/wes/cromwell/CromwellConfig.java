@@ -1,10 +1,13 @@
 package com.dnastack.wes.cromwell;
 
+import lombok.Data;
 import lombok.Getter;
 import lombok.Setter;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
 
+import java.time.Duration;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -36,8 +39,18 @@ public class CromwellConfig {
      */
     Map<String, Object> defaultWorkflowOptions = new HashMap<>();
 
+    /**
+     * The label used to record the subject of the user who submitted a run
+     */
     String userLabel = "user_id";
 
+    /**
+     * Limit run listings and state counts to the runs submitted by the authenticated user, identified by the user label.
+     * The label is passed to cromwell (or the run index) so that the cost of a listing depends on the number of runs
+     * the user has submitted
+     */
+    boolean multiTenant = false;
+
     String workflowUrlLabel = "workflow_url";
 
     String optionsFilename = "options.json";
@@ -48,5 +61,498 @@ public class CromwellConfig {
 
     List<String> validCromwellOptions = List.of();
 
+    /**
+     * Configuration for the http client used to communicate with cromwell
+     */
+    TransportConfig transport = new TransportConfig();
+
+    /**
+     * Configuration for accepting runs for submission in the background
+     */
+    AsyncSubmissionConfig asyncSubmission = new AsyncSubmissionConfig();
+
+    /**
+     * Configuration for sharing cromwell fairly between users by holding runs until they are under quota
+     */
+    SchedulerConfig scheduler = new SchedulerConfig();
+
+    /**
+     * Configuration for the in-process cache of workflow metadata retrieved from cromwell
+     */
+    MetadataCacheConfig metadataCache = new MetadataCacheConfig();
+
+    /**
+     * Configuration for the in-process cache of workflow sources, dependency bundles and options files
+     */
+    WorkflowSourceCacheConfig workflowSourceCache = new WorkflowSourceCacheConfig();
+
+    /**
+     * Stream the metadata returned by cromwell directly into the run log response instead of deserializing the complete
+     * metadata document first. Metadata which is already cached is always served from the cache
+     */
+    boolean streamRunLogs = true;
+
+    /**
+     * Share a single request to cromwell between concurrent callers reading the status or metadata of the same run
+     */
+    boolean coalesceRequests = true;
+
+    /**
+     * The maximum number of runs submitted to cromwell in a single request to its batch api
+     */
+    int batchSubmissionSize = 500;
+
+    /**
+     * The maximum number of abort requests sent to cromwell concurrently when canceling runs in bulk. Aborts are sent
+     * from a pool of this many threads which is shared by every request
+     */
+    int cancelParallelism = 8;
+
+    /**
+     * The maximum number of workflow attachments uploaded to blob storage concurrently. Uploads are made from a pool of
+     * this many threads which is shared by every submission
+     */
+    int stagingParallelism = 8;
+
+    /**
+     * Stage workflow attachments under the digest of their content instead of in a new folder for every run, so that
+     * identical attachments submitted by different runs are only uploaded and stored once
+     */
+    boolean contentAddressedStaging = false;
+
+    /**
+     * The maximum size in bytes of a part of a streamed run submission which is read into memory rather than streamed to
+     * blob storage, such as a workflow source or the workflow params
+     */
+    long maxBufferedPartSize = 10L * 1024 * 1024;
+
+    /**
+     * Configuration for following the logs of running tasks as they are written
+     */
+    LogFollowConfig logFollow = new LogFollowConfig();
+
+    /**
+     * Configuration for watching runs for changes of state
+     */
+    RunWatchConfig runWatch = new RunWatchConfig();
+
+    /**
+     * Configuration for notifying callback urls of changes to the state of runs
+     */
+    WebhookConfig webhooks = new WebhookConfig();
+
+    /**
+     * Configuration for the aggregated run counts reported in the service info
+     */
+    StateCountsConfig stateCounts = new StateCountsConfig();
+
+    /**
+     * Configuration for the local index of runs used to serve run listings
+     */
+    RunIndexConfig runIndex = new RunIndexConfig();
+
+
+    @Data
+    public static class TransportConfig {
+
+        /**
+         * The maximum number of idle connections to keep open to cromwell
+         */
+        private int maxIdleConnections = 20;
+
+        /**
+         * How long an idle connection is kept open before it is closed
+         */
+        private Duration keepAlive = Duration.ofMinutes(5);
+
+        /**
+         * The maximum number of requests which may be in flight to cromwell at once. Further requests wait for a
+         * request to complete
+         */
+        private int maxConcurrentRequests = 64;
+
+        private Duration connectTimeout = Duration.ofSeconds(10);
+
+        /**
+         * The read timeout for operations without a more specific timeout in {@link #readTimeouts}
+         */
+        private Duration readTimeout = Duration.ofSeconds(30);
+
+        /**
+         * Read timeouts for specific operations
+         */
+        private Map<CromwellOperation, Duration> readTimeouts = new EnumMap<>(Map.of(
+            CromwellOperation.METADATA, Duration.ofMinutes(2),
+            CromwellOperation.QUERY, Duration.ofMinutes(1),
+            CromwellOperation.SUBMIT, Duration.ofMinutes(2)
+        ));
+
+        /**
+         * Request gzip compressed responses from cromwell, which are decompressed transparently
+         */
+        private boolean compression = true;
+
+        /**
+         * Communicate with cromwell over cleartext HTTP/2 (h2c) with prior knowledge, instead of HTTP/1.1. Only applies to
+         * <code>http</code> urls, HTTP/2 is always negotiated for <code>https</code> urls when cromwell supports it
+         */
+        private boolean http2PriorKnowledge = false;
+
+    }
+
+
+    @Data
+    public static class AsyncSubmissionConfig {
+
+        /**
+         * Accept runs into a queue on local disk and submit them to cromwell in the background when the client asks for
+         * an asynchronous response
+         */
+        private boolean enabled = false;
+
+        /**
+         * Submit every run in the background, even when the client does not ask for an asynchronous response
+         */
+        private boolean always = false;
+
+        /**
+         * The directory submissions and their attachments are written to until they have been submitted
+         */
+        private String path = "submissions";
+
+        /**
+         * The number of submissions processed concurrently
+         */
+        private int workers = 4;
+
+        /**
+         * The maximum number of submissions waiting to be processed. Further submissions are rejected until the queue
+         * drains
+         */
+        private int capacity = 500;
+
+        /**
+         * How long the outcome of a submission is retained once it has been processed
+         */
+        private Duration retention = Duration.ofHours(24);
+
+        /**
+         * How long to wait before submitting a run again after cromwell or storage could not be reached. The delay
+         * doubles after every failed attempt
+         */
+        private Duration initialRetryDelay = Duration.ofSeconds(5);
+
+        /**
+         * The longest time to wait between attempts to submit a run
+         */
+        private Duration maxRetryDelay = Duration.ofMinutes(5);
+
+        /**
+         * The number of attempts after which a submission which could not reach cromwell or storage is failed
+         */
+        private int maxAttempts = 10;
+
+    }
+
+
+    @Data
+    public static class SchedulerConfig {
+
+        /**
+         * Submit every run on hold, and release held runs while their user and tags are under quota
+         */
+        private boolean enabled = false;
+
+        /**
+         * How often held runs are considered for release
+         */
+        private Duration interval = Duration.ofSeconds(10);
+
+        /**
+         * The maximum number of runs each user may have submitted or running in cromwell at once
+         */
+        private int maxActiveRunsPerUser = 100;
+
+        /**
+         * The maximum number of runs carrying a tag which may be submitted or running in cromwell at once, keyed by the
+         * tag formatted as <code>key:value</code>
+         */
+        private Map<String, Integer> tagQuotas = new HashMap<>();
+
+        /**
+         * The label set on every run which is submitted on hold, formatted as <code>key:value</code>. Only held runs
+         * carrying the label are released, so runs put on hold by other clients of cromwell are left alone
+         */
+        private String holdLabel = "held_by:wes";
+
+        /**
+         * The maximum number of runs released in a single cycle
+         */
+        private int maxReleasesPerCycle = 500;
+
+        /**
+         * The page size used when listing held and active runs from cromwell
+         */
+        private int queryPageSize = 500;
+
+    }
+
+
+    @Data
+    public static class MetadataCacheConfig {
+
+        private boolean enabled = true;
+
+        /**
+         * The maximum number of metadata documents to hold. Once exceeded, the least recently used entries are evicted
+         */
+        private long maximumSize = 200;
+
+        /**
+         * How long metadata for a workflow which is not yet in a terminal state may be served from the cache. Metadata
+         * for succeeded, failed or aborted workflows is retained until it is evicted by size
+         */
+        private Duration activeRunTtl = Duration.ofSeconds(10);
+
+        /**
+         * The maximum combined size in bytes of the cached failures logs of runs in a terminal state
+         */
+        private long failuresLogMaximumBytes = 16L * 1024 * 1024;
+
+        /**
+         * The maximum number of runs whose task log paths are indexed. The index of a run in a terminal state is retained
+         * until it is evicted by size, the index of an active run for the active run ttl
+         */
+        private long taskLogIndexMaximumSize = 1000;
+
+    }
+
+
+    @Data
+    public static class WorkflowSourceCacheConfig {
+
+        private boolean enabled = true;
+
+        /**
+         * The maximum combined size in bytes of the cached workflow sources, dependency bundles and options files. Once
+         * exceeded, the least recently used entries are evicted
+         */
+        private long maximumBytes = 64L * 1024 * 1024;
+
+    }
+
+
+    @Data
+    public static class LogFollowConfig {
+
+        /**
+         * Allow clients to follow the stdout and stderr of tasks as server sent events
+         */
+        private boolean enabled = true;
+
+        /**
+         * How long to wait before checking a log for new content after it last grew
+         */
+        private Duration minPollInterval = Duration.ofSeconds(1);
+
+        /**
+         * The longest time to wait between checks of a log which has not grown. The interval doubles after every check
+         * which finds no new content, up to this limit
+         */
+        private Duration maxPollInterval = Duration.ofSeconds(15);
+
+        /**
+         * The maximum number of bytes read from a log and sent to its followers at once
+         */
+        private int maxChunkSize = 1024 * 1024;
+
+        /**
+         * How long a client may follow a single log before the stream is closed
+         */
+        private Duration timeout = Duration.ofHours(1);
+
+        /**
+         * The number of threads polling followed logs for new content
+         */
+        private int pollerThreads = 2;
+
+    }
+
+
+    @Data
+    public static class RunWatchConfig {
+
+        /**
+         * Allow clients to watch runs for changes of state
+         */
+        private boolean enabled = true;
+
+        /**
+         * How long to wait before checking a watched run again after its state last changed
+         */
+        private Duration minPollInterval = Duration.ofSeconds(2);
+
+        /**
+         * The longest time to wait between checks of a watched run. The interval doubles after every check which finds
+         * the state of the run unchanged, up to this limit
+         */
+        private Duration maxPollInterval = Duration.ofSeconds(30);
+
+        /**
+         * How long a client may hold a single stream of state changes open before it is closed
+         */
+        private Duration timeout = Duration.ofMinutes(30);
+
+        /**
+         * How long a long poll waits for a change of state before responding that nothing has changed
+         */
+        private Duration longPollTimeout = Duration.ofSeconds(30);
+
+        /**
+         * How long a watched run may be unknown to cromwell before it is no longer watched
+         */
+        private Duration missingRunTimeout = Duration.ofHours(1);
+
+    }
+
+
+    @Data
+    public static class WebhookConfig {
+
+        /**
+         * Deliver changes to the state of runs submitted with a callback url to that url
+         */
+        private boolean enabled = false;
+
+        /**
+         * The tag holding the callback url of a run
+         */
+        private String callbackTag = "callback_url";
+
+        /**
+         * The key used to sign each delivery. Must be set when webhooks are enabled
+         */
+        private String secret = null;
+
+        /**
+         * If not empty, callback urls must have the same scheme, host and port as one of these urls, and a path under its
+         * path. If empty, callback urls must be <code>https</code> and resolve to public addresses
+         */
+        private List<String> allowedUrlPrefixes = List.of();
+
+        /**
+         * The directory tracked runs and undelivered changes are written to, so that they survive a restart
+         */
+        private String path = "webhooks";
+
+        /**
+         * The maximum number of undelivered changes. Further changes are dropped until the outbox drains
+         */
+        private int capacity = 10000;
+
+        /**
+         * The maximum number of changes delivered to a callback url in a single request
+         */
+        private int batchSize = 100;
+
+        /**
+         * How often undelivered changes are sent
+         */
+        private Duration deliveryInterval = Duration.ofSeconds(1);
+
+        /**
+         * The number of callback urls delivered to concurrently
+         */
+        private int deliveryThreads = 4;
+
+        /**
+         * How long to wait before retrying a failed delivery for the first time. The delay doubles after every failed
+         * attempt, up to the maximum retry delay
+         */
+        private Duration initialRetryDelay = Duration.ofSeconds(5);
+
+        /**
+         * The longest time to wait before retrying a failed delivery
+         */
+        private Duration maxRetryDelay = Duration.ofMinutes(10);
+
+        /**
+         * The number of attempts to deliver a change before it is dropped
+         */
+        private int maxAttempts = 10;
+
+        /**
+         * The connect and read timeout of a single delivery
+         */
+        private Duration timeout = Duration.ofSeconds(10);
+
+    }
+
+
+    @Data
+    public static class StateCountsConfig {
+
+        /**
+         * How often the state counts are recomputed in the background
+         */
+        private Duration refreshInterval = Duration.ofSeconds(30);
+
+        /**
+         * The maximum age of the state counts which are served. Tenants whose counts have not been read for this long
+         * are no longer refreshed
+         */
+        private Duration maxStaleness = Duration.ofMinutes(5);
+
+        /**
+         * The maximum number of tenants to refresh state counts for
+         */
+        private long maximumTenants = 1000;
+
+    }
+
+
+    @Data
+    public static class RunIndexConfig {
+
+        /**
+         * Serve run listings from a local index which is kept in sync with cromwell, instead of querying cromwell for
+         * every page
+         */
+        private boolean enabled = false;
+
+        /**
+         * The file the index is persisted to, so that it does not need to be rebuilt from scratch on restart. If not
+         * set, the index is only held in memory
+         */
+        private String path = null;
+
+        /**
+         * How often to poll cromwell for new and changed runs
+         */
+        private Duration syncInterval = Duration.ofSeconds(15);
+
+        /**
+         * How often the index is written to disk
+         */
+        private Duration persistInterval = Duration.ofMinutes(5);
+
+        /**
+         * The page size used when querying cromwell for changes
+         */
+        private int syncPageSize = 500;
+
+        /**
+         * How far before the latest indexed submission time to look for new runs on each sync, to account for runs
+         * which become visible in cromwell after runs submitted later than them
+         */
+        private Duration submissionLookback = Duration.ofMinutes(1);
+
+        /**
+         * The maximum number of runs held in the index. Once it is full, the oldest runs which have reached a terminal
+         * state are evicted, and listings which reach back past them continue from cromwell
+         */
+        private int maxRuns = 200000;
+
+    }
 
 }
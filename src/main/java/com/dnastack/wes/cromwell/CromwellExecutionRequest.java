@@ -1,9 +1,9 @@
 package com.dnastack.wes.cromwell;
 
+import feign.form.FormData;
 import feign.form.FormProperty;
 import lombok.*;
 
-import java.io.File;
 import java.util.Map;
 
 
@@ -20,6 +20,9 @@ public class CromwellExecutionRequest {
     @FormProperty("workflowUrl")
     String workflowUrl;
 
+    @FormProperty("requestedWorkflowId")
+    String requestedWorkflowId;
+
     @FormProperty("workflowOnHold")
     Boolean workflowOnHold;
 
@@ -27,7 +30,7 @@ public class CromwellExecutionRequest {
     String workflowSource;
 
     @FormProperty("workflowDependencies")
-    File workflowDependencies;
+    FormData workflowDependencies;
 
     @FormProperty("workflowOptions")
     Map<String, Object> workflowOptions;
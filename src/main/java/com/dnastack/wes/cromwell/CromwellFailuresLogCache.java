@@ -0,0 +1,69 @@
+package com.dnastack.wes.cromwell;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.function.Function;
+
+/**
+ * Bounded in-process cache of the rendered run level failures log, the <code>JSON</code> serialized workflow failures
+ * served as the stderr of a run. The failures of a run in a terminal state no longer change, so they are rendered once
+ * and every later request, including each range request of a client reading the log in chunks, is served from the same
+ * buffer. The failures of a run which is still active are rendered on every request.
+ * <p>
+ * The cache is bounded by the combined size of the rendered logs. Hit, miss and eviction counts are published through
+ * micrometer under the {@code cromwell.failures.log} cache name.
+ */
+@Component
+public class CromwellFailuresLogCache {
+
+    private static final ObjectMapper mapper = new ObjectMapper().findAndRegisterModules();
+    private static final byte[] EMPTY = new byte[0];
+
+    private final boolean enabled;
+    private final Cache<String, byte[]> cache;
+
+    @Autowired
+    public CromwellFailuresLogCache(CromwellConfig config, MeterRegistry meterRegistry) {
+        this(config.getMetadataCache(), meterRegistry);
+    }
+
+    CromwellFailuresLogCache(CromwellConfig.MetadataCacheConfig config, MeterRegistry meterRegistry) {
+        this.enabled = config.isEnabled();
+        this.cache = Caffeine.newBuilder()
+            .maximumWeight(config.getFailuresLogMaximumBytes())
+            .weigher((String runId, byte[] log) -> log.length)
+            .recordStats()
+            .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "cromwell.failures.log");
+    }
+
+    /**
+     * Return the rendered failures log of the run, loading the failures of the run with the provided function if the
+     * log is not cached. The returned buffer must not be modified
+     *
+     * @return the failures log, or an empty buffer if the run has no failures
+     */
+    public byte[] get(String runId, Function<String, CromwellMetadataResponse> loader) throws JsonProcessingException {
+        if (enabled) {
+            byte[] cached = cache.getIfPresent(runId);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        CromwellMetadataResponse metadata = loader.apply(runId);
+        byte[] log = metadata.getFailures() == null ? EMPTY : mapper.writeValueAsBytes(metadata.getFailures());
+        if (enabled && CromwellMetadataCache.isTerminal(metadata.getStatus())) {
+            cache.put(runId, log);
+        }
+        return log;
+    }
+
+}
@@ -0,0 +1,221 @@
+package com.dnastack.wes.cromwell;
+
+import feign.FeignException;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shares cromwell fairly between users by limiting how many runs each user, and each tag, may have active at once. When
+ * the scheduler is enabled every run is submitted to cromwell on hold, carrying the configured hold label. On each cycle
+ * the scheduler counts the active runs of each user (by the user label) and of each tag with a quota, and releases held
+ * runs while they are under quota. Only held runs carrying the hold label are released, runs put on hold by anyone else
+ * are left on hold.
+ * <p>
+ * Held runs are released round robin between users, oldest first for each user, so a user with a large backlog cannot
+ * delay the runs of other users. The number of held runs and the age of the oldest held run are published as gauges, and
+ * the time each run was held for is recorded when it is released.
+ * <p>
+ * Only one instance of the service should run the scheduler against a cromwell server, otherwise runs may be released
+ * past the quotas.
+ */
+@Slf4j
+@Component
+public class CromwellFairShareScheduler {
+
+    static final String ON_HOLD = "On Hold";
+
+    private static final List<String> ACTIVE_STATUSES = List.of("Submitted", "Running");
+    private static final List<String> QUERY_RESULT_FIELDS = List.of("labels");
+
+    private final CromwellClient client;
+    private final CromwellConfig.SchedulerConfig config;
+    private final String userLabel;
+    private final Clock clock;
+    private final Timer waitTimer;
+    private final AtomicLong heldRuns = new AtomicLong();
+    private final AtomicLong oldestHeldSeconds = new AtomicLong();
+
+    @Autowired
+    public CromwellFairShareScheduler(CromwellClient client, CromwellConfig config, MeterRegistry meterRegistry) {
+        this(client, config.getScheduler(), config.getUserLabel(), meterRegistry, Clock.systemUTC());
+    }
+
+    CromwellFairShareScheduler(
+        CromwellClient client,
+        CromwellConfig.SchedulerConfig config,
+        String userLabel,
+        MeterRegistry meterRegistry,
+        Clock clock
+    ) {
+        this.client = client;
+        this.config = config;
+        this.userLabel = userLabel;
+        this.clock = clock;
+        this.waitTimer = Timer.builder("cromwell.scheduler.wait")
+            .description("How long runs were held before they were released to cromwell")
+            .register(meterRegistry);
+        Gauge.builder("cromwell.scheduler.held", heldRuns, AtomicLong::get)
+            .description("Runs held in cromwell waiting to be released")
+            .register(meterRegistry);
+        Gauge.builder("cromwell.scheduler.oldest.wait", oldestHeldSeconds, AtomicLong::get)
+            .description("How long the oldest held run has been waiting, in seconds")
+            .baseUnit("seconds")
+            .register(meterRegistry);
+    }
+
+    /**
+     * Release held runs which are under their quotas. Failures are logged and retried on the next cycle
+     */
+    @Scheduled(fixedDelayString = "${wes.cromwell.scheduler.interval:PT10S}")
+    public synchronized void schedule() {
+        if (!config.isEnabled()) {
+            return;
+        }
+
+        try {
+            List<CromwellStatus> held = listAll(List.of(ON_HOLD), List.of(config.getHoldLabel()));
+            Instant now = clock.instant();
+            heldRuns.set(held.size());
+            oldestHeldSeconds.set(held.stream()
+                .map(CromwellStatus::getSubmission)
+                .filter(Objects::nonNull)
+                .map(submission -> Duration.between(submission.toInstant(), now).toSeconds())
+                .max(Long::compare)
+                .orElse(0L));
+            if (held.isEmpty()) {
+                return;
+            }
+
+            Map<String, Integer> activeByUser = new HashMap<>();
+            Map<String, Integer> activeByTag = new HashMap<>();
+            for (CromwellStatus run : listAll(ACTIVE_STATUSES, null)) {
+                activeByUser.merge(getUser(run), 1, Integer::sum);
+                getQuotaTags(run).forEach(tag -> activeByTag.merge(tag, 1, Integer::sum));
+            }
+
+            int released = release(held, activeByUser, activeByTag, now);
+            heldRuns.addAndGet(-released);
+            log.debug("Released {} of {} held runs", released, held.size());
+        } catch (Exception e) {
+            log.warn("Could not schedule held runs: {}", e.getMessage(), e);
+        }
+    }
+
+    private int release(List<CromwellStatus> held, Map<String, Integer> activeByUser, Map<String, Integer> activeByTag, Instant now) {
+        Map<String, Deque<CromwellStatus>> heldByUser = new LinkedHashMap<>();
+        held.stream()
+            .sorted(Comparator.comparing(CromwellStatus::getSubmission, Comparator.nullsLast(Comparator.<ZonedDateTime>naturalOrder())))
+            .forEach(run -> heldByUser.computeIfAbsent(getUser(run), user -> new ArrayDeque<>()).add(run));
+
+        int released = 0;
+        boolean progressed = true;
+        while (progressed && released < config.getMaxReleasesPerCycle()) {
+            progressed = false;
+            for (Map.Entry<String, Deque<CromwellStatus>> entry : heldByUser.entrySet()) {
+                String user = entry.getKey();
+                Deque<CromwellStatus> queue = entry.getValue();
+                if (queue.isEmpty() || activeByUser.getOrDefault(user, 0) >= config.getMaxActiveRunsPerUser()) {
+                    continue;
+                }
+
+                // runs blocked by a tag quota keep their place while the user's later runs are considered
+                CromwellStatus run = queue.stream().filter(candidate -> isUnderTagQuotas(candidate, activeByTag)).findFirst().orElse(null);
+                if (run == null) {
+                    continue;
+                }
+                queue.remove(run);
+                progressed = true;
+                if (releaseHold(run, now)) {
+                    activeByUser.merge(user, 1, Integer::sum);
+                    getQuotaTags(run).forEach(tag -> activeByTag.merge(tag, 1, Integer::sum));
+                    released++;
+                    if (released >= config.getMaxReleasesPerCycle()) {
+                        break;
+                    }
+                }
+            }
+        }
+        return released;
+    }
+
+    private boolean releaseHold(CromwellStatus run, Instant now) {
+        try {
+            client.releaseHold(run.getId());
+            if (run.getSubmission() != null) {
+                waitTimer.record(Duration.between(run.getSubmission().toInstant(), now));
+            }
+            log.debug("Released run {} of user {}", run.getId(), getUser(run));
+            return true;
+        } catch (FeignException e) {
+            // the run may have been aborted or released since it was listed
+            log.warn("Could not release run {}: {}", run.getId(), e.getMessage());
+            return false;
+        }
+    }
+
+    private boolean isUnderTagQuotas(CromwellStatus run, Map<String, Integer> activeByTag) {
+        return getQuotaTags(run).stream()
+            .allMatch(tag -> activeByTag.getOrDefault(tag, 0) < config.getTagQuotas().get(tag));
+    }
+
+    private List<String> getQuotaTags(CromwellStatus run) {
+        if (run.getLabels() == null || config.getTagQuotas().isEmpty()) {
+            return List.of();
+        }
+        List<String> tags = new ArrayList<>();
+        run.getLabels().forEach((key, value) -> {
+            String tag = key + ":" + value;
+            if (config.getTagQuotas().containsKey(tag)) {
+                tags.add(tag);
+            }
+        });
+        return tags;
+    }
+
+    private String getUser(CromwellStatus run) {
+        String user = run.getLabels() == null ? null : run.getLabels().get(userLabel);
+        return user == null ? "" : user;
+    }
+
+    private List<CromwellStatus> listAll(List<String> statuses, List<String> labels) {
+        List<CromwellStatus> runs = new ArrayList<>();
+        for (int page = 1; ; page++) {
+            CromwellSearch search = CromwellSearch.builder()
+                .status(statuses)
+                .label(labels)
+                .additionalQueryResultFields(QUERY_RESULT_FIELDS)
+                .page(page)
+                .pageSize(config.getQueryPageSize())
+                .build();
+            CromwellResponse response = client.listWorkflows(search);
+            if (response.getResults() == null || response.getResults().isEmpty()) {
+                return runs;
+            }
+            runs.addAll(response.getResults());
+            if (response.getResults().size() < config.getQueryPageSize()) {
+                return runs;
+            }
+        }
+    }
+
+}
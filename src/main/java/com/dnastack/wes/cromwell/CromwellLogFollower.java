@@ -0,0 +1,338 @@
+package com.dnastack.wes.cromwell;
+
+import com.dnastack.wes.shared.InvalidRequestException;
+import com.dnastack.wes.shared.NotFoundException;
+import com.dnastack.wes.storage.BlobStorageClient;
+import com.dnastack.wes.storage.StorageException;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpRange;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Streams the stdout or stderr of a task to clients as server sent events while it is being written. Every client
+ * following the same log shares a single poller, which checks the size of the log in blob storage, reads each new chunk
+ * once and sends every follower the part of the chunk past its own offset. A log which grows is checked again after the
+ * minimum poll interval, a log which does not grow is checked half as often each time, up to the maximum poll interval.
+ * <p>
+ * Each event carries the log content as <code>UTF-8</code> text, and its id is the offset in bytes of the end of the
+ * content, so a client can resume from where it stopped with the <code>Last-Event-ID</code> header. Once the task has
+ * reached a terminal state and the whole log has been sent, an <code>end</code> event holding the status of the task is
+ * sent and the stream is closed.
+ */
+@Slf4j
+@Component
+public class CromwellLogFollower implements DisposableBean {
+
+    private static final Set<String> TERMINAL_TASK_STATUSES = Set.of(
+        "Done",
+        "Failed",
+        "Aborted",
+        "Bypassed",
+        "Unstartable",
+        "RetryableFailure"
+    );
+
+    private final CromwellService cromwellService;
+    private final BlobStorageClient storageClient;
+    private final CromwellConfig.LogFollowConfig config;
+    private final ScheduledExecutorService executor;
+    private final Map<String, LogPoller> pollers = new ConcurrentHashMap<>();
+
+    @Autowired
+    public CromwellLogFollower(
+        CromwellService cromwellService,
+        BlobStorageClient storageClient,
+        CromwellConfig config,
+        MeterRegistry meterRegistry
+    ) {
+        this(cromwellService, storageClient, config.getLogFollow());
+        Gauge.builder("cromwell.logs.followed", pollers, Map::size)
+            .description("Task logs which are being followed by at least one client")
+            .register(meterRegistry);
+        Gauge.builder("cromwell.logs.followers", pollers, active -> active.values().stream()
+                .mapToInt(poller -> poller.followers.size())
+                .sum())
+            .description("Clients following a task log")
+            .register(meterRegistry);
+    }
+
+    CromwellLogFollower(CromwellService cromwellService, BlobStorageClient storageClient, CromwellConfig.LogFollowConfig config) {
+        this.cromwellService = cromwellService;
+        this.storageClient = storageClient;
+        this.config = config;
+        AtomicInteger threads = new AtomicInteger();
+        this.executor = Executors.newScheduledThreadPool(config.getPollerThreads(), runnable -> {
+            Thread thread = new Thread(runnable, "log-follower-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Follow the stdout or stderr of a task, starting at the given offset in bytes
+     *
+     * @throws FileNotFoundException if the task does not exist, or has no such log
+     */
+    public SseEmitter follow(String runId, String taskId, String logKey, long offset) throws FileNotFoundException {
+        if (!config.isEnabled()) {
+            throw new InvalidRequestException("Following task logs is not enabled");
+        }
+        CromwellTaskLogIndex.TaskLogPaths logPaths = cromwellService.getTaskLogs(runId).getByTaskId(taskId);
+        String logPath = logPaths == null ? null : logPaths.get(logKey);
+        if (logPath == null) {
+            throw new FileNotFoundException(
+                "Could not follow " + logKey + " for task " + taskId + " in run " + runId + ", it does not exist");
+        }
+
+        SseEmitter emitter = new SseEmitter(config.getTimeout().toMillis());
+        Follower follower = new Follower(emitter, Math.max(offset, 0));
+        LogPoller poller = pollers.compute(logPath, (path, existing) -> {
+            LogPoller active = existing != null ? existing : new LogPoller(runId, taskId, path);
+            active.followers.add(follower);
+            return active;
+        });
+        emitter.onCompletion(() -> poller.followers.remove(follower));
+        emitter.onTimeout(emitter::complete);
+        emitter.onError(e -> poller.followers.remove(follower));
+        poller.wake();
+        return emitter;
+    }
+
+    @Override
+    public void destroy() {
+        pollers.values().forEach(poller -> poller.followers.forEach(follower -> follower.emitter.complete()));
+        executor.shutdownNow();
+    }
+
+    /**
+     * The length of the prefix of the chunk which does not end in the middle of a <code>UTF-8</code> encoded character,
+     * so that a character split between two reads is sent whole with the second one
+     */
+    static int characterBoundary(byte[] chunk, int length) {
+        for (int i = length - 1; i >= Math.max(0, length - 4); i--) {
+            int b = chunk[i] & 0xFF;
+            if ((b & 0xC0) != 0x80) {
+                int width = b < 0x80 ? 1 : b >= 0xF0 ? 4 : b >= 0xE0 ? 3 : 2;
+                return i + width <= length || i == 0 ? length : i;
+            }
+        }
+        return length;
+    }
+
+
+    private static class Follower {
+
+        private final SseEmitter emitter;
+        private volatile long offset;
+
+        Follower(SseEmitter emitter, long offset) {
+            this.emitter = emitter;
+            this.offset = offset;
+        }
+
+    }
+
+
+    private class LogPoller {
+
+        private final String runId;
+        private final String taskId;
+        private final String path;
+        private final List<Follower> followers = new CopyOnWriteArrayList<>();
+
+        private volatile Duration interval = config.getMinPollInterval();
+        private ScheduledFuture<?> next;
+        private long generation;
+        private boolean polling;
+        private boolean woken;
+        private boolean closed;
+
+        LogPoller(String runId, String taskId, String path) {
+            this.runId = runId;
+            this.taskId = taskId;
+            this.path = path;
+        }
+
+        /**
+         * Poll immediately, so that a new follower does not wait for the backoff of an idle log
+         */
+        synchronized void wake() {
+            interval = config.getMinPollInterval();
+            if (polling) {
+                woken = true;
+            } else if (!closed) {
+                schedule(0);
+            }
+        }
+
+        private void schedule(long delayMillis) {
+            if (next != null) {
+                next.cancel(false);
+            }
+            long scheduled = ++generation;
+            next = executor.schedule(() -> run(scheduled), delayMillis, TimeUnit.MILLISECONDS);
+        }
+
+        private void run(long scheduled) {
+            synchronized (this) {
+                if (scheduled != generation || closed) {
+                    return;
+                }
+                polling = true;
+                woken = false;
+            }
+
+            long delay;
+            try {
+                delay = poll();
+            } catch (RuntimeException e) {
+                log.warn("Could not poll {} of task {} in run {}: {}", path, taskId, runId, e.getMessage());
+                delay = backoff();
+            }
+
+            synchronized (this) {
+                polling = false;
+                if (delay < 0 || closed) {
+                    return;
+                }
+                schedule(woken ? 0 : delay);
+            }
+        }
+
+        /**
+         * Send any new content of the log to its followers
+         *
+         * @return how long to wait before polling again, or <code>-1</code> if the poller has been closed
+         */
+        private long poll() {
+            if (followers.isEmpty() && close(false)) {
+                return -1;
+            }
+
+            String taskStatus = getTaskStatus();
+            long size = getSize();
+            long from = followers.stream().mapToLong(follower -> follower.offset).min().orElse(size);
+            if (from < size) {
+                long end = Math.min(size, from + config.getMaxChunkSize());
+                byte[] chunk = read(from, end);
+                int length = end < size ? characterBoundary(chunk, chunk.length) : chunk.length;
+                send(chunk, from, length);
+                interval = config.getMinPollInterval();
+                return from + length < size ? 0 : interval.toMillis();
+            }
+
+            if (taskStatus != null) {
+                close(true);
+                for (Follower follower : followers) {
+                    try {
+                        follower.emitter.send(SseEmitter.event().name("end").data(taskStatus));
+                        follower.emitter.complete();
+                    } catch (IOException | IllegalStateException e) {
+                        follower.emitter.completeWithError(e);
+                    }
+                }
+                return -1;
+            }
+            return backoff();
+        }
+
+        private long backoff() {
+            Duration doubled = interval.multipliedBy(2);
+            interval = doubled.compareTo(config.getMaxPollInterval()) > 0 ? config.getMaxPollInterval() : doubled;
+            return interval.toMillis();
+        }
+
+        /**
+         * @return the status of the task if it is in a terminal state, otherwise <code>null</code>
+         */
+        private String getTaskStatus() {
+            CromwellTaskLogIndex.RunTaskLogs runTaskLogs;
+            try {
+                runTaskLogs = cromwellService.getTaskLogs(runId);
+            } catch (NotFoundException e) {
+                return "Unknown";
+            }
+            CromwellTaskLogIndex.TaskLogPaths logPaths = runTaskLogs.getByTaskId(taskId);
+            if (logPaths != null && TERMINAL_TASK_STATUSES.contains(logPaths.executionStatus())) {
+                return logPaths.executionStatus();
+            }
+            return CromwellMetadataCache.isTerminal(runTaskLogs.status()) ? runTaskLogs.status() : null;
+        }
+
+        private long getSize() {
+            try {
+                return storageClient.getBlobMetadata(path).getSize();
+            } catch (NotFoundException e) {
+                // the task has not written to the log yet
+                return 0;
+            }
+        }
+
+        private byte[] read(long from, long end) {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream(Math.toIntExact(end - from));
+            try {
+                storageClient.readBytes(outputStream, path, HttpRange.createByteRange(from, end - 1));
+            } catch (IOException e) {
+                throw new StorageException(e);
+            }
+            return outputStream.toByteArray();
+        }
+
+        private void send(byte[] chunk, long from, int length) {
+            long end = from + length;
+            for (Follower follower : followers) {
+                if (follower.offset < from || follower.offset >= end) {
+                    continue;
+                }
+                int start = Math.toIntExact(follower.offset - from);
+                try {
+                    follower.emitter.send(SseEmitter.event()
+                        .id(Long.toString(end))
+                        .data(new String(chunk, start, length - start, StandardCharsets.UTF_8)));
+                    follower.offset = end;
+                } catch (IOException | IllegalStateException e) {
+                    followers.remove(follower);
+                    follower.emitter.completeWithError(e);
+                }
+            }
+        }
+
+        /**
+         * Stop polling, unless a follower was added since the last poll
+         *
+         * @param force Stop polling even if the log has followers, who are then closed by the caller
+         *
+         * @return whether the poller was closed
+         */
+        private boolean close(boolean force) {
+            pollers.computeIfPresent(path, (key, active) -> active == this && (force || followers.isEmpty()) ? null : active);
+            synchronized (this) {
+                closed = pollers.get(path) != this;
+                return closed;
+            }
+        }
+
+    }
+
+}
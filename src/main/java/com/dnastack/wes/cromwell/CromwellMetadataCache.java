@@ -0,0 +1,88 @@
+package com.dnastack.wes.cromwell;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Ticker;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Bounded in-process cache of the metadata cromwell reports for a workflow. Metadata for workflows in a terminal state
+ * (succeeded, failed or aborted) no longer changes, so it is kept until it is evicted by size. Metadata for workflows
+ * which are still active is only kept for a short period of time so that state transitions are picked up quickly.
+ * Entries are keyed by the run and the {@link CromwellMetadataProjection} that was fetched.
+ * <p>
+ * Hit, miss and eviction counts are published through micrometer under the {@code cromwell.metadata} cache name.
+ */
+@Slf4j
+@Component
+public class CromwellMetadataCache {
+
+    private static final Set<String> TERMINAL_STATUSES = Set.of("succeeded", "failed", "aborted");
+
+    private final boolean enabled;
+    private final Cache<Key, CromwellMetadataResponse> cache;
+
+    @Autowired
+    public CromwellMetadataCache(CromwellConfig config, MeterRegistry meterRegistry) {
+        this(config.getMetadataCache(), meterRegistry, Ticker.systemTicker());
+    }
+
+    CromwellMetadataCache(CromwellConfig.MetadataCacheConfig config, MeterRegistry meterRegistry, Ticker ticker) {
+        this.enabled = config.isEnabled();
+        this.cache = Caffeine.newBuilder()
+            .maximumSize(config.getMaximumSize())
+            .expireAfter(new TerminalStateExpiry<Key, CromwellMetadataResponse>(
+                config.getActiveRunTtl(),
+                CromwellMetadataResponse::getStatus
+            ))
+            .ticker(ticker)
+            .recordStats()
+            .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "cromwell.metadata");
+    }
+
+    /**
+     * Return the cached metadata for the run, loading it with the provided function if it is absent or has expired.
+     * Concurrent requests for the same run and projection will wait on a single load. Exceptions thrown by the loader
+     * are propagated and nothing is cached.
+     */
+    public CromwellMetadataResponse get(
+        String runId,
+        CromwellMetadataProjection projection,
+        Function<String, CromwellMetadataResponse> loader
+    ) {
+        if (!enabled) {
+            return loader.apply(runId);
+        }
+
+        return cache.get(new Key(runId, projection), key -> loader.apply(key.runId()));
+    }
+
+    public CromwellMetadataResponse getIfPresent(String runId, CromwellMetadataProjection projection) {
+        return enabled ? cache.getIfPresent(new Key(runId, projection)) : null;
+    }
+
+    /**
+     * Discard every cached projection of the run
+     */
+    public void invalidate(String runId) {
+        log.trace("Invalidating cached metadata for run {}", runId);
+        cache.invalidateAll(Stream.of(CromwellMetadataProjection.values()).map(projection -> new Key(runId, projection)).toList());
+    }
+
+    public static boolean isTerminal(String cromwellStatus) {
+        return cromwellStatus != null && TERMINAL_STATUSES.contains(cromwellStatus.toLowerCase());
+    }
+
+
+    private record Key(String runId, CromwellMetadataProjection projection) {}
+
+}
@@ -0,0 +1,90 @@
+package com.dnastack.wes.cromwell;
+
+import java.util.List;
+
+/**
+ * The slices of the cromwell metadata document required by the different WES operations. Each projection is
+ * translated into {@code includeKey} or {@code excludeKey} parameters so that cromwell only returns (and this service
+ * only deserializes) the keys which are actually used.
+ * <p>
+ * Every projection retains the {@code status} key, which is used to decide how long the metadata may be cached.
+ */
+public enum CromwellMetadataProjection {
+
+    /**
+     * The complete metadata document
+     */
+    FULL(null, null),
+
+    /**
+     * Everything required to build a {@link com.dnastack.wes.api.RunLog}. Bulky keys that are never mapped into the
+     * run log are excluded.
+     */
+    RUN_LOG(null, List.of(
+        "executionEvents",
+        "callCaching",
+        "workflowProcessingEvents",
+        "runtimeAttributes",
+        "backendLabels",
+        "jes"
+    )),
+
+    /**
+     * The keys required to resolve and name the stdout and stderr of each task call, and to tell whether they are complete
+     */
+    TASK_LOGS(List.of(
+        "id",
+        "status",
+        "workflowName",
+        "parentWorkflowId",
+        "jobId",
+        "shardIndex",
+        "executionStatus",
+        "stdout",
+        "stderr",
+        "backendLogs",
+        "subWorkflowId",
+        "subWorkflowMetadata"
+    ), null),
+
+    /**
+     * Only the workflow level failures
+     */
+    FAILURES(List.of(
+        "id",
+        "status",
+        "failures"
+    ), null),
+
+    /**
+     * The keys referencing the input, output and log files of a run
+     */
+    FILES(List.of(
+        "id",
+        "status",
+        "inputs",
+        "outputs",
+        "stdout",
+        "stderr",
+        "backendLogs",
+        "subWorkflowId",
+        "subWorkflowMetadata"
+    ), null);
+
+    private final List<String> includeKeys;
+    private final List<String> excludeKeys;
+
+    CromwellMetadataProjection(List<String> includeKeys, List<String> excludeKeys) {
+        this.includeKeys = includeKeys;
+        this.excludeKeys = excludeKeys;
+    }
+
+    public CromwellMetadataQuery toQuery() {
+        return CromwellMetadataQuery.builder()
+            .includeKey(includeKeys)
+            .excludeKey(excludeKeys)
+            .expandSubWorkflows(true)
+            .build();
+    }
+
+}
@@ -0,0 +1,26 @@
+package com.dnastack.wes.cromwell;
+
+import lombok.*;
+
+import java.util.List;
+
+/**
+ * Query parameters accepted by the cromwell metadata REST api. The {@code includeKey} and {@code excludeKey}
+ * parameters are matched against the keys at both the workflow and the call level of the metadata document.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+@EqualsAndHashCode
+@Builder
+public class CromwellMetadataQuery {
+
+    private List<String> includeKey;
+
+    private List<String> excludeKey;
+
+    private Boolean expandSubWorkflows;
+
+}
@@ -0,0 +1,38 @@
+package com.dnastack.wes.cromwell;
+
+import okhttp3.Request;
+
+/**
+ * The kinds of requests made to cromwell. Used to apply per operation timeouts and to tag the http client metrics
+ * without recording an unbounded number of distinct uris.
+ */
+public enum CromwellOperation {
+
+    STATUS,
+    QUERY,
+    METADATA,
+    SUBMIT,
+    ABORT,
+    OTHER;
+
+    private static final String WORKFLOWS_PATH = "/api/workflows/" + CromwellClient.API_VERSION;
+
+    public static CromwellOperation of(Request request) {
+        String path = request.url().encodedPath();
+        if (!path.startsWith(WORKFLOWS_PATH)) {
+            return OTHER;
+        } else if (path.endsWith("/metadata")) {
+            return METADATA;
+        } else if (path.endsWith("/query")) {
+            return QUERY;
+        } else if (path.endsWith("/abort")) {
+            return ABORT;
+        } else if (path.endsWith("/status")) {
+            return STATUS;
+        } else if (request.method().equals("POST")) {
+            return SUBMIT;
+        }
+        return OTHER;
+    }
+
+}
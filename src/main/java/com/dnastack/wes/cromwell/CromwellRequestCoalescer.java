@@ -0,0 +1,101 @@
+package com.dnastack.wes.cromwell;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent identical reads against cromwell, so that callers asking for the same operation on the same run
+ * at the same time share a single upstream request and its decoded result. Only requests which are in flight are
+ * shared, once a request completes the next caller issues a new one.
+ * <p>
+ * In flight requests are tracked in a {@link ConcurrentHashMap}, which only contends between callers whose keys fall
+ * into the same bin. The number of calls which were served by another caller's request is published through
+ * micrometer as {@code cromwell.requests.coalesced}, tagged with the operation.
+ */
+@Slf4j
+@Component
+public class CromwellRequestCoalescer {
+
+    private final boolean enabled;
+    private final Map<Key, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+    private final Map<CromwellOperation, Counter> coalesced = new EnumMap<>(CromwellOperation.class);
+
+    @Autowired
+    public CromwellRequestCoalescer(CromwellConfig config, MeterRegistry meterRegistry) {
+        this(config.isCoalesceRequests(), meterRegistry);
+    }
+
+    CromwellRequestCoalescer(boolean enabled, MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        for (CromwellOperation operation : CromwellOperation.values()) {
+            coalesced.put(operation, Counter.builder("cromwell.requests.coalesced")
+                .description("Requests to cromwell which were served by an identical request already in flight")
+                .tag("operation", operation.name())
+                .register(meterRegistry));
+        }
+    }
+
+    /**
+     * Execute the request, or wait for an identical request which is already in flight and return its result.
+     * Exceptions thrown by the request are rethrown to every caller which shared it.
+     *
+     * @param operation The kind of request
+     * @param runId     The run the request is for
+     * @param variant   Anything else which distinguishes the request, such as the metadata projection, may be
+     *                  <code>null</code>
+     * @param request   Issues the request to cromwell
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(CromwellOperation operation, String runId, Object variant, Supplier<T> request) {
+        if (!enabled) {
+            return request.get();
+        }
+
+        Key key = new Key(operation, runId, variant);
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            log.trace("Coalescing {} request for run {}", operation, runId);
+            coalesced.get(operation).increment();
+            return (T) join(existing);
+        }
+
+        try {
+            T result = request.get();
+            future.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    private static Object join(CompletableFuture<Object> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            } else if (e.getCause() instanceof Error cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+
+    private record Key(CromwellOperation operation, String runId, Object variant) {}
+
+}
@@ -0,0 +1,674 @@
+package com.dnastack.wes.cromwell;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+/**
+ * A local index of the runs known to cromwell, used to serve run listings without forwarding every page request to
+ * cromwell. The index holds the summary cromwell returns from its query api (id, name, status, submission, start and
+ * end times and labels) ordered from the most recently submitted run to the oldest. Cromwell remains the source of
+ * truth for everything else about a run.
+ * <p>
+ * The index is kept in sync by polling cromwell on a fixed interval:
+ * <ul>
+ * <li><strong>New runs:</strong> are found by querying for runs submitted since the latest submission time already in
+ * the index (minus a short lookback). The first sync pages through every run cromwell knows about</li>
+ * <li><strong>Changed runs:</strong> only runs which have not reached a terminal state can change, so these are
+ * re-queried by id on every sync</li>
+ * </ul>
+ * The index is periodically written to disk as a snapshot, so that a restart only needs to catch up on the changes
+ * since the snapshot was taken. Listings may lag behind cromwell by up to the sync interval.
+ * <p>
+ * The index holds at most the configured maximum number of runs. Once it is full, the oldest runs which have reached a
+ * terminal state are evicted. The index remembers the submission time of the latest run it evicted, and listings which
+ * reach back past it continue from cromwell, see {@link #page(CromwellSearch, RunPageToken, int)}.
+ */
+@Slf4j
+@Component
+public class CromwellRunIndex implements DisposableBean {
+
+    /**
+     * The maximum number of ids to include in a single cromwell query, which keeps the request url to a sensible length
+     */
+    static final int ID_QUERY_CHUNK_SIZE = 100;
+
+    private static final List<String> QUERY_RESULT_FIELDS = List.of("labels");
+
+    private static final Comparator<IndexKey> ORDER = Comparator
+        .comparing(IndexKey::submission, Comparator.nullsLast(Comparator.<Instant>reverseOrder()))
+        .thenComparing(IndexKey::id);
+
+    private final CromwellClient client;
+    private final CromwellConfig.RunIndexConfig config;
+    private final String userLabel;
+    private final Clock clock;
+    private final ObjectMapper mapper = new ObjectMapper().findAndRegisterModules()
+        .configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false)
+        .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private final Map<String, IndexedRun> runsById = new ConcurrentHashMap<>();
+    private final ConcurrentSkipListMap<IndexKey, IndexedRun> runs = new ConcurrentSkipListMap<>(ORDER);
+    private final Map<String, ConcurrentSkipListMap<IndexKey, IndexedRun>> runsByUser = new ConcurrentHashMap<>();
+    private final Map<String, ConcurrentSkipListMap<IndexKey, IndexedRun>> runsByStatus = new ConcurrentHashMap<>();
+    private final Set<String> activeRunIds = ConcurrentHashMap.newKeySet();
+    private final AtomicLong sequence = new AtomicLong();
+
+    private volatile Instant watermark;
+    /**
+     * The submission time of the most recently submitted run which was evicted, or <code>null</code> if no run has been
+     * evicted. Runs submitted at or before this time may be missing from the index
+     */
+    private volatile Instant horizon;
+    private volatile boolean ready;
+    private boolean dirty;
+    private Instant lastPersisted;
+
+    @Autowired
+    public CromwellRunIndex(CromwellClient client, CromwellConfig config, MeterRegistry meterRegistry) {
+        this(client, config.getRunIndex(), config.getUserLabel(), Clock.systemUTC());
+        Gauge.builder("cromwell.run.index.size", runsById, Map::size)
+            .description("The number of runs held in the local run index")
+            .register(meterRegistry);
+    }
+
+    CromwellRunIndex(CromwellClient client, CromwellConfig.RunIndexConfig config, String userLabel, Clock clock) {
+        this.client = client;
+        this.config = config;
+        this.userLabel = userLabel;
+        this.clock = clock;
+        if (config.isEnabled()) {
+            load();
+        }
+    }
+
+    /**
+     * @return true if the index is enabled and has been populated, either from a snapshot or by syncing with cromwell
+     */
+    public boolean isReady() {
+        return config.isEnabled() && ready;
+    }
+
+    /**
+     * @return true if runs have been evicted from the index, so that it no longer holds every run known to cromwell
+     */
+    public boolean isTruncated() {
+        return horizon != null;
+    }
+
+    /**
+     * Answer a search the same way cromwell's query api does, returning the requested page of matching runs ordered
+     * from the most recently submitted to the oldest. See {@link #filter(CromwellSearch)} for the supported filters
+     */
+    public CromwellResponse query(CromwellSearch search) {
+        Predicate<CromwellStatus> filter = filter(search);
+        int page = search.getPage() == null ? 1 : search.getPage();
+        int pageSize = search.getPageSize();
+        List<CromwellStatus> results = StreamSupport.stream(candidates(search, null).spliterator(), false)
+            .map(entry -> entry.getValue().status())
+            .filter(filter)
+            .skip((long) Math.max(page - 1, 0) * pageSize)
+            .limit(pageSize)
+            .toList();
+        long total = isUnfiltered(search)
+            ? runsById.size()
+            : StreamSupport.stream(candidates(search, null).spliterator(), false)
+                .map(entry -> entry.getValue().status())
+                .filter(filter)
+                .count();
+        return new CromwellResponse(total, results);
+    }
+
+    /**
+     * Return the page of indexed runs which follows the position encoded in the page token, ordered from the most
+     * recently submitted to the oldest. The cost of a page is independent of how deep into the listing it is.
+     * <p>
+     * Every run is assigned a sequence number when it is first added to the index. The first page records the latest
+     * sequence number as the snapshot of the listing, and runs added to the index after the snapshot are excluded from
+     * every following page. Since the position of a run in the index never changes, a client following the page tokens
+     * sees every run in the snapshot exactly once.
+     * <p>
+     * The index only holds the current summary of each run, so filters are evaluated against a run as it is when the page
+     * holding it is read, not as it was when the listing started. For filters on fields which never change (ids, name
+     * and submission time) the guarantee above holds. For filters on fields which do change (status, start and end times
+     * and labels) a run is still never seen twice, but a run which stops matching before its page is read is skipped, and
+     * one which starts matching is included. Searches by status only walk the runs in the requested statuses, and
+     * searches by user only walk the runs of that user, see {@link #candidates(CromwellSearch, IndexKey)}.
+     * <p>
+     * If runs have been evicted from the index, the listing continues from cromwell once it reaches runs submitted at or
+     * before the latest evicted run. From then on pages are read from cromwell by their offset into its results, which
+     * are ordered the same way as the index. Those pages are not snapshot consistent: a run submitted in the meantime
+     * shifts the offsets, so the first run of a page may repeat the last run of the previous page.
+     *
+     * @param search    The filters to apply, the page and page size of the search are ignored
+     * @param pageToken The token of the previous page, or <code>null</code> to start a new listing
+     * @param pageSize  The number of runs per page. Ignored if a page token is provided
+     */
+    public RunPage page(CromwellSearch search, RunPageToken pageToken, int pageSize) {
+        long snapshot = pageToken == null ? sequence.get() : pageToken.snapshot();
+        int size = pageToken == null ? pageSize : pageToken.pageSize();
+        if (pageToken != null && pageToken.offset() != null) {
+            return pageFromCromwell(search, pageToken.offset(), snapshot, size, new ArrayList<>(size));
+        }
+
+        Predicate<CromwellStatus> filter = filter(search);
+        Instant horizon = this.horizon;
+        IndexKey after = pageToken == null ? null : new IndexKey(pageToken.submission(), pageToken.runId());
+
+        List<CromwellStatus> results = new ArrayList<>(size);
+        IndexKey last = null;
+        for (Map.Entry<IndexKey, IndexedRun> entry : candidates(search, after)) {
+            if (horizon != null && (entry.getKey().submission() == null || !entry.getKey().submission().isAfter(horizon))) {
+                break;
+            }
+            if (entry.getValue().sequence() > snapshot || !filter.test(entry.getValue().status())) {
+                continue;
+            }
+            if (results.size() == size) {
+                return new RunPage(results, new RunPageToken(last.submission(), last.id(), snapshot, size));
+            }
+            results.add(entry.getValue().status());
+            last = entry.getKey();
+        }
+        if (horizon == null || (search != null && search.getSubmission() != null
+            && OffsetDateTime.parse(search.getSubmission()).toInstant().isAfter(horizon))) {
+            return new RunPage(results, null);
+        }
+        return pageFromCromwell(search, countSubmittedAfter(search, horizon), snapshot, size, results);
+    }
+
+    /**
+     * Complete the page with the runs cromwell returns for the search, starting at the given offset into its results
+     *
+     * @param results The runs already on the page
+     */
+    private RunPage pageFromCromwell(CromwellSearch search, long offset, long snapshot, int size, List<CromwellStatus> results) {
+        int remaining = size - results.size();
+        // cromwell pages are aligned to the page size, so an unaligned offset spans two of them
+        int pageSize = Math.max(remaining, 1);
+        long page = offset / pageSize + 1;
+        int skip = (int) (offset % pageSize);
+
+        CromwellResponse response = client.listWorkflows(cromwellSearch(search, null, page, pageSize));
+        List<CromwellStatus> runs = new ArrayList<>(response.getResults() == null ? List.of() : response.getResults());
+        if (skip > 0 && runs.size() == pageSize) {
+            CromwellResponse next = client.listWorkflows(cromwellSearch(search, null, page + 1, pageSize));
+            if (next.getResults() != null) {
+                runs.addAll(next.getResults());
+            }
+        }
+        if (remaining > 0) {
+            runs.stream().skip(skip).limit(remaining).forEach(results::add);
+        }
+
+        long total = response.getTotalResultsCount() == null ? 0 : response.getTotalResultsCount();
+        return new RunPage(results, total > offset + remaining ? RunPageToken.ofOffset(offset + remaining, snapshot, size) : null);
+    }
+
+    /**
+     * @return the number of runs matching the search which cromwell holds and which were submitted after the given time.
+     *     These precede every other matching run in cromwell's results
+     */
+    private long countSubmittedAfter(CromwellSearch search, Instant submittedAfter) {
+        Instant after = submittedAfter.plusMillis(1);
+        if (search != null && search.getSubmission() != null) {
+            Instant submission = OffsetDateTime.parse(search.getSubmission()).toInstant();
+            after = submission.isAfter(after) ? submission : after;
+        }
+        Long total = client.listWorkflows(cromwellSearch(search, DateTimeFormatter.ISO_INSTANT.format(after), 1, 1))
+            .getTotalResultsCount();
+        return total == null ? 0 : total;
+    }
+
+    private static CromwellSearch cromwellSearch(CromwellSearch search, String submission, long page, int pageSize) {
+        CromwellSearch.CromwellSearchBuilder builder = CromwellSearch.builder()
+            .additionalQueryResultFields(QUERY_RESULT_FIELDS)
+            .page(Math.toIntExact(page))
+            .pageSize(pageSize);
+        if (search != null) {
+            builder.id(search.getId())
+                .status(search.getStatus())
+                .label(search.getLabel())
+                .name(search.getName())
+                .submission(search.getSubmission())
+                .start(search.getStart())
+                .end(search.getEnd());
+        }
+        if (submission != null) {
+            builder.submission(submission);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Translate the filters of a cromwell search into a predicate over indexed runs, following the semantics of
+     * cromwell's query api: runs must match one of the ids, one of the statuses and every label (formatted as
+     * <code>key:value</code>) if provided, and must have been submitted or started at or after the <code>submission</code>
+     * and <code>start</code> times and ended at or before the <code>end</code> time
+     */
+    static Predicate<CromwellStatus> filter(CromwellSearch search) {
+        Predicate<CromwellStatus> filter = status -> true;
+        if (search == null) {
+            return filter;
+        }
+
+        if (search.getId() != null && !search.getId().isEmpty()) {
+            Set<String> ids = Set.copyOf(search.getId());
+            filter = filter.and(status -> ids.contains(status.getId()));
+        }
+        if (search.getStatus() != null && !search.getStatus().isEmpty()) {
+            Set<String> statuses = search.getStatus().stream().map(String::toLowerCase).collect(Collectors.toSet());
+            filter = filter.and(status -> status.getStatus() != null && statuses.contains(status.getStatus().toLowerCase()));
+        }
+        if (search.getLabel() != null) {
+            for (String label : search.getLabel()) {
+                String[] keyValue = label.split(":", 2);
+                filter = filter.and(status -> status.getLabels() != null && keyValue.length == 2
+                    && keyValue[1].equals(status.getLabels().get(keyValue[0])));
+            }
+        }
+        if (search.getName() != null) {
+            filter = filter.and(status -> search.getName().equals(status.getName()));
+        }
+        if (search.getSubmission() != null) {
+            Instant submission = OffsetDateTime.parse(search.getSubmission()).toInstant();
+            filter = filter.and(status -> status.getSubmission() != null && !status.getSubmission().toInstant().isBefore(submission));
+        }
+        if (search.getStart() != null) {
+            Instant start = OffsetDateTime.parse(search.getStart()).toInstant();
+            filter = filter.and(status -> status.getStart() != null && !status.getStart().toInstant().isBefore(start));
+        }
+        if (search.getEnd() != null) {
+            Instant end = OffsetDateTime.parse(search.getEnd()).toInstant();
+            filter = filter.and(status -> status.getEnd() != null && !status.getEnd().toInstant().isAfter(end));
+        }
+        return filter;
+    }
+
+    /**
+     * Runs are additionally indexed by the value of their user label and by their status. Searches which are limited to a
+     * single user are answered from that user's runs, and other searches which are limited to some statuses are answered
+     * by merging the runs in each of those statuses, so their cost depends on the number of runs which can match rather
+     * than the number of runs in the index. The remaining filters are still applied to every candidate.
+     *
+     * @param after Only return the runs which follow this key, or every run if <code>null</code>
+     *
+     * @return the candidate runs, ordered from the most recently submitted to the oldest
+     */
+    private Iterable<Map.Entry<IndexKey, IndexedRun>> candidates(CromwellSearch search, IndexKey after) {
+        List<NavigableMap<IndexKey, IndexedRun>> sources = sources(search).stream()
+            .map(source -> after == null ? source : source.tailMap(after, false))
+            .toList();
+        if (sources.size() == 1) {
+            return sources.get(0).entrySet();
+        }
+        return () -> new MergingIterator(sources);
+    }
+
+    private List<NavigableMap<IndexKey, IndexedRun>> sources(CromwellSearch search) {
+        if (search == null) {
+            return List.of(runs);
+        }
+        if (search.getLabel() != null) {
+            String prefix = userLabel + ":";
+            for (String label : search.getLabel()) {
+                if (label.startsWith(prefix)) {
+                    NavigableMap<IndexKey, IndexedRun> userRuns = runsByUser.get(label.substring(prefix.length()));
+                    return List.of(userRuns == null ? Collections.emptyNavigableMap() : userRuns);
+                }
+            }
+        }
+        if (search.getStatus() != null && !search.getStatus().isEmpty()) {
+            List<NavigableMap<IndexKey, IndexedRun>> statusRuns = new ArrayList<>();
+            search.getStatus().stream()
+                .map(status -> status.toLowerCase(Locale.ROOT))
+                .distinct()
+                .map(runsByStatus::get)
+                .filter(Objects::nonNull)
+                .forEach(statusRuns::add);
+            return statusRuns;
+        }
+        return List.of(runs);
+    }
+
+    private static boolean isUnfiltered(CromwellSearch search) {
+        return (search.getId() == null || search.getId().isEmpty())
+            && (search.getStatus() == null || search.getStatus().isEmpty())
+            && (search.getLabel() == null || search.getLabel().isEmpty())
+            && search.getName() == null
+            && search.getSubmission() == null
+            && search.getStart() == null
+            && search.getEnd() == null;
+    }
+
+    /**
+     * Bring the index up to date with cromwell. Failures are logged and retried on the next sync
+     */
+    @Scheduled(fixedDelayString = "${wes.cromwell.run-index.sync-interval:PT15S}")
+    public synchronized void sync() {
+        if (!config.isEnabled()) {
+            return;
+        }
+
+        try {
+            Set<String> updatedRunIds = syncSubmissions();
+            refreshActiveRuns(updatedRunIds);
+            ready = true;
+            log.debug("Synced run index, {} runs indexed, {} active", runsById.size(), activeRunIds.size());
+        } catch (Exception e) {
+            log.warn("Could not sync run index with cromwell: {}", e.getMessage(), e);
+            return;
+        }
+
+        if (dirty && (lastPersisted == null || !clock.instant().isBefore(lastPersisted.plus(config.getPersistInterval())))) {
+            persist();
+        }
+    }
+
+    @Override
+    public synchronized void destroy() {
+        if (config.isEnabled() && dirty) {
+            persist();
+        }
+    }
+
+    private Set<String> syncSubmissions() {
+        String since = watermark == null ? null : DateTimeFormatter.ISO_INSTANT.format(watermark.minus(config.getSubmissionLookback()));
+        Set<String> updatedRunIds = new HashSet<>();
+        int page = 1;
+        while (true) {
+            CromwellSearch search = CromwellSearch.builder()
+                .submission(since)
+                .additionalQueryResultFields(QUERY_RESULT_FIELDS)
+                .page(page)
+                .pageSize(config.getSyncPageSize())
+                .build();
+            CromwellResponse response = client.listWorkflows(search);
+            if (response.getResults() == null || response.getResults().isEmpty()) {
+                break;
+            }
+
+            response.getResults().forEach(status -> {
+                put(status);
+                updatedRunIds.add(status.getId());
+            });
+            evict();
+
+            if (response.getTotalResultsCount() == null || (long) page * config.getSyncPageSize() >= response.getTotalResultsCount()) {
+                break;
+            }
+            page++;
+        }
+        return updatedRunIds;
+    }
+
+    private void refreshActiveRuns(Set<String> updatedRunIds) {
+        List<String> runIds = activeRunIds.stream().filter(id -> !updatedRunIds.contains(id)).toList();
+        for (int i = 0; i < runIds.size(); i += ID_QUERY_CHUNK_SIZE) {
+            List<String> chunk = runIds.subList(i, Math.min(i + ID_QUERY_CHUNK_SIZE, runIds.size()));
+            CromwellSearch search = CromwellSearch.builder()
+                .id(chunk)
+                .additionalQueryResultFields(QUERY_RESULT_FIELDS)
+                .page(1)
+                .pageSize(chunk.size())
+                .build();
+            CromwellResponse response = client.listWorkflows(search);
+            if (response.getResults() != null) {
+                response.getResults().forEach(this::put);
+            }
+        }
+    }
+
+    private void put(CromwellStatus status) {
+        IndexedRun previous = runsById.get(status.getId());
+        put(new IndexedRun(status, previous == null ? sequence.incrementAndGet() : previous.sequence()));
+        dirty = dirty || previous == null || !status.equals(previous.status());
+    }
+
+    private void put(IndexedRun run) {
+        CromwellStatus status = run.status();
+        IndexedRun previous = runsById.put(status.getId(), run);
+        IndexKey key = IndexKey.of(status);
+        IndexKey previousKey = previous == null ? null : IndexKey.of(previous.status());
+        runs.put(key, run);
+        if (previousKey != null && !previousKey.equals(key)) {
+            runs.remove(previousKey);
+        }
+
+        reindex(runsByUser, previous == null ? null : getUser(previous.status()), previousKey, getUser(status), key, run);
+        reindex(runsByStatus, previous == null ? null : getStatus(previous.status()), previousKey, getStatus(status), key, run);
+
+        if (CromwellMetadataCache.isTerminal(status.getStatus())) {
+            activeRunIds.remove(status.getId());
+        } else {
+            activeRunIds.add(status.getId());
+        }
+
+        if (key.submission() != null && (watermark == null || key.submission().isAfter(watermark))) {
+            watermark = key.submission();
+        }
+    }
+
+    /**
+     * Move a run within a secondary index, from the group it was held under to the group it is held under now. The run
+     * is added to its new group before it is removed from its previous one, so that it never disappears from a listing
+     *
+     * @param previousGroup The group the run was held under, or <code>null</code> if it was not indexed
+     * @param group         The group the run is held under now, or <code>null</code> if it is not indexed
+     */
+    private static void reindex(
+        Map<String, ConcurrentSkipListMap<IndexKey, IndexedRun>> index,
+        String previousGroup,
+        IndexKey previousKey,
+        String group,
+        IndexKey key,
+        IndexedRun run
+    ) {
+        if (group != null) {
+            index.computeIfAbsent(group, ignored -> new ConcurrentSkipListMap<>(ORDER)).put(key, run);
+        }
+        if (previousGroup != null && (!previousGroup.equals(group) || !previousKey.equals(key))) {
+            index.computeIfPresent(previousGroup, (ignored, groupRuns) -> {
+                groupRuns.remove(previousKey);
+                return groupRuns.isEmpty() ? null : groupRuns;
+            });
+        }
+    }
+
+    /**
+     * Remove the oldest runs which have reached a terminal state until the index is within its maximum size. Active runs
+     * are kept, so that their changes are still picked up
+     */
+    private void evict() {
+        int excess = runsById.size() - config.getMaxRuns();
+        if (excess <= 0) {
+            return;
+        }
+
+        for (IndexedRun run : runs.descendingMap().values()) {
+            if (excess <= 0) {
+                break;
+            }
+            CromwellStatus status = run.status();
+            if (activeRunIds.contains(status.getId())) {
+                continue;
+            }
+            IndexKey key = IndexKey.of(status);
+            runs.remove(key);
+            runsById.remove(status.getId());
+            if (key.submission() != null && (horizon == null || key.submission().isAfter(horizon))) {
+                horizon = key.submission();
+            }
+            reindex(runsByUser, getUser(status), key, null, null, null);
+            reindex(runsByStatus, getStatus(status), key, null, null, null);
+            dirty = true;
+            excess--;
+        }
+    }
+
+    private String getUser(CromwellStatus status) {
+        return status.getLabels() == null ? null : status.getLabels().get(userLabel);
+    }
+
+    private static String getStatus(CromwellStatus status) {
+        return status.getStatus() == null ? null : status.getStatus().toLowerCase(Locale.ROOT);
+    }
+
+    private void load() {
+        if (config.getPath() == null || !Files.exists(Path.of(config.getPath()))) {
+            return;
+        }
+
+        try {
+            Snapshot snapshot = mapper.readValue(Path.of(config.getPath()).toFile(), Snapshot.class);
+            sequence.set(snapshot.sequence());
+            horizon = snapshot.horizon();
+            snapshot.runs().forEach(this::put);
+            evict();
+            watermark = snapshot.watermark();
+            dirty = false;
+            ready = true;
+            log.info("Loaded {} runs from run index snapshot {}", runsById.size(), config.getPath());
+        } catch (IOException e) {
+            log.warn("Could not load run index snapshot {}, the index will be rebuilt: {}", config.getPath(), e.getMessage());
+            runsById.clear();
+            runs.clear();
+            runsByUser.clear();
+            runsByStatus.clear();
+            activeRunIds.clear();
+            sequence.set(0);
+            watermark = null;
+            horizon = null;
+        }
+    }
+
+    private void persist() {
+        if (config.getPath() == null) {
+            return;
+        }
+
+        Path path = Path.of(config.getPath()).toAbsolutePath();
+        Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(path.getParent());
+            mapper.writeValue(tempPath.toFile(), new Snapshot(watermark, horizon, sequence.get(), new ArrayList<>(runs.values())));
+            Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+            lastPersisted = clock.instant();
+        } catch (IOException e) {
+            log.warn("Could not write run index snapshot {}: {}", path, e.getMessage());
+        }
+    }
+
+
+    private record IndexKey(Instant submission, String id) {
+
+        static IndexKey of(CromwellStatus status) {
+            return new IndexKey(status.getSubmission() == null ? null : status.getSubmission().toInstant(), status.getId());
+        }
+
+    }
+
+
+    /**
+     * Iterates over the runs of several secondary index groups in index order. A run which is moved between groups while
+     * it is being iterated may briefly be held by both, and is only returned once
+     */
+    private static class MergingIterator implements Iterator<Map.Entry<IndexKey, IndexedRun>> {
+
+        private final PriorityQueue<Cursor> cursors = new PriorityQueue<>(Comparator.comparing(Cursor::key, ORDER));
+        private IndexKey lastKey;
+
+        MergingIterator(List<NavigableMap<IndexKey, IndexedRun>> sources) {
+            sources.forEach(source -> advance(source.entrySet().iterator()));
+            skipReturned();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !cursors.isEmpty();
+        }
+
+        @Override
+        public Map.Entry<IndexKey, IndexedRun> next() {
+            Cursor cursor = cursors.poll();
+            if (cursor == null) {
+                throw new NoSuchElementException();
+            }
+            lastKey = cursor.key();
+            advance(cursor.remaining());
+            skipReturned();
+            return cursor.entry();
+        }
+
+        private void advance(Iterator<Map.Entry<IndexKey, IndexedRun>> remaining) {
+            if (remaining.hasNext()) {
+                cursors.add(new Cursor(remaining.next(), remaining));
+            }
+        }
+
+        private void skipReturned() {
+            while (lastKey != null && !cursors.isEmpty() && cursors.peek().key().equals(lastKey)) {
+                advance(cursors.poll().remaining());
+            }
+        }
+
+
+        private record Cursor(Map.Entry<IndexKey, IndexedRun> entry, Iterator<Map.Entry<IndexKey, IndexedRun>> remaining) {
+
+            IndexKey key() {
+                return entry.getKey();
+            }
+
+        }
+
+    }
+
+
+    /**
+     * A page of runs, and the token to retrieve the next page with. The token is <code>null</code> on the last page
+     */
+    public record RunPage(List<CromwellStatus> runs, RunPageToken nextPageToken) {}
+
+
+    private record IndexedRun(CromwellStatus status, long sequence) {}
+
+
+    private record Snapshot(Instant watermark, Instant horizon, long sequence, List<IndexedRun> runs) {}
+
+}
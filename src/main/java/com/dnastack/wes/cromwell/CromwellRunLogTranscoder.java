@@ -0,0 +1,319 @@
+package com.dnastack.wes.cromwell;
+
+import com.dnastack.wes.api.Log;
+import com.dnastack.wes.api.RunLog;
+import com.dnastack.wes.translation.PathTranslator;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.NullNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Transcodes the metadata document returned by cromwell directly into the JSON representation of a WES
+ * {@link RunLog}, without materializing the metadata or the run log in memory. The metadata is read with the jackson
+ * streaming parser and the run log is written to the output stream as the metadata is read:
+ * <ul>
+ * <li><strong>outputs:</strong> are copied token by token, applying the path translators to each string value</li>
+ * <li><strong>calls:</strong> are flattened into <code>task_logs</code> one call at a time. Sub-workflows are
+ * descended into as they are encountered</li>
+ * <li>The remaining workflow level fields (inputs, labels, options, times and failures) are collected and written
+ * once the metadata has been read</li>
+ * </ul>
+ * The fields of the resulting run log are identical to those produced by
+ * {@link CromwellWesMapper#mapMetadataToRunLog}, however they may be written in a different order. Peak memory is
+ * proportional to the size of a single call rather than the number of calls. The exception is a sub-workflow whose
+ * calls are reported by cromwell before its name and id, since its task names cannot be determined until then. Those
+ * task logs are held back until the sub-workflow has been identified.
+ * <p>
+ * Values are serialized without flushing the generator, so the output stream is flushed once, after the whole run log
+ * has been written, instead of once per task log.
+ * <p>
+ * The requested run is treated as the root workflow.
+ */
+@Component
+public class CromwellRunLogTranscoder {
+
+    /**
+     * The workflow level fields which are required by {@link CromwellWesMapper#mapMetadataToRunLogSummary}
+     */
+    private static final Set<String> SUMMARY_FIELDS = Set.of(
+        "id",
+        "status",
+        "workflowName",
+        "workflowRoot",
+        "parentWorkflowId",
+        "submission",
+        "start",
+        "end",
+        "actualWorkflowLanguage",
+        "actualWorkflowLanguageVersions",
+        "submittedFiles",
+        "labels",
+        "inputs",
+        "failures"
+    );
+
+    private final ObjectMapper objectMapper;
+    private final ObjectWriter valueWriter;
+    private final CromwellWesMapper cromwellWesMapper;
+
+    public CromwellRunLogTranscoder(ObjectMapper objectMapper, CromwellWesMapper cromwellWesMapper) {
+        this.objectMapper = objectMapper;
+        this.valueWriter = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        this.cromwellWesMapper = cromwellWesMapper;
+    }
+
+    /**
+     * Transcode the cromwell metadata into a WES run log
+     *
+     * @param metadata     the metadata document, as returned by cromwell
+     * @param outputStream the stream to write the run log to. The stream is flushed but not closed
+     * @param runId        the id of the run
+     * @param translators  the path translators to apply to the outputs
+     */
+    public void transcode(InputStream metadata, OutputStream outputStream, String runId, List<PathTranslator> translators) throws IOException {
+        try (
+            JsonParser parser = objectMapper.createParser(metadata);
+            JsonGenerator generator = objectMapper.createGenerator(outputStream)
+        ) {
+            generator.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Could not read metadata for run " + runId + ", expected a JSON object");
+            }
+
+            TaskLogWriter taskLogWriter = new TaskLogWriter(generator);
+            WorkflowContext root = new WorkflowContext(runId, null, false);
+            ObjectNode summary = objectMapper.createObjectNode();
+            boolean wroteTaskLogs = false;
+
+            generator.writeStartObject();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if (field.equals("calls") && value == JsonToken.START_OBJECT) {
+                    generator.writeArrayFieldStart("task_logs");
+                    transcodeCalls(parser, taskLogWriter, root);
+                    taskLogWriter.drain();
+                    generator.writeEndArray();
+                    wroteTaskLogs = true;
+                } else if (field.equals("outputs") && value != JsonToken.VALUE_NULL) {
+                    generator.writeFieldName("outputs");
+                    copyTranslated(parser, generator, translators);
+                } else if (SUMMARY_FIELDS.contains(field)) {
+                    summary.set(field, readTree(parser));
+                } else {
+                    parser.skipChildren();
+                }
+            }
+
+            if (!wroteTaskLogs) {
+                generator.writeArrayFieldStart("task_logs");
+                generator.writeEndArray();
+            }
+
+            RunLog runLog = cromwellWesMapper.mapMetadataToRunLogSummary(objectMapper
+                .treeToValue(summary, CromwellMetadataResponse.class));
+            JsonNode runLogNode = objectMapper.valueToTree(runLog);
+            Iterator<Map.Entry<String, JsonNode>> fields = runLogNode.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                generator.writeFieldName(field.getKey());
+                valueWriter.writeValue(generator, field.getValue());
+            }
+            generator.writeEndObject();
+        }
+    }
+
+    /**
+     * Write an already mapped run log to the output stream, using the same serialization as {@link #transcode}. The
+     * stream is flushed but not closed
+     */
+    public void write(RunLog runLog, OutputStream outputStream) throws IOException {
+        try (JsonGenerator generator = objectMapper.createGenerator(outputStream)) {
+            generator.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+            objectMapper.writeValue(generator, runLog);
+        }
+    }
+
+    private void transcodeCalls(JsonParser parser, TaskLogWriter taskLogWriter, WorkflowContext workflow) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String callName = parser.currentName();
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                parser.skipChildren();
+                continue;
+            }
+
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                transcodeCall(parser, taskLogWriter, workflow, callName);
+            }
+        }
+    }
+
+    private void transcodeCall(JsonParser parser, TaskLogWriter taskLogWriter, WorkflowContext workflow, String callName) throws IOException {
+        ObjectNode call = objectMapper.createObjectNode();
+        boolean subWorkflow = false;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if (field.equals("subWorkflowMetadata") && value == JsonToken.START_OBJECT) {
+                subWorkflow = true;
+                JsonNode subWorkflowId = call.get("subWorkflowId");
+                transcodeSubWorkflow(parser, taskLogWriter, subWorkflowId == null ? null : subWorkflowId.asText());
+            } else {
+                call.set(field, readTree(parser));
+            }
+        }
+
+        if (!subWorkflow) {
+            CromwellTaskCall taskCall = objectMapper.treeToValue(call, CromwellTaskCall.class);
+            taskCall.setTaskId(CromwellWesMapper.getTaskId(taskCall.getJobId()));
+            taskLogWriter.write(workflow, callName, taskCall.getShardIndex(), cromwellWesMapper.mapTaskCallToLog(taskCall));
+        }
+    }
+
+    private void transcodeSubWorkflow(JsonParser parser, TaskLogWriter taskLogWriter, String subWorkflowId) throws IOException {
+        WorkflowContext subWorkflow = new WorkflowContext(subWorkflowId, null, true);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if (field.equals("calls") && value == JsonToken.START_OBJECT) {
+                transcodeCalls(parser, taskLogWriter, subWorkflow);
+            } else if (field.equals("id") && value == JsonToken.VALUE_STRING) {
+                subWorkflow.id = parser.getText();
+                taskLogWriter.drain();
+            } else if (field.equals("workflowName") && value == JsonToken.VALUE_STRING) {
+                subWorkflow.workflowName = parser.getText();
+                taskLogWriter.drain();
+            } else {
+                parser.skipChildren();
+            }
+        }
+        subWorkflow.complete = true;
+        taskLogWriter.drain();
+    }
+
+    /**
+     * Copy the current value to the generator, translating every string value with the path translators
+     */
+    private void copyTranslated(JsonParser parser, JsonGenerator generator, List<PathTranslator> translators) throws IOException {
+        if (translators == null || translators.isEmpty()) {
+            generator.copyCurrentStructure(parser);
+            return;
+        }
+
+        int depth = 0;
+        do {
+            JsonToken token = parser.currentToken();
+            if (token == JsonToken.VALUE_STRING) {
+                generator.writeString(translate(parser.getText(), translators));
+            } else {
+                generator.copyCurrentEvent(parser);
+            }
+
+            if (token.isStructStart()) {
+                depth++;
+            } else if (token.isStructEnd()) {
+                depth--;
+            }
+        } while (depth > 0 && parser.nextToken() != null);
+    }
+
+    private String translate(String value, List<PathTranslator> translators) {
+        JsonNode node = new TextNode(value);
+        for (PathTranslator translator : translators) {
+            if (translator.shouldMapJsonNode(node)) {
+                node = translator.mapJsonNode(node);
+            }
+        }
+        return node.asText();
+    }
+
+    private JsonNode readTree(JsonParser parser) throws IOException {
+        JsonNode node = objectMapper.readTree(parser);
+        return node == null ? NullNode.getInstance() : node;
+    }
+
+
+    /**
+     * Identifies the workflow a call belongs to, which is part of the name of each task
+     */
+    private static class WorkflowContext {
+
+        private String id;
+        private String workflowName;
+        private final boolean subWorkflow;
+        private boolean complete;
+
+        WorkflowContext(String id, String workflowName, boolean subWorkflow) {
+            this.id = id;
+            this.workflowName = workflowName;
+            this.subWorkflow = subWorkflow;
+        }
+
+        boolean isIdentified() {
+            return complete || (id != null && (!subWorkflow || workflowName != null));
+        }
+
+        String getTaskName(String callName, Integer shardIndex) {
+            return CromwellWesMapper.getTaskName(id, workflowName, subWorkflow, callName, shardIndex == null ? 0 : shardIndex);
+        }
+
+    }
+
+
+    /**
+     * Writes task logs in the order their calls were read, holding back the logs of calls whose workflow has not yet
+     * been identified
+     */
+    private class TaskLogWriter {
+
+        private final JsonGenerator generator;
+        private final Deque<PendingTaskLog> pending = new ArrayDeque<>();
+
+        TaskLogWriter(JsonGenerator generator) {
+            this.generator = generator;
+        }
+
+        void write(WorkflowContext workflow, String callName, Integer shardIndex, Log taskLog) throws IOException {
+            if (pending.isEmpty() && workflow.isIdentified()) {
+                writeTaskLog(workflow, callName, shardIndex, taskLog);
+            } else {
+                pending.add(new PendingTaskLog(workflow, callName, shardIndex, taskLog));
+            }
+        }
+
+        void drain() throws IOException {
+            while (!pending.isEmpty() && pending.peek().workflow().isIdentified()) {
+                PendingTaskLog taskLog = pending.poll();
+                writeTaskLog(taskLog.workflow(), taskLog.callName(), taskLog.shardIndex(), taskLog.taskLog());
+            }
+        }
+
+        private void writeTaskLog(WorkflowContext workflow, String callName, Integer shardIndex, Log taskLog) throws IOException {
+            taskLog.setName(workflow.getTaskName(callName, shardIndex));
+            valueWriter.writeValue(generator, taskLog);
+        }
+
+    }
+
+
+    private record PendingTaskLog(WorkflowContext workflow, String callName, Integer shardIndex, Log taskLog) {}
+
+}
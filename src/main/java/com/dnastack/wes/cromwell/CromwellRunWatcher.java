@@ -0,0 +1,468 @@
+package com.dnastack.wes.cromwell;
+
+import com.dnastack.wes.api.RunStatus;
+import com.dnastack.wes.api.RunStatusBatchResponse;
+import com.dnastack.wes.api.RunStatusWatchRequest;
+import com.dnastack.wes.api.State;
+import com.dnastack.wes.shared.InvalidRequestException;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * Notifies clients of changes to the state of runs, either as a stream of server sent events or as a long poll. Every
+ * run which is watched by at least one client is polled by a single background task, which looks up the status of all
+ * runs which are due in batched queries to cromwell and fans each change out to the clients watching the run. The load
+ * on cromwell therefore depends on the number of watched runs which are still active, not on the number of clients.
+ * <p>
+ * A run is checked again after the minimum poll interval once its state has changed. Each check which finds the state
+ * unchanged doubles the interval, up to the maximum poll interval. Runs which reach a terminal state are no longer polled,
+ * and neither are runs which cromwell has not known about for longer than the missing run timeout, such as runs which
+ * were never created or have been purged from cromwell.
+ * <p>
+ * The runs a client may watch are resolved through {@link CromwellService#getRunStatuses(List, Predicate)} when the
+ * client subscribes, so multi tenant restrictions and the access checks of the caller are applied once up front, and the
+ * background polls are not scoped to a user.
+ */
+@Slf4j
+@Component
+public class CromwellRunWatcher implements DisposableBean {
+
+    private static final Set<State> TERMINAL_STATES = Set.of(
+        State.COMPLETE,
+        State.EXECUTOR_ERROR,
+        State.SYSTEM_ERROR,
+        State.CANCELED
+    );
+
+    private final CromwellService cromwellService;
+    private final CromwellConfig.RunWatchConfig config;
+    private final Clock clock;
+    private final ScheduledExecutorService executor;
+    private final Map<String, WatchedRun> runs = new ConcurrentHashMap<>();
+    private final Set<Watcher> watchers = ConcurrentHashMap.newKeySet();
+
+    @Autowired
+    public CromwellRunWatcher(CromwellService cromwellService, CromwellConfig config, MeterRegistry meterRegistry) {
+        this(cromwellService, config.getRunWatch(), Clock.systemUTC());
+        Gauge.builder("cromwell.runs.watched", runs, Map::size)
+            .description("Active runs which are being watched by at least one client")
+            .register(meterRegistry);
+        Gauge.builder("cromwell.runs.watchers", watchers, Set::size)
+            .description("Clients watching runs for changes of state")
+            .register(meterRegistry);
+    }
+
+    CromwellRunWatcher(CromwellService cromwellService, CromwellConfig.RunWatchConfig config, Clock clock) {
+        this.cromwellService = cromwellService;
+        this.config = config;
+        this.clock = clock;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "run-watcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // runs are also tracked on behalf of other components, so the poller runs even if clients may not watch runs
+        long interval = config.getMinPollInterval().toMillis();
+        executor.scheduleWithFixedDelay(this::poll, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stream the state of the runs as server sent events. A <code>status</code> event holding the {@link RunStatus} of
+     * each run is sent immediately, and again whenever the state of the run changes. The ids of runs which do not exist
+     * are sent in a single <code>not_found</code> event. The stream is closed once every run has reached a terminal
+     * state.
+     */
+    public SseEmitter watch(List<String> runIds) {
+        return watch(runIds, runId -> true);
+    }
+
+    /**
+     * Stream the state of the runs as server sent events, like {@link #watch(List)}. Runs the caller may not access are
+     * reported in the <code>not_found</code> event.
+     *
+     * @param accessible Whether the caller may access the run with the given id
+     */
+    public SseEmitter watch(List<String> runIds, Predicate<String> accessible) {
+        checkEnabled();
+        RunStatusBatchResponse current = cromwellService.getRunStatuses(runIds, accessible);
+        SseEmitter emitter = new SseEmitter(config.getTimeout().toMillis());
+        StreamWatcher watcher = new StreamWatcher(emitter, current.getRuns());
+        emitter.onCompletion(() -> unwatch(watcher));
+        emitter.onTimeout(emitter::complete);
+        emitter.onError(e -> unwatch(watcher));
+
+        if (!current.getNotFound().isEmpty()) {
+            watcher.send(SseEmitter.event().name("not_found").data(current.getNotFound(), MediaType.APPLICATION_JSON));
+        }
+        current.getRuns().forEach(watcher::onStatus);
+        watch(watcher, current.getRuns());
+        return emitter;
+    }
+
+    /**
+     * Wait until the state of any of the runs differs from the state the caller last saw it in. The response holds the
+     * status of every run which has changed, or no runs if nothing changed before the long poll timeout
+     */
+    public DeferredResult<RunStatusBatchResponse> waitForChange(RunStatusWatchRequest request) {
+        return waitForChange(request, runId -> true);
+    }
+
+    /**
+     * Wait until the state of any of the runs changes, like {@link #waitForChange(RunStatusWatchRequest)}. Runs the
+     * caller may not access are reported as not found.
+     *
+     * @param accessible Whether the caller may access the run with the given id
+     */
+    public DeferredResult<RunStatusBatchResponse> waitForChange(RunStatusWatchRequest request, Predicate<String> accessible) {
+        checkEnabled();
+        RunStatusBatchResponse current = cromwellService.getRunStatuses(request.getRunIds(), accessible);
+        Map<String, State> known = request.getStates() == null ? Map.of() : request.getStates();
+        List<String> notFound = current.getNotFound();
+        DeferredResult<RunStatusBatchResponse> result = new DeferredResult<>(config.getLongPollTimeout()
+            .toMillis(), () -> RunStatusBatchResponse.builder().runs(List.of()).notFound(notFound).build());
+
+        List<RunStatus> changed = current.getRuns().stream()
+            .filter(status -> status.getState() != known.get(status.getRunId()))
+            .toList();
+        if (!changed.isEmpty()) {
+            result.setResult(RunStatusBatchResponse.builder().runs(changed).notFound(notFound).build());
+            return result;
+        }
+
+        LongPollWatcher watcher = new LongPollWatcher(result, known, notFound);
+        result.onCompletion(() -> unwatch(watcher));
+        watch(watcher, current.getRuns());
+        return result;
+    }
+
+    /**
+     * Track the state of a run on behalf of another component, regardless of whether clients may watch runs. The
+     * listener is called with the status of the run each time its state changes from the last state it was called with,
+     * starting from the given state, until the run reaches a terminal state. A run which is not yet known to cromwell is
+     * polled until it appears, and if it is still unknown after the missing run timeout it is no longer tracked.
+     *
+     * @param onMissing Called if the run is no longer tracked because cromwell does not know about it
+     */
+    void track(String runId, State known, Consumer<RunStatus> listener, Runnable onMissing) {
+        RunStatus status = new RunStatus(runId, known);
+        if (!isTerminal(known)) {
+            watch(new ListenerWatcher(status, listener, onMissing), List.of(status));
+        }
+    }
+
+    @Override
+    public void destroy() {
+        watchers.forEach(Watcher::close);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Look up the status of every watched run which is due to be checked, and notify the watchers of each run whose state
+     * has changed
+     */
+    void poll() {
+        try {
+            Instant now = clock.instant();
+            List<String> due = runs.entrySet().stream()
+                .filter(entry -> !entry.getValue().nextPoll.isAfter(now))
+                .map(Map.Entry::getKey)
+                .toList();
+            if (due.isEmpty()) {
+                return;
+            }
+
+            Map<String, RunStatus> statuses = cromwellService.queryRunStatuses(due, null);
+            for (String runId : due) {
+                WatchedRun run = runs.get(runId);
+                RunStatus status = statuses.get(runId);
+                if (run == null) {
+                    continue;
+                }
+                if (status == null) {
+                    if (run.missingSince == null) {
+                        run.missingSince = now;
+                    } else if (!now.isBefore(run.missingSince.plus(config.getMissingRunTimeout()))) {
+                        log.info("No longer watching run {}, it has not been found since {}", runId, run.missingSince);
+                        runs.remove(runId, run);
+                        run.watchers.forEach(watcher -> watcher.onMissing(runId));
+                        continue;
+                    }
+                } else {
+                    run.missingSince = null;
+                }
+                if (status == null || status.getState() == run.status.getState()) {
+                    Duration doubled = run.interval.multipliedBy(2);
+                    run.interval = doubled.compareTo(config.getMaxPollInterval()) > 0 ? config.getMaxPollInterval() : doubled;
+                } else {
+                    run.status = status;
+                    run.interval = config.getMinPollInterval();
+                    run.watchers.forEach(watcher -> watcher.onStatus(status));
+                }
+                run.nextPoll = now.plus(run.interval);
+                if (isTerminal(run.status.getState())) {
+                    runs.remove(runId, run);
+                }
+            }
+        } catch (RuntimeException e) {
+            log.warn("Could not poll the status of watched runs: {}", e.getMessage());
+        }
+    }
+
+    private void watch(Watcher watcher, List<RunStatus> statuses) {
+        watchers.add(watcher);
+        Instant now = clock.instant();
+        for (RunStatus status : statuses) {
+            if (isTerminal(status.getState())) {
+                continue;
+            }
+            WatchedRun run = runs.compute(status.getRunId(), (runId, existing) -> {
+                WatchedRun watched = existing != null ? existing : new WatchedRun(status, config.getMinPollInterval(), now);
+                watched.watchers.add(watcher);
+                return watched;
+            });
+            // the run may have changed between the initial lookup and being watched
+            watcher.onStatus(run.status);
+        }
+        watcher.onWatched();
+    }
+
+    private void unwatch(Watcher watcher) {
+        watchers.remove(watcher);
+        for (String runId : watcher.runIds()) {
+            runs.computeIfPresent(runId, (key, run) -> {
+                run.watchers.remove(watcher);
+                return run.watchers.isEmpty() ? null : run;
+            });
+        }
+    }
+
+    private void checkEnabled() {
+        if (!config.isEnabled()) {
+            throw new InvalidRequestException("Watching runs is not enabled");
+        }
+    }
+
+    static boolean isTerminal(State state) {
+        return TERMINAL_STATES.contains(state);
+    }
+
+
+    private static class WatchedRun {
+
+        private final List<Watcher> watchers = new CopyOnWriteArrayList<>();
+        private volatile RunStatus status;
+        private volatile Duration interval;
+        private volatile Instant nextPoll;
+        private volatile Instant missingSince;
+
+        WatchedRun(RunStatus status, Duration interval, Instant now) {
+            this.status = status;
+            this.interval = interval;
+            this.nextPoll = now.plus(interval);
+        }
+
+    }
+
+
+    private interface Watcher {
+
+        Set<String> runIds();
+
+        /**
+         * Called with the current status of a watched run. The same status may be reported more than once
+         */
+        void onStatus(RunStatus status);
+
+        /**
+         * Called once the watcher has been registered with every run it watches
+         */
+        void onWatched();
+
+        /**
+         * Called when a watched run is no longer watched because cromwell does not know about it
+         */
+        void onMissing(String runId);
+
+        void close();
+
+    }
+
+
+    private static class StreamWatcher implements Watcher {
+
+        private final SseEmitter emitter;
+        private final Set<String> runIds;
+        private final Set<String> active;
+        private final Map<String, State> sent = new HashMap<>();
+
+        StreamWatcher(SseEmitter emitter, List<RunStatus> statuses) {
+            this.emitter = emitter;
+            this.runIds = statuses.stream().map(RunStatus::getRunId).collect(Collectors.toUnmodifiableSet());
+            this.active = new HashSet<>(runIds);
+        }
+
+        @Override
+        public Set<String> runIds() {
+            return runIds;
+        }
+
+        @Override
+        public synchronized void onStatus(RunStatus status) {
+            if (sent.get(status.getRunId()) == status.getState()) {
+                return;
+            }
+            sent.put(status.getRunId(), status.getState());
+            send(SseEmitter.event().name("status").data(status, MediaType.APPLICATION_JSON));
+            if (isTerminal(status.getState())) {
+                active.remove(status.getRunId());
+                onWatched();
+            }
+        }
+
+        @Override
+        public synchronized void onWatched() {
+            if (active.isEmpty()) {
+                emitter.complete();
+            }
+        }
+
+        @Override
+        public synchronized void onMissing(String runId) {
+            send(SseEmitter.event().name("not_found").data(List.of(runId), MediaType.APPLICATION_JSON));
+            active.remove(runId);
+            onWatched();
+        }
+
+        @Override
+        public void close() {
+            emitter.complete();
+        }
+
+        synchronized void send(SseEmitter.SseEventBuilder event) {
+            try {
+                emitter.send(event);
+            } catch (IOException | IllegalStateException e) {
+                emitter.completeWithError(e);
+            }
+        }
+
+    }
+
+
+    private class ListenerWatcher implements Watcher {
+
+        private final String runId;
+        private final Consumer<RunStatus> listener;
+        private final Runnable onMissing;
+        private State last;
+
+        ListenerWatcher(RunStatus status, Consumer<RunStatus> listener, Runnable onMissing) {
+            this.runId = status.getRunId();
+            this.last = status.getState();
+            this.listener = listener;
+            this.onMissing = onMissing;
+        }
+
+        @Override
+        public Set<String> runIds() {
+            return Set.of(runId);
+        }
+
+        @Override
+        public synchronized void onStatus(RunStatus status) {
+            if (status.getState() == last) {
+                return;
+            }
+            last = status.getState();
+            listener.accept(status);
+            if (isTerminal(status.getState())) {
+                unwatch(this);
+            }
+        }
+
+        @Override
+        public void onWatched() {
+        }
+
+        @Override
+        public void onMissing(String runId) {
+            unwatch(this);
+            onMissing.run();
+        }
+
+        @Override
+        public void close() {
+        }
+
+    }
+
+
+    private static class LongPollWatcher implements Watcher {
+
+        private final DeferredResult<RunStatusBatchResponse> result;
+        private final Map<String, State> known;
+        private final List<String> notFound;
+
+        LongPollWatcher(DeferredResult<RunStatusBatchResponse> result, Map<String, State> known, List<String> notFound) {
+            this.result = result;
+            this.known = known;
+            this.notFound = notFound;
+        }
+
+        @Override
+        public Set<String> runIds() {
+            return known.keySet();
+        }
+
+        @Override
+        public void onStatus(RunStatus status) {
+            if (status.getState() != known.get(status.getRunId())) {
+                result.setResult(RunStatusBatchResponse.builder().runs(List.of(status)).notFound(notFound).build());
+            }
+        }
+
+        @Override
+        public void onWatched() {
+        }
+
+        @Override
+        public void onMissing(String runId) {
+            List<String> missing = new ArrayList<>(notFound);
+            missing.add(runId);
+            result.setResult(RunStatusBatchResponse.builder().runs(List.of()).notFound(missing).build());
+        }
+
+        @Override
+        public void close() {
+            result.setResult(RunStatusBatchResponse.builder().runs(List.of()).notFound(notFound).build());
+        }
+
+    }
+
+}
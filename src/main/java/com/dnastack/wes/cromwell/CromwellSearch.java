@@ -19,6 +19,11 @@ public class CromwellSearch {
 
     private String end;
 
+    /**
+     * Only return workflows submitted at or after this time
+     */
+    private String submission;
+
     private String name;
 
     private List<String> status;
@@ -29,4 +34,9 @@ public class CromwellSearch {
 
     private Integer pageSize;
 
+    /**
+     * Additional fields to include in each result, for example <code>labels</code>
+     */
+    private List<String> additionalQueryResultFields;
+
 }
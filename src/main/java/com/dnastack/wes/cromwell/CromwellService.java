@@ -22,9 +22,11 @@ import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.databind.node.TextNode;
 import feign.FeignException;
+import feign.Response;
+import feign.form.FormData;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.task.TaskExecutor;
 import org.springframework.http.HttpRange;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
@@ -32,12 +34,23 @@ import org.springframework.web.multipart.MultipartFile;
 import java.io.*;
 import java.net.*;
 import java.nio.charset.Charset;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.Map.Entry;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -50,14 +63,38 @@ import java.util.zip.ZipOutputStream;
  */
 @Slf4j
 @Service
-public class CromwellService {
+public class CromwellService implements DisposableBean {
 
     private static final ObjectMapper mapper = new ObjectMapper().findAndRegisterModules();
+
+    /**
+     * The cromwell statuses from which a workflow may still be aborted
+     */
+    private static final List<String> CANCELLABLE_STATUSES = List.of("On Hold", "Submitted", "Running");
+
+    private static final String DEPENDENCIES_CONTENT_TYPE = "application/zip";
+
+    /**
+     * The staging folder under which attachments are staged by the digest of their content
+     */
+    private static final String CONTENT_ADDRESSED_STAGING_FOLDER = "sha256";
+
     private final CromwellClient client;
     private final BlobStorageClient storageClient;
     private final PathTranslatorFactory pathTranslatorFactory;
     private final CromwellWesMapper cromwellWesMapper;
     private final CromwellConfig cromwellConfig;
+    private final CromwellMetadataCache metadataCache;
+    private final CromwellRunLogTranscoder runLogTranscoder;
+    private final CromwellStateCountAggregator stateCountAggregator;
+    private final CromwellRunIndex runIndex;
+    private final CromwellRequestCoalescer requestCoalescer;
+    private final CromwellWorkflowSourceCache workflowSourceCache;
+    private final CromwellFailuresLogCache failuresLogCache;
+    private final CromwellTaskLogIndex taskLogIndex;
+    private final ExecutorService stagingExecutor;
+    private final ExecutorService abortExecutor;
+    private final List<RunSubmissionListener> submissionListeners = new CopyOnWriteArrayList<>();
 
     private final AppConfig appConfig;
 
@@ -68,7 +105,15 @@ public class CromwellService {
         PathTranslatorFactory pathTranslatorFactory,
         CromwellWesMapper cromwellWesMapper,
         AppConfig appConfig,
-        CromwellConfig config
+        CromwellConfig config,
+        CromwellMetadataCache metadataCache,
+        CromwellRunLogTranscoder runLogTranscoder,
+        CromwellStateCountAggregator stateCountAggregator,
+        CromwellRunIndex runIndex,
+        CromwellRequestCoalescer requestCoalescer,
+        CromwellWorkflowSourceCache workflowSourceCache,
+        CromwellFailuresLogCache failuresLogCache,
+        CromwellTaskLogIndex taskLogIndex
     ) {
         this.client = cromwellClient;
         this.pathTranslatorFactory = pathTranslatorFactory;
@@ -76,29 +121,47 @@ public class CromwellService {
         this.cromwellWesMapper = cromwellWesMapper;
         this.appConfig = appConfig;
         this.cromwellConfig = config;
+        this.metadataCache = metadataCache;
+        this.runLogTranscoder = runLogTranscoder;
+        this.stateCountAggregator = stateCountAggregator;
+        this.runIndex = runIndex;
+        this.requestCoalescer = requestCoalescer;
+        this.workflowSourceCache = workflowSourceCache;
+        this.failuresLogCache = failuresLogCache;
+        this.taskLogIndex = taskLogIndex;
+        this.stagingExecutor = newWorkerPool(config.getStagingParallelism(), "attachment-staging-");
+        this.abortExecutor = newWorkerPool(config.getCancelParallelism(), "run-abort-");
+    }
+
+    @Override
+    public void destroy() {
+        stagingExecutor.shutdownNow();
+        abortExecutor.shutdownNow();
+    }
+
+    /**
+     * Register a listener to be notified of every run submitted to cromwell
+     */
+    void addSubmissionListener(RunSubmissionListener listener) {
+        submissionListeners.add(listener);
     }
 
 
     /**
-     * Retrieve as list of workflows from cromwell and aggregate them into a map of state counts. If multi tenant
-     * support is enabled, the state counts will be limited to those submitted by the current principal
+     * Retrieve the number of runs in each state from the last snapshot of the {@link CromwellStateCountAggregator}. The
+     * counts may be stale by up to the configured refresh interval, and are <code>null</code> until they have been
+     * computed. If multi tenant support is enabled, the state counts will be limited to those submitted by the current
+     * principal
      */
     public Map<State, Integer> getSystemStateCounts() {
-        CromwellResponse response;
-        response = client.listWorkflows();
-
-        EnumMap<State, Integer> systemCounts = new EnumMap<>(State.class);
-        response.getResults().forEach(cromwellStatus -> {
-            State state = CromwellWesMapper.mapState(cromwellStatus.getStatus());
-            systemCounts.compute(state, (key, count) -> {
-                if (count != null) {
-                    return count + 1;
-                }
-                return 1;
-            });
-        });
+        return stateCountAggregator.getStateCounts(getTenant());
+    }
 
-        return systemCounts;
+    /**
+     * @return the subject of the authenticated user if multi tenant support is enabled, otherwise <code>null</code>
+     */
+    private String getTenant() {
+        return cromwellConfig.isMultiTenant() ? AuthenticatedUser.getSubject() : null;
     }
 
     /**
@@ -119,17 +182,35 @@ public class CromwellService {
      * Additionally, cromwell does not provide a mechanism for ordering the listed outputs, therefore all results are
      * listed from most recent to oldest. Because of this limitation, listing jobs does not provide a guarantee that the
      * list has not changed since the last time a user fetched results.
+     * <p>
+     * If the {@link CromwellRunIndex} is enabled and populated, the runs are listed from the index instead of cromwell
+     * and the page tokens are keyset tokens ({@link RunPageToken}). Each page costs the same regardless of its depth, and
+     * the listing is consistent with the index at the time the first page was requested. Once the index is full and a
+     * listing reaches back past the runs it holds, the remaining pages are read from cromwell.
      *
+     * @param filter    The filters to apply to the listing. Filters are translated into cromwell query parameters, and
+     *                  must be provided with every page request. If multi tenant support is enabled, the listing is
+     *                  additionally limited to the runs submitted by the current principal
      * @param pageSize  The size of the page to return. If pageToken is provided, then page size will be ignored. If
      *                  neither the pageSize nor pageToken are defined, then the default page size will be used. {@link
      *                  AppConfig}
-     * @param pageToken The page token is an encoded string defining the next page to retrieve from the cromwell server.
-     *                  It is a base64 encoded query string containing the page size and the next page
+     * @param pageToken The page token is an opaque string defining the next page to retrieve. Tokens issued while the
+     *                  run index is unavailable are a base64 encoded query string containing the page size and the next
+     *                  page
      *
      * @return List of runs with next page set.
      */
-    public RunListResponse listRuns(Integer pageSize, String pageToken) {
-        CromwellSearch search = new CromwellSearch();
+    public RunListResponse listRuns(RunListFilter filter, Integer pageSize, String pageToken) {
+        CromwellSearch search = mapFilterToSearch(filter);
+        if (search == null) {
+            return RunListResponse.builder().runs(List.of()).build();
+        }
+
+        RunPageToken keysetToken = pageToken == null ? null : RunPageToken.decode(pageToken);
+        if (keysetToken != null || (pageToken == null && runIndex.isReady())) {
+            return listIndexedRuns(search, pageSize, keysetToken);
+        }
+
         if (pageToken != null) {
             String urlEncodedToken = new String(Base64.getDecoder().decode(pageToken), Charset.defaultCharset());
             String decodedToken = URLDecoder.decode(urlEncodedToken, Charset.defaultCharset());
@@ -150,7 +231,10 @@ public class CromwellService {
         }
 
 
-        CromwellResponse response = client.listWorkflows(search);
+        // pages of a truncated index may be missing older runs, so they are only served by cromwell
+        CromwellResponse response = runIndex.isReady() && !runIndex.isTruncated()
+            ? runIndex.query(search)
+            : client.listWorkflows(search);
         RunListResponse runListResponse = CromwellWesMapper.mapCromwellResponseToRunListResposne(response);
         if (response.getTotalResultsCount() > (long) search.getPage() * search.getPageSize()) {
             String urlEncodedNextPage = URLEncoder
@@ -164,6 +248,77 @@ public class CromwellService {
         return runListResponse;
     }
 
+    /**
+     * Translate the WES run filters into a cromwell search. WES states are mapped to every cromwell status which
+     * corresponds to them
+     *
+     * @return the search, or <code>null</code> if no run can match the filter
+     */
+    CromwellSearch mapFilterToSearch(RunListFilter filter) {
+        CromwellSearch search = new CromwellSearch();
+        if (filter == null) {
+            filter = new RunListFilter();
+        }
+
+        if (filter.getStates() != null && !filter.getStates().isEmpty()) {
+            List<String> statuses = filter.getStates().stream()
+                .flatMap(state -> CromwellWesMapper.mapStateToCromwellStatuses(state).stream())
+                .distinct()
+                .toList();
+            if (statuses.isEmpty()) {
+                return null;
+            }
+            search.setStatus(statuses);
+        }
+
+        if (filter.getTags() != null && !filter.getTags().isEmpty()) {
+            for (String tag : filter.getTags()) {
+                if (tag.indexOf(':') <= 0) {
+                    throw new InvalidRequestException("Invalid tag filter " + tag + ", tags must be formatted as key:value");
+                }
+            }
+            search.setLabel(filter.getTags());
+        }
+
+        String tenant = getTenant();
+        if (tenant != null) {
+            List<String> labels = new ArrayList<>();
+            labels.add(cromwellConfig.getUserLabel() + ":" + tenant);
+            if (search.getLabel() != null) {
+                labels.addAll(search.getLabel());
+            }
+            search.setLabel(labels);
+        }
+
+        search.setName(filter.getName());
+        search.setSubmission(formatDateTime(filter.getSubmittedAfter()));
+        search.setStart(formatDateTime(filter.getStartedAfter()));
+        search.setEnd(formatDateTime(filter.getEndedBefore()));
+        return search;
+    }
+
+    private static String formatDateTime(ZonedDateTime dateTime) {
+        return dateTime == null ? null : DateTimeFormatter.ISO_OFFSET_DATE_TIME.format(dateTime);
+    }
+
+    private RunListResponse listIndexedRuns(CromwellSearch search, Integer pageSize, RunPageToken pageToken) {
+        if (!runIndex.isReady()) {
+            throw new InvalidRequestException("The page token is no longer valid, restart the listing without a page token");
+        }
+        if (pageSize != null && pageSize <= 0) {
+            throw new InvalidRequestException("The page size must be greater than 0");
+        }
+
+        CromwellRunIndex.RunPage page = runIndex
+            .page(search, pageToken, pageSize == null ? appConfig.getDefaultPageSize() : pageSize);
+        RunListResponse runListResponse = CromwellWesMapper
+            .mapCromwellResponseToRunListResposne(new CromwellResponse(null, page.runs()));
+        if (page.nextPageToken() != null) {
+            runListResponse.setNextPageToken(page.nextPageToken().encode());
+        }
+        return runListResponse;
+    }
+
     /**
      * Get a Specific Run by retrieving the job metadata from cromwell.
      *
@@ -172,14 +327,54 @@ public class CromwellService {
      * @return a complete run log
      */
     public RunLog getRun(String runId) {
-        CromwellMetadataResponse metadataResponse = getMetadata(runId);
+        CromwellMetadataResponse metadataResponse = getMetadata(runId, CromwellMetadataProjection.RUN_LOG);
         return cromwellWesMapper.mapMetadataToRunLog(metadataResponse, pathTranslatorFactory
             .getTranslatorsForOutputs());
     }
 
-    public CromwellMetadataResponse getMetadata(String runId) {
+    /**
+     * Write a specific run to the output stream. Unless the metadata for the run is already cached, the metadata is
+     * streamed from cromwell and transcoded into the run log as it is read, so the complete metadata document is never
+     * held in memory. See {@link CromwellRunLogTranscoder}
+     *
+     * @param outputStream The stream to write the run log to. The stream is not closed
+     * @param runId        The cromwell id
+     */
+    public void writeRun(OutputStream outputStream, String runId) throws IOException {
+        if (!cromwellConfig.isStreamRunLogs() || metadataCache.getIfPresent(runId, CromwellMetadataProjection.RUN_LOG) != null) {
+            runLogTranscoder.write(getRun(runId), outputStream);
+            return;
+        }
+
+        try (Response response = client.streamMetadata(runId, CromwellMetadataProjection.RUN_LOG.toQuery())) {
+            if (response.status() == 400 || response.status() == 404) {
+                throw new NotFoundException("Workflow execution with run_id " + runId + " does not exist.");
+            } else if (response.status() >= 300) {
+                throw FeignException.errorStatus("CromwellClient#streamMetadata(String,CromwellMetadataQuery)", response);
+            }
+
+            try (InputStream metadata = response.body().asInputStream()) {
+                runLogTranscoder.transcode(metadata, outputStream, runId, pathTranslatorFactory.getTranslatorsForOutputs());
+            }
+        }
+    }
+
+    /**
+     * Retrieve the metadata for a run. Metadata is served from the {@link CromwellMetadataCache} when possible
+     *
+     * @param runId      The cromwell id
+     * @param projection The slice of the metadata document required by the caller
+     *
+     * @return the expanded cromwell metadata, limited to the keys of the projection
+     */
+    public CromwellMetadataResponse getMetadata(String runId, CromwellMetadataProjection projection) {
+        return metadataCache.get(runId, projection, id -> fetchMetadata(id, projection));
+    }
+
+    private CromwellMetadataResponse fetchMetadata(String runId, CromwellMetadataProjection projection) {
         try {
-            return client.getMetadata(runId);
+            return requestCoalescer.execute(CromwellOperation.METADATA, runId, projection, () -> client
+                .getMetadata(runId, projection.toQuery()));
         } catch (FeignException e) {
             if (e.status() == 400 || e.status() == 404) {
                 throw new NotFoundException("Workflow execution with run_id " + runId + " does not exist.");
@@ -201,9 +396,108 @@ public class CromwellService {
         return CromwellWesMapper.mapCromwellStatusToRunStatus(status);
     }
 
+    /**
+     * Retrieve the status of many runs at once. Runs are looked up in cromwell by id, in chunks of
+     * {@link CromwellRunIndex#ID_QUERY_CHUNK_SIZE}, so that thousands of statuses only cost a handful of queries. If multi
+     * tenant support is enabled only runs submitted by the current principal are found.
+     *
+     * @param runIds The cromwell ids
+     *
+     * @return the status of each run which was found in the order the runs were requested, and the ids of the runs which
+     *     were not found
+     */
+    public RunStatusBatchResponse getRunStatuses(List<String> runIds) {
+        if (runIds == null || runIds.isEmpty()) {
+            throw new InvalidRequestException("At least one run_id must be provided");
+        }
+        if (runIds.size() > appConfig.getMaxBatchSize()) {
+            throw new InvalidRequestException("At most " + appConfig.getMaxBatchSize() + " run_ids may be provided");
+        }
+
+        List<String> requestedIds = runIds.stream().distinct().toList();
+        Map<String, RunStatus> statuses = queryRunStatuses(requestedIds, getTenant());
+
+        List<RunStatus> runs = new ArrayList<>();
+        List<String> notFound = new ArrayList<>();
+        for (String runId : requestedIds) {
+            RunStatus status = statuses.get(runId);
+            if (status == null) {
+                notFound.add(runId);
+            } else {
+                runs.add(status);
+            }
+        }
+        return RunStatusBatchResponse.builder().runs(runs).notFound(notFound).build();
+    }
+
+    /**
+     * Retrieve the status of many runs at once, like {@link #getRunStatuses(List)}, on behalf of a caller which may only
+     * access some of the runs. Runs the caller may not access are reported as not found without being looked up.
+     *
+     * @param accessible Whether the caller may access the run with the given id
+     */
+    public RunStatusBatchResponse getRunStatuses(List<String> runIds, Predicate<String> accessible) {
+        if (runIds == null || runIds.isEmpty()) {
+            throw new InvalidRequestException("At least one run_id must be provided");
+        }
+
+        List<String> requestedIds = runIds.stream().distinct().toList();
+        List<String> accessibleIds = requestedIds.stream().filter(accessible).toList();
+        if (accessibleIds.size() == requestedIds.size()) {
+            return getRunStatuses(requestedIds);
+        }
+        if (requestedIds.size() > appConfig.getMaxBatchSize()) {
+            throw new InvalidRequestException("At most " + appConfig.getMaxBatchSize() + " run_ids may be provided");
+        }
+
+        RunStatusBatchResponse statuses = accessibleIds.isEmpty()
+            ? RunStatusBatchResponse.builder().runs(List.of()).notFound(List.of()).build()
+            : getRunStatuses(accessibleIds);
+        Set<String> found = statuses.getRuns().stream().map(RunStatus::getRunId).collect(Collectors.toSet());
+        List<String> notFound = requestedIds.stream().filter(runId -> !found.contains(runId)).toList();
+        return RunStatusBatchResponse.builder().runs(statuses.getRuns()).notFound(notFound).build();
+    }
+
+    /**
+     * Look up the status of many runs in cromwell, in chunks of {@link CromwellRunIndex#ID_QUERY_CHUNK_SIZE} ids per
+     * query
+     *
+     * @param tenant Only find runs submitted by this user, or any run if <code>null</code>
+     *
+     * @return the status of each run which was found, by run id
+     */
+    Map<String, RunStatus> queryRunStatuses(Collection<String> runIds, String tenant) {
+        // cromwell rejects the whole query if any id is not a uuid, so malformed ids are reported as not found instead
+        List<String> validIds = runIds.stream().filter(CromwellService::isUuid).toList();
+        Map<String, RunStatus> statuses = new HashMap<>();
+        for (int i = 0; i < validIds.size(); i += CromwellRunIndex.ID_QUERY_CHUNK_SIZE) {
+            List<String> chunk = validIds.subList(i, Math.min(i + CromwellRunIndex.ID_QUERY_CHUNK_SIZE, validIds.size()));
+            CromwellSearch search = CromwellSearch.builder()
+                .id(chunk)
+                .label(tenant == null ? null : List.of(cromwellConfig.getUserLabel() + ":" + tenant))
+                .page(1)
+                .pageSize(chunk.size())
+                .build();
+            CromwellResponse response = client.listWorkflows(search);
+            if (response.getResults() != null) {
+                response.getResults().forEach(status -> statuses.put(status.getId(), CromwellWesMapper
+                    .mapCromwellStatusToRunStatus(status)));
+            }
+        }
+        return statuses;
+    }
+
+    private static boolean isUuid(String runId) {
+        try {
+            return runId != null && UUID.fromString(runId).toString().equalsIgnoreCase(runId);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
     private CromwellStatus getStatus(String runId) {
         try {
-            return client.getStatus(runId);
+            return requestCoalescer.execute(CromwellOperation.STATUS, runId, null, () -> client.getStatus(runId));
         } catch (FeignException e) {
             if (e.status() == 400 || e.status() == 404) {
                 throw new NotFoundException("Workflow execution with run_id " + runId + " does not exist.");
@@ -213,6 +507,125 @@ public class CromwellService {
         }
     }
 
+    /**
+     * Cancel many runs at once. The runs are either listed explicitly, or selected by their tags and states in which case
+     * only runs which have not yet reached a terminal state are selected. If multi tenant support is enabled, only runs
+     * submitted by the current principal are canceled. The runs are aborted concurrently from a pool of
+     * {@link CromwellConfig#getCancelParallelism()} threads, so at most that many aborts are in flight at once across
+     * every request.
+     *
+     * @return the outcome of each cancellation. Runs which do not exist are reported as not found
+     */
+    public RunCancellations cancelRuns(RunCancelBatchRequest request) {
+        return cancelRuns(request, runId -> true);
+    }
+
+    /**
+     * Cancel many runs at once, like {@link #cancelRuns(RunCancelBatchRequest)}, on behalf of a caller which may only
+     * cancel some of the runs. Whether the caller may cancel a run is checked for every listed or selected run before any
+     * run is aborted, and runs the caller may not cancel are reported as not found.
+     *
+     * @param accessible Whether the caller may cancel the run with the given id
+     */
+    public RunCancellations cancelRuns(RunCancelBatchRequest request, Predicate<String> accessible) {
+        boolean hasIds = request.getRunIds() != null && !request.getRunIds().isEmpty();
+        boolean hasSelector = (request.getTags() != null && !request.getTags().isEmpty())
+            || (request.getStates() != null && !request.getStates().isEmpty());
+        if (hasIds == hasSelector) {
+            throw new InvalidRequestException("Either run_ids, or tags and states to select runs by must be provided");
+        }
+
+        List<RunCancellation> outcomes = new ArrayList<>();
+        List<String> runIds;
+        if (hasIds) {
+            RunStatusBatchResponse statuses = getRunStatuses(request.getRunIds(), accessible);
+            statuses.getNotFound().forEach(runId -> outcomes.add(new RunCancellation(runId, RunCancellation.CancellationState.NOT_FOUND, null)));
+            runIds = statuses.getRuns().stream().map(RunStatus::getRunId).toList();
+        } else {
+            Map<Boolean, List<String>> selected = selectRunsToCancel(request.getTags(), request.getStates()).stream()
+                .collect(Collectors.partitioningBy(accessible::test));
+            selected.get(false).forEach(runId -> outcomes.add(new RunCancellation(runId, RunCancellation.CancellationState.NOT_FOUND, null)));
+            runIds = selected.get(true);
+        }
+
+        outcomes.addAll(abortAll(runIds));
+        return new RunCancellations(outcomes);
+    }
+
+    private List<String> selectRunsToCancel(List<String> tags, List<State> states) {
+        CromwellSearch search = mapFilterToSearch(RunListFilter.builder().tags(tags).states(states).build());
+        if (search == null) {
+            return List.of();
+        }
+
+        List<String> statuses = search.getStatus() == null ? CANCELLABLE_STATUSES : search.getStatus().stream()
+            .filter(CANCELLABLE_STATUSES::contains)
+            .toList();
+        if (statuses.isEmpty()) {
+            return List.of();
+        }
+        search.setStatus(statuses);
+        search.setPageSize(CromwellRunIndex.ID_QUERY_CHUNK_SIZE);
+
+        List<String> runIds = new ArrayList<>();
+        for (int page = 1; ; page++) {
+            search.setPage(page);
+            CromwellResponse response = client.listWorkflows(search);
+            if (response.getTotalResultsCount() != null && response.getTotalResultsCount() > appConfig.getMaxBatchSize()) {
+                throw new InvalidRequestException("The selector matches " + response.getTotalResultsCount()
+                    + " runs, at most " + appConfig.getMaxBatchSize() + " runs may be canceled at once");
+            }
+            if (response.getResults() == null || response.getResults().isEmpty()) {
+                break;
+            }
+            response.getResults().stream().map(CromwellStatus::getId).forEach(runIds::add);
+            if (response.getResults().size() < search.getPageSize()) {
+                break;
+            }
+        }
+        return runIds.stream().distinct().toList();
+    }
+
+    /**
+     * Abort every run, draining a shared queue from a bounded number of workers so that no more than the configured
+     * number of aborts are in flight at once
+     */
+    private List<RunCancellation> abortAll(List<String> runIds) {
+        Queue<String> pending = new ConcurrentLinkedQueue<>(runIds);
+        Map<String, RunCancellation> outcomes = new ConcurrentHashMap<>();
+        Runnable worker = () -> {
+            String runId;
+            while ((runId = pending.poll()) != null) {
+                outcomes.put(runId, abort(runId));
+            }
+        };
+
+        runWorkers(abortExecutor, Math.min(cromwellConfig.getCancelParallelism(), runIds.size()), worker);
+        return runIds.stream().map(outcomes::get).toList();
+    }
+
+    private RunCancellation abort(String runId) {
+        try {
+            cancel(runId);
+            return new RunCancellation(runId, RunCancellation.CancellationState.CANCELING, null);
+        } catch (FeignException e) {
+            if (e.status() == 400 || e.status() == 404) {
+                return new RunCancellation(runId, RunCancellation.CancellationState.NOT_FOUND, null);
+            }
+            log.warn("Failed to cancel run {}: {}", runId, e.getMessage());
+            return new RunCancellation(runId, RunCancellation.CancellationState.FAILED, ErrorResponse.builder()
+                .msg(e.getMessage())
+                .errorCode(e.status() < 400 ? 500 : e.status())
+                .build());
+        } catch (RuntimeException e) {
+            log.warn("Failed to cancel run {}: {}", runId, e.getMessage());
+            return new RunCancellation(runId, RunCancellation.CancellationState.FAILED, ErrorResponse.builder()
+                .msg(e.getMessage())
+                .errorCode(500)
+                .build());
+        }
+    }
+
     /**
      * Attempt to cancel a workflow in cromwell if the job is in a "cancellable" state
      *
@@ -221,7 +634,12 @@ public class CromwellService {
      * @return the cromwell id
      */
     public RunId cancel(String runId) {
-        client.abortWorkflow(runId);
+        try {
+            client.abortWorkflow(runId);
+        } finally {
+            metadataCache.invalidate(runId);
+            taskLogIndex.invalidate(runId);
+        }
         return RunId.builder().runId(runId).build();
     }
 
@@ -232,17 +650,12 @@ public class CromwellService {
     }
 
     private String getLogPath(String runId, String taskId, String logKey) throws IOException {
-        CromwellMetadataResponse metadataResponse = getMetadata(runId);
-        CromwellTaskCall taskCall = cromwellWesMapper.flattenTaskCalls(metadataResponse)
-            .stream().filter(call -> taskId.equals(call.getTaskId()))
-            .findFirst()
-            .orElseThrow(() -> new FileNotFoundException(
-                "Could not read " + logKey + " for task " + taskId + "in run " + runId + ", it does not exist"));
-        if (logKey.equals("stderr")) {
-            return taskCall.getStderr();
-        } else {
-            return taskCall.getStdout();
+        CromwellTaskLogIndex.TaskLogPaths logPaths = getTaskLogs(runId).getByTaskId(taskId);
+        if (logPaths == null) {
+            throw new FileNotFoundException(
+                "Could not read " + logKey + " for task " + taskId + "in run " + runId + ", it does not exist");
         }
+        return logPaths.get(logKey);
     }
 
     public void getLogBytes(OutputStream outputStream, String runId, String taskName, int index, String logKey, HttpRange httpRange) throws IOException {
@@ -252,32 +665,34 @@ public class CromwellService {
 
     //legacy
     private String getLogPath(String runId, String taskName, int index, String logKey) throws IOException {
-        CromwellMetadataResponse metadataResponse = getMetadata(runId);
-        Map<String, List<CromwellTaskCall>> calls = metadataResponse.getCalls();
-        if (calls == null || !calls.containsKey(taskName) || calls.get(taskName).size() <= index) {
+        CromwellTaskLogIndex.TaskLogPaths logPaths = getTaskLogs(runId).getByCallName(taskName, index);
+        if (logPaths == null) {
             throw new FileNotFoundException(
                 "Could not read " + logKey + " for task " + taskName + "in run " + runId + ", it does not exist");
         }
-
-        CromwellTaskCall taskCall = calls.get(taskName).get(index);
-        if (logKey.equals("stderr")) {
-            return taskCall.getStderr();
-        } else {
-            return taskCall.getStdout();
-        }
+        return logPaths.get(logKey);
     }
 
-    public void getLogBytes(OutputStream outputStream, String runId, HttpRange range) throws IOException {
-        CromwellMetadataResponse response = client.getMetadata(runId);
-        if (response.getFailures() != null) {
+    /**
+     * Retrieve the log paths of every task call of a run from the {@link CromwellTaskLogIndex}. The index is built from
+     * metadata which is already cached if possible, and otherwise from metadata fetched directly from cromwell, so the
+     * task logs projection is never held by the metadata cache once the index exists
+     */
+    public CromwellTaskLogIndex.RunTaskLogs getTaskLogs(String runId) {
+        return taskLogIndex.get(runId, id -> {
+            CromwellMetadataResponse cached = metadataCache.getIfPresent(id, CromwellMetadataProjection.TASK_LOGS);
+            return cached != null ? cached : fetchMetadata(id, CromwellMetadataProjection.TASK_LOGS);
+        });
+    }
 
-            byte[] bytes = mapper.writeValueAsBytes(response.getFailures());
-            if (range != null) {
-                outputStream.write(Arrays.copyOfRange(bytes, (int) range.getRangeStart(bytes.length), (int) range.getRangeEnd(bytes.length) + 1));
-            } else {
-                outputStream.write(bytes);
-            }
-        }
+    /**
+     * Retrieve the run level failures log, the workflow failures serialized as <code>JSON</code>. The log of a run in a
+     * terminal state is rendered once and then served from the {@link CromwellFailuresLogCache}
+     *
+     * @return the failures log, or an empty buffer if the run has no failures. The buffer must not be modified
+     */
+    public byte[] getFailuresLog(String runId) throws IOException {
+        return failuresLogCache.get(runId, id -> getMetadata(id, CromwellMetadataProjection.FAILURES));
     }
 
     /**
@@ -330,61 +745,385 @@ public class CromwellService {
      */
     public RunId execute(RunRequest runRequest) {
         try {
-            Path tempDirectory = null;
-            try {
-                tempDirectory = Files.createTempDirectory("wes-dependency-resolver");
-                CromwellExecutionRequest executionRequest = new CromwellExecutionRequest();
+            return execute(runRequest, AuthenticatedUser.getSubject(), null);
+        } catch (IOException | FeignException e) {
+            throw new InvalidRequestException(e.getMessage(), e);
+        }
+    }
 
-                if (runRequest.getWorkflowAttachments() == null) {
-                    runRequest.setWorkflowAttachments(new MultipartFile[0]);
-                }
+    /**
+     * Submit a run on behalf of a user, see {@link #execute(RunRequest)}. Failures to stage the attachments or to reach
+     * cromwell are thrown as they are, so that the caller can tell them apart from a run which was rejected.
+     * <p>
+     * The attachments of a run with a requested id are staged in a folder named after the id, so that submitting the
+     * same run again reuses the attachments staged by an earlier attempt instead of staging another copy. See
+     * {@link #deleteStagedAttachments(RunRequest, String)}. Otherwise the attachments staged for the run are deleted if
+     * it could not be submitted.
+     *
+     * @param user           The subject of the user who submitted the run, may be <code>null</code>
+     * @param requestedRunId The id cromwell should assign to the run, or <code>null</code> to let cromwell assign one
+     *
+     * @throws IOException    if the attachments could not be staged
+     * @throws FeignException if cromwell could not be reached, or did not accept the run
+     */
+    RunId execute(RunRequest runRequest, String user, String requestedRunId) throws IOException {
+        validateSubmission(runRequest);
+        CromwellExecutionRequest executionRequest = new CromwellExecutionRequest();
 
-                if (isUrl(runRequest.getWorkflowUrl())) {
-                    executionRequest.setWorkflowUrl(runRequest.getWorkflowUrl());
-                } else {
-                    setWorkflowSourceAndDependencies(tempDirectory, runRequest, executionRequest);
-                }
+        if (runRequest.getWorkflowAttachments() == null) {
+            runRequest.setWorkflowAttachments(new MultipartFile[0]);
+        }
 
-                WdlFileProcessor processor = setWorkflowInputs(runRequest
-                    .getWorkflowParams(), runRequest.getWorkflowAttachments(), executionRequest);
+        CromwellWorkflowSourceCache.WorkflowSource workflowSource = getWorkflowSource(runRequest);
+        if (isUrl(runRequest.getWorkflowUrl())) {
+            executionRequest.setWorkflowUrl(runRequest.getWorkflowUrl());
+        } else {
+            setWorkflowSourceAndDependencies(runRequest, workflowSource, executionRequest);
+        }
 
-                uploadAttachments(runRequest, processor);
+        WdlFileProcessor processor = setWorkflowInputs(runRequest
+            .getWorkflowParams(), runRequest.getWorkflowAttachments(), executionRequest);
 
+        String stagingFolder = requestedRunId != null ? requestedRunId : UUID.randomUUID().toString();
+        StagedAttachments stagedAttachments = stageAttachments(runRequest, stagingFolder);
+        applyStagedAttachments(processor, stagedAttachments.locations());
 
-                setWorkflowLabels(runRequest, executionRequest);
-                setWorkflowOptions(runRequest, executionRequest);
-                CromwellStatus status = client.createWorkflow(executionRequest);
-                return RunId.builder().runId(status.getId()).build();
-            } finally {
-                if (tempDirectory != null && tempDirectory.toFile().exists()) {
-                    try (Stream<Path> files = Files.walk(tempDirectory.toAbsolutePath())) {
-                        files.sorted(Comparator.reverseOrder()).map(Path::toFile)
-                            .forEach(File::delete);
-                    }
+        CromwellStatus status;
+        try {
+            setWorkflowLabels(runRequest, user, executionRequest);
+            setWorkflowOptions(runRequest, workflowSource, executionRequest);
+            executionRequest.setRequestedWorkflowId(requestedRunId);
+            if (cromwellConfig.getScheduler().isEnabled()) {
+                executionRequest.setWorkflowOnHold(true);
+            }
+            status = client.createWorkflow(executionRequest);
+        } catch (IOException | RuntimeException e) {
+            // a run with a requested id may be submitted again, its attachments are deleted once it has failed for good
+            if (requestedRunId == null) {
+                deleteStagedAttachments(stagedAttachments);
+            }
+            throw e;
+        }
+        notifySubmitted(status.getId(), runRequest);
+        return RunId.builder().runId(status.getId()).build();
+    }
+
+    /**
+     * Check that every submission listener accepts the run, before any work is done to submit it
+     *
+     * @throws InvalidRequestException if a listener rejects the run
+     */
+    public void validateSubmission(RunRequest runRequest) {
+        submissionListeners.forEach(listener -> listener.validate(runRequest.getTags()));
+    }
+
+    /**
+     * Notify the submission listeners of a run which has reached cromwell
+     */
+    void notifySubmitted(String runId, RunRequest runRequest) {
+        submissionListeners.forEach(listener -> listener.submitted(runId, runRequest.getTags()));
+    }
+
+    /**
+     * Submit many runs of the same workflow at once, each with its own set of inputs. The workflow source, dependencies
+     * and options are prepared and the attachments are staged only once, and the runs are submitted to cromwell through
+     * its batch api in chunks of at most {@link CromwellConfig#getBatchSubmissionSize()} runs. Failures are reported for
+     * each run rather than failing the whole batch, and a failure to submit a chunk is reported for every run in it. The
+     * staged attachments are deleted if no run of the batch was submitted.
+     *
+     * @param runRequest     The workflow, attachments, engine parameters and tags shared by every run. Any
+     *                       <code>workflow_params</code> on the request are ignored
+     * @param workflowParams The inputs of each run
+     *
+     * @return the outcome of each run, in the order the inputs were provided
+     */
+    public RunBatchResponse executeBatch(RunRequest runRequest, List<Map<String, Object>> workflowParams) {
+        if (workflowParams == null || workflowParams.isEmpty()) {
+            throw new InvalidRequestException("At least one set of workflow_params must be provided");
+        }
+        if (workflowParams.size() > appConfig.getMaxBatchSize()) {
+            throw new InvalidRequestException("At most " + appConfig.getMaxBatchSize() + " sets of workflow_params may be provided");
+        }
+        validateSubmission(runRequest);
+
+        try {
+            CromwellExecutionRequest executionRequest = new CromwellExecutionRequest();
+
+            if (runRequest.getWorkflowAttachments() == null) {
+                runRequest.setWorkflowAttachments(new MultipartFile[0]);
+            }
+
+            CromwellWorkflowSourceCache.WorkflowSource workflowSource = getWorkflowSource(runRequest);
+            if (isUrl(runRequest.getWorkflowUrl())) {
+                executionRequest.setWorkflowUrl(runRequest.getWorkflowUrl());
+            } else {
+                setWorkflowSourceAndDependencies(runRequest, workflowSource, executionRequest);
+            }
+
+            StagedAttachments stagedAttachments = stageAttachments(runRequest, UUID.randomUUID().toString());
+            RunBatchResult[] results;
+            try {
+                results = submitBatch(runRequest, workflowParams, executionRequest, workflowSource, stagedAttachments);
+            } catch (IOException | RuntimeException e) {
+                deleteStagedAttachments(stagedAttachments);
+                throw e;
+            }
+            if (Stream.of(results).allMatch(result -> result.getRunId() == null)) {
+                deleteStagedAttachments(stagedAttachments);
+            }
+            for (RunBatchResult result : results) {
+                if (result.getRunId() != null) {
+                    notifySubmitted(result.getRunId(), runRequest);
                 }
             }
+            return RunBatchResponse.builder().runs(List.of(results)).build();
         } catch (IOException | FeignException e) {
             throw new InvalidRequestException(e.getMessage(), e);
+        }
+    }
 
+    /**
+     * Submit every run of a batch in chunks, once the attachments shared by the runs have been staged
+     *
+     * @return the outcome of each run, in the order the inputs were provided
+     */
+    private RunBatchResult[] submitBatch(
+        RunRequest runRequest,
+        List<Map<String, Object>> workflowParams,
+        CromwellExecutionRequest executionRequest,
+        CromwellWorkflowSourceCache.WorkflowSource workflowSource,
+        StagedAttachments stagedAttachments
+    ) throws IOException {
+        setWorkflowLabels(runRequest, AuthenticatedUser.getSubject(), executionRequest);
+        setWorkflowOptions(runRequest, workflowSource, executionRequest);
+
+        RunBatchResult[] results = new RunBatchResult[workflowParams.size()];
+        List<Integer> indexes = new ArrayList<>();
+        List<Map<String, Object>> inputs = new ArrayList<>();
+        for (int i = 0; i < workflowParams.size(); i++) {
+            try {
+                CromwellExecutionRequest inputsRequest = new CromwellExecutionRequest();
+                WdlFileProcessor processor = setWorkflowInputs(workflowParams.get(i), runRequest
+                    .getWorkflowAttachments(), inputsRequest);
+                applyStagedAttachments(processor, stagedAttachments.locations());
+                inputs.add(inputsRequest.getWorkflowInputs());
+                indexes.add(i);
+            } catch (RuntimeException e) {
+                results[i] = RunBatchResult.failed(400, e.getMessage());
+            }
         }
+
+        for (int i = 0; i < inputs.size(); i += cromwellConfig.getBatchSubmissionSize()) {
+            int end = Math.min(i + cromwellConfig.getBatchSubmissionSize(), inputs.size());
+            submitChunk(executionRequest, inputs.subList(i, end), indexes.subList(i, end), results);
+        }
+        return results;
     }
 
-    private void uploadAttachments(RunRequest runRequest, WdlFileProcessor processor) throws IOException {
-        String stagingFolder = UUID.randomUUID().toString();
-        List<MultipartFile> attachmentFiles =
-            Stream.of(runRequest.getWorkflowAttachments())
-                .filter(attachment -> attachment.getOriginalFilename() != null)
-                .filter(attachment -> !cromwellConfig.getFilesToIgnoreForStaging().contains(attachment.getOriginalFilename()))
-                .filter(attachment -> !attachment.getOriginalFilename().endsWith("wdl"))
-                .toList();
+    private void submitChunk(
+        CromwellExecutionRequest executionRequest,
+        List<Map<String, Object>> inputs,
+        List<Integer> indexes,
+        RunBatchResult[] results
+    ) throws IOException {
+        CromwellBatchExecutionRequest batchRequest = CromwellBatchExecutionRequest.builder()
+            .workflowUrl(executionRequest.getWorkflowUrl())
+            .workflowSource(executionRequest.getWorkflowSource())
+            .workflowDependencies(executionRequest.getWorkflowDependencies())
+            .workflowOptions(executionRequest.getWorkflowOptions())
+            .workflowOnHold(cromwellConfig.getScheduler().isEnabled() ? true : null)
+            .labels(executionRequest.getLabels())
+            .workflowInputs(mapper.writeValueAsString(inputs))
+            .build();
+        try {
+            List<CromwellStatus> statuses = client.createWorkflows(batchRequest);
+            for (int i = 0; i < indexes.size(); i++) {
+                results[indexes.get(i)] = i < statuses.size()
+                    ? RunBatchResult.submitted(statuses.get(i).getId())
+                    : RunBatchResult.failed(500, "Cromwell did not return a run id");
+            }
+        } catch (FeignException e) {
+            log.warn("Failed to submit a batch of {} runs to cromwell: {}", indexes.size(), e.getMessage());
+            int status = e.status() < 400 ? 500 : e.status();
+            indexes.forEach(index -> results[index] = RunBatchResult.failed(status, e.getMessage()));
+        }
+    }
+
+    /**
+     * Delete the attachments of a run which were staged in the staging folder, once the run will not be submitted again.
+     * Attachments staged by content are shared with other runs and are never deleted
+     */
+    void deleteStagedAttachments(RunRequest runRequest, String stagingFolder) {
+        for (MultipartFile attachment : getAttachmentsToStage(runRequest)) {
+            String location = storageClient.getStagingLocation(stagingFolder, attachment.getOriginalFilename());
+            if (storageClient.doesFileExist(location)) {
+                deleteStagedAttachment(location);
+            }
+        }
+    }
 
-        Map<String, String> mappedFiles = new HashMap<>();
+    /**
+     * @return every attachment which is staged to blob storage rather than sent to cromwell as a workflow source
+     */
+    private List<MultipartFile> getAttachmentsToStage(RunRequest runRequest) {
+        if (runRequest.getWorkflowAttachments() == null) {
+            return List.of();
+        }
+        return Stream.of(runRequest.getWorkflowAttachments())
+            .filter(attachment -> attachment.getOriginalFilename() != null)
+            .filter(attachment -> !cromwellConfig.getFilesToIgnoreForStaging().contains(attachment.getOriginalFilename()))
+            .filter(attachment -> !attachment.getOriginalFilename().endsWith("wdl"))
+            .toList();
+    }
+
+    /**
+     * Upload every attachment which is not a workflow source to the staging folder, draining a shared queue from a
+     * bounded number of workers. The workers run on a pool of its own sized to the staging parallelism, so that no more
+     * than the configured number of uploads are in flight at once across every submission. If any
+     * upload fails the remaining uploads are skipped, the attachments which were already staged for this run are deleted,
+     * and the first failure is rethrown. Attachments staged by content are shared with other runs and are never deleted
+     *
+     * @return the staged location of each attachment, and the attachments which were staged for this run only
+     */
+    private StagedAttachments stageAttachments(RunRequest runRequest, String stagingFolder) throws IOException {
+        List<MultipartFile> attachmentFiles = getAttachmentsToStage(runRequest);
+        if (attachmentFiles.isEmpty()) {
+            return new StagedAttachments(Map.of(), List.of());
+        }
+
+        // attachments which were streamed to blob storage when the request was read are already staged
+        Map<String, String> mappedFiles = new ConcurrentHashMap<>();
+        Queue<MultipartFile> pending = new ConcurrentLinkedQueue<>();
         for (MultipartFile attachment : attachmentFiles) {
-            String stagingBlobLocation = storageClient
-                .writeBytes(attachment.getInputStream(), attachment.getSize(), stagingFolder, attachment.getOriginalFilename());
-            mappedFiles.put(attachment.getOriginalFilename(), stagingBlobLocation);
+            if (attachment instanceof StagedMultipartFile staged) {
+                mappedFiles.put(attachment.getOriginalFilename(), staged.getLocation());
+            } else {
+                pending.add(attachment);
+            }
+        }
+        if (pending.isEmpty()) {
+            return new StagedAttachments(mappedFiles, List.of());
+        }
+
+        Queue<String> runFiles = new ConcurrentLinkedQueue<>();
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        Runnable worker = () -> {
+            MultipartFile attachment;
+            while (failure.get() == null && (attachment = pending.poll()) != null) {
+                try {
+                    StagedAttachment staged = cromwellConfig.isContentAddressedStaging()
+                        ? stageByContent(attachment, stagingFolder)
+                        : new StagedAttachment(writeRunAttachment(attachment, stagingFolder), false);
+                    if (!staged.shared()) {
+                        runFiles.add(staged.location());
+                    }
+                    mappedFiles.put(attachment.getOriginalFilename(), staged.location());
+                } catch (IOException | RuntimeException e) {
+                    failure.compareAndSet(null, e);
+                }
+            }
+        };
+
+        runWorkers(stagingExecutor, Math.min(cromwellConfig.getStagingParallelism(), pending.size()), worker);
+
+        Exception e = failure.get();
+        if (e != null) {
+            log.warn("Failed to stage the attachments of a run, deleting {} staged attachments: {}", runFiles.size(), e.getMessage());
+            runFiles.forEach(this::deleteStagedAttachment);
+            if (e instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw (RuntimeException) e;
+        }
+        return new StagedAttachments(mappedFiles, List.copyOf(runFiles));
+    }
+
+    /**
+     * Stage the attachment under the SHA-256 digest of its content, keeping its file name so that cromwell sees the same
+     * name as with per run staging. The upload is skipped if an object of the same size is already staged at that
+     * location, whether it was staged earlier or concurrently by another run. If a different object occupies the
+     * location the attachment is staged for this run only
+     */
+    private StagedAttachment stageByContent(MultipartFile attachment, String stagingFolder) throws IOException {
+        String contentFolder = CONTENT_ADDRESSED_STAGING_FOLDER + "/" + sha256(attachment);
+        String location = storageClient.getStagingLocation(contentFolder, attachment.getOriginalFilename());
+        if (isStaged(location, attachment.getSize())) {
+            log.debug("Reusing staged attachment {} for {}", location, attachment.getOriginalFilename());
+            return new StagedAttachment(location, true);
+        }
+
+        try {
+            return new StagedAttachment(writeAttachment(attachment, contentFolder), true);
+        } catch (IOException e) {
+            if (isStaged(location, attachment.getSize())) {
+                return new StagedAttachment(location, true);
+            } else if (!storageClient.doesFileExist(location)) {
+                throw e;
+            }
+            log.warn("A different object is staged at {}, staging {} for this run only", location, attachment.getOriginalFilename());
+            return new StagedAttachment(writeRunAttachment(attachment, stagingFolder), false);
+        }
+    }
+
+    private boolean isStaged(String location, long size) {
+        try {
+            return storageClient.getBlobMetadata(location).getSize() == size;
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Stage the attachment for a single run. Staged blobs are never overwritten, so an attachment of the same size which
+     * is already staged in the folder was staged by an earlier attempt to submit the run and is reused
+     */
+    private String writeRunAttachment(MultipartFile attachment, String stagingFolder) throws IOException {
+        try {
+            return writeAttachment(attachment, stagingFolder);
+        } catch (IOException e) {
+            String location = storageClient.getStagingLocation(stagingFolder, attachment.getOriginalFilename());
+            if (isStaged(location, attachment.getSize())) {
+                log.debug("Reusing attachment {} staged by an earlier attempt", location);
+                return location;
+            }
+            throw e;
+        }
+    }
+
+    private String writeAttachment(MultipartFile attachment, String stagingFolder) throws IOException {
+        try (InputStream inputStream = attachment.getInputStream()) {
+            return storageClient.writeBytes(inputStream, attachment.getSize(), stagingFolder, attachment.getOriginalFilename());
+        }
+    }
+
+    private static String sha256(MultipartFile attachment) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            try (InputStream inputStream = new DigestInputStream(attachment.getInputStream(), digest)) {
+                inputStream.transferTo(OutputStream.nullOutputStream());
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void deleteStagedAttachments(StagedAttachments stagedAttachments) {
+        if (!stagedAttachments.runFiles().isEmpty()) {
+            log.info("Deleting {} attachments staged for runs which were not submitted", stagedAttachments.runFiles().size());
+            stagedAttachments.runFiles().forEach(this::deleteStagedAttachment);
         }
+    }
 
+    private void deleteStagedAttachment(String stagingBlobLocation) {
+        try {
+            storageClient.deleteFile(stagingBlobLocation);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not delete staged attachment {}: {}", stagingBlobLocation, e.getMessage());
+        }
+    }
+
+    private void applyStagedAttachments(WdlFileProcessor processor, Map<String, String> mappedFiles) {
         if (processor != null) {
             processor.getMappedObjects().forEach(objectWrapper -> {
                 JsonNode node = objectWrapper.getMappedValue();
@@ -396,21 +1135,29 @@ public class CromwellService {
     }
 
 
-    private void setWorkflowLabels(RunRequest runRequest, CromwellExecutionRequest cromwellExecutionRequest) {
+    private void setWorkflowLabels(RunRequest runRequest, String user, CromwellExecutionRequest cromwellExecutionRequest) {
         Map<String, String> labels = new HashMap<>();
         if (runRequest.getTags() != null) {
             labels.putAll(runRequest.getTags());
         }
 
-        String user = AuthenticatedUser.getSubject();
         if (user != null) {
             labels.put(cromwellConfig.getUserLabel(), user);
         }
         labels.put(cromwellConfig.getWorkflowUrlLabel(), runRequest.getWorkflowUrl());
+        if (cromwellConfig.getScheduler().isEnabled()) {
+            // runs are submitted on hold, the label tells the scheduler which held runs are its own to release
+            String[] holdLabel = cromwellConfig.getScheduler().getHoldLabel().split(":", 2);
+            labels.put(holdLabel[0], holdLabel.length > 1 ? holdLabel[1] : "");
+        }
         cromwellExecutionRequest.setLabels(labels);
     }
 
-    private void setWorkflowOptions(RunRequest runRequest, CromwellExecutionRequest cromwellExecutionRequest) throws IOException {
+    private void setWorkflowOptions(
+        RunRequest runRequest,
+        CromwellWorkflowSourceCache.WorkflowSource workflowSource,
+        CromwellExecutionRequest cromwellExecutionRequest
+    ) throws IOException {
         Map<String, String> engineParams = runRequest.getWorkflowEngineParameters();
         Map<String, Object> cromwellOptions = new HashMap<>();
 
@@ -418,20 +1165,13 @@ public class CromwellService {
             cromwellOptions.putAll(cromwellConfig.getDefaultWorkflowOptions());
         }
 
-        Optional<MultipartFile> optionsFile = Stream.of(runRequest.getWorkflowAttachments())
-            .filter(file -> file.getOriginalFilename().endsWith(cromwellConfig.getOptionsFilename())).findFirst();
+        if (workflowSource.options() != null) {
+            cromwellOptions.putAll(workflowSource.options());
+        }
+
         TypeReference<Map<String, Object>> typeReference = new TypeReference<>() {
         };
 
-        if (optionsFile.isPresent()) {
-            Map<String, Object> optionsJson = mapper
-                .readValue(optionsFile.get().getInputStream(), typeReference);
-
-            if (optionsJson != null) {
-                cromwellOptions.putAll(optionsJson);
-            }
-        }
-
         if (runRequest.getWorkflowEngineParameters() != null && !runRequest.getWorkflowEngineParameters().isEmpty()) {
             JsonNodeFactory nodeFactory = new JsonNodeFactory(false);
             ObjectNode objectNode = nodeFactory.objectNode();
@@ -456,38 +1196,79 @@ public class CromwellService {
     }
 
 
-    private void setWorkflowSourceAndDependencies(Path tempDirectory, RunRequest runRequest, CromwellExecutionRequest cromwellRequest) throws IOException {
-        if (runRequest.getWorkflowAttachments() == null || runRequest.getWorkflowAttachments().length == 0) {
-            throw new InvalidRequestException("Url provided is relative however no workflowAttachments are defined");
-        }
+    /**
+     * Prepare the parts of the submission which only depend on the workflow: the main source, the dependencies zip and
+     * the options file. These are served from the {@link CromwellWorkflowSourceCache} when the same workflow has been
+     * submitted before
+     */
+    private CromwellWorkflowSourceCache.WorkflowSource getWorkflowSource(RunRequest runRequest) throws IOException {
+        boolean workflowUrl = isUrl(runRequest.getWorkflowUrl());
+        if (!workflowUrl) {
+            if (runRequest.getWorkflowAttachments().length == 0) {
+                throw new InvalidRequestException("Url provided is relative however no workflowAttachments are defined");
+            }
 
-        for (MultipartFile file : runRequest.getWorkflowAttachments()) {
-            if (file.getOriginalFilename() == null) {
-                throw new InvalidRequestException("Unnamed workflow attachment provided. All files must have a file name");
+            for (MultipartFile file : runRequest.getWorkflowAttachments()) {
+                if (file.getOriginalFilename() == null) {
+                    throw new InvalidRequestException("Unnamed workflow attachment provided. All files must have a file name");
+                }
             }
         }
 
-        cromwellRequest
-            .setWorkflowSource(getSourceWdl(runRequest.getWorkflowUrl(), runRequest.getWorkflowAttachments()));
-        if (runRequest.getWorkflowAttachments().length > 1) {
-
-            Optional<MultipartFile> dependenciesZip = Stream.of(runRequest.getWorkflowAttachments())
-                .filter(file -> file.getOriginalFilename().endsWith(cromwellConfig.getDependenciesFilename())).findFirst();
-            if (dependenciesZip.isPresent()) {
-                Path depPath = Paths.get(tempDirectory.toString(), cromwellConfig.getDependenciesFilename());
-                File depFile = depPath.toFile();
-                dependenciesZip.get().transferTo(depFile);
-                cromwellRequest.setWorkflowDependencies(depFile);
-            } else {
-                List<MultipartFile> wdlFiles = Stream.of(runRequest.getWorkflowAttachments())
-                    .filter(file -> file.getOriginalFilename().endsWith(".wdl")).toList();
-                cromwellRequest.setWorkflowDependencies(createDependenciesZip(tempDirectory, wdlFiles));
+        return workflowSourceCache.get(runRequest, () -> {
+            String source = null;
+            FormData dependencies = null;
+            if (!workflowUrl) {
+                source = getSourceWdl(runRequest.getWorkflowUrl(), runRequest.getWorkflowAttachments());
+                if (runRequest.getWorkflowAttachments().length > 1) {
+                    dependencies = getDependencies(runRequest.getWorkflowAttachments());
+                }
             }
+            return new CromwellWorkflowSourceCache.WorkflowSource(source, dependencies, readWorkflowOptions(runRequest));
+        });
+    }
+
+    private Map<String, Object> readWorkflowOptions(RunRequest runRequest) throws IOException {
+        Optional<MultipartFile> optionsFile = Stream.of(runRequest.getWorkflowAttachments())
+            .filter(file -> file.getOriginalFilename().endsWith(cromwellConfig.getOptionsFilename())).findFirst();
+        if (optionsFile.isEmpty()) {
+            return null;
+        }
+
+        try (InputStream inputStream = optionsFile.get().getInputStream()) {
+            Map<String, Object> optionsJson = mapper.readValue(inputStream, new TypeReference<>() {
+            });
+            return optionsJson == null ? null : Collections.unmodifiableMap(optionsJson);
         }
+    }
+
+    private void setWorkflowSourceAndDependencies(
+        RunRequest runRequest,
+        CromwellWorkflowSourceCache.WorkflowSource workflowSource,
+        CromwellExecutionRequest cromwellRequest
+    ) {
+        cromwellRequest.setWorkflowSource(workflowSource.source());
+        cromwellRequest.setWorkflowDependencies(workflowSource.dependencies());
         cromwellRequest.setWorkflowInputs(runRequest.getWorkflowParams());
 
     }
 
+    private FormData getDependencies(MultipartFile[] attachments) throws IOException {
+        Optional<MultipartFile> dependenciesZip = Stream.of(attachments)
+            .filter(file -> file.getOriginalFilename().endsWith(cromwellConfig.getDependenciesFilename())).findFirst();
+        if (dependenciesZip.isPresent()) {
+            return FormData.builder()
+                .contentType(DEPENDENCIES_CONTENT_TYPE)
+                .fileName(cromwellConfig.getDependenciesFilename())
+                .data(dependenciesZip.get().getBytes())
+                .build();
+        }
+
+        List<MultipartFile> wdlFiles = Stream.of(attachments)
+            .filter(file -> file.getOriginalFilename().endsWith(".wdl")).toList();
+        return createDependenciesZip(wdlFiles);
+    }
+
     private String getSourceWdl(String url, MultipartFile[] files) throws IOException {
         return new String(Stream.of(files).filter(file -> file.getOriginalFilename().equals(url)).findFirst()
             .orElseThrow(() ->
@@ -504,47 +1285,49 @@ public class CromwellService {
         }
     }
 
-    private File createDependenciesZip(Path tempDirectory, List<MultipartFile> files) throws IOException {
-        Path depPath = Paths.get(tempDirectory.toString(), cromwellConfig.getDependenciesFilename());
-        File depFile = depPath.toFile();
-        FileOutputStream outputStream = new FileOutputStream(depFile);
-        try (ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream)) {
-            for (MultipartFile sourceFile : files) {
-                Path path = Paths.get(tempDirectory.toString(), sourceFile.getOriginalFilename());
-                File file = path.toFile();
-                file.getParentFile().mkdirs();
-                try (FileOutputStream fileOutputStream = new FileOutputStream(file)) {
-                    fileOutputStream.write(sourceFile.getBytes());
-                }
+    /**
+     * Build the dependencies zip in memory in a single pass over the attachments. Each attachment is stored under its file
+     * name, and an entry is added for every directory the file names imply
+     */
+    FormData createDependenciesZip(List<MultipartFile> files) throws IOException {
+        Set<String> directories = new TreeSet<>();
+        for (MultipartFile file : files) {
+            String name = getZipEntryName(file.getOriginalFilename());
+            for (int i = name.indexOf('/'); i >= 0; i = name.indexOf('/', i + 1)) {
+                directories.add(name.substring(0, i + 1));
             }
-
-            writeFilesToZip(zipOutputStream, tempDirectory.toUri(), tempDirectory.toFile());
         }
-        return depFile;
-    }
 
-    private void writeFilesToZip(ZipOutputStream outputStream, URI base, File file) throws IOException {
-        String path = base.relativize(file.toURI()).getPath();
-        if (file.isDirectory()) {
-            if (!path.endsWith("/")) {
-                path = path + "/";
+        ByteArrayOutputStream zip = new ByteArrayOutputStream();
+        try (ZipOutputStream zipOutputStream = new ZipOutputStream(zip)) {
+            for (String directory : directories) {
+                zipOutputStream.putNextEntry(new ZipEntry(directory));
+                zipOutputStream.closeEntry();
             }
-            ZipEntry zipEntry = new ZipEntry(path);
-            outputStream.putNextEntry(zipEntry);
-            File[] listedFiles = file.listFiles();
-            if (listedFiles != null) {
-                for (File sub : listedFiles) {
-                    writeFilesToZip(outputStream, base, sub);
+            for (MultipartFile file : files) {
+                zipOutputStream.putNextEntry(new ZipEntry(getZipEntryName(file.getOriginalFilename())));
+                try (InputStream inputStream = file.getInputStream()) {
+                    inputStream.transferTo(zipOutputStream);
                 }
+                zipOutputStream.closeEntry();
             }
-            outputStream.closeEntry();
-        } else {
-            ZipEntry zipEntry = new ZipEntry(path);
-            zipEntry.setSize(file.length());
-            outputStream.putNextEntry(zipEntry);
-            outputStream.write(Files.readAllBytes(file.toPath()));
-            outputStream.closeEntry();
         }
+        return FormData.builder()
+            .contentType(DEPENDENCIES_CONTENT_TYPE)
+            .fileName(cromwellConfig.getDependenciesFilename())
+            .data(zip.toByteArray())
+            .build();
+    }
+
+    static String getZipEntryName(String filename) {
+        String name = filename.replace('\\', '/');
+        while (name.startsWith("./")) {
+            name = name.substring(2);
+        }
+        if (name.startsWith("/") || name.equals("..") || name.startsWith("../") || name.contains("/../") || name.endsWith("/..")) {
+            throw new InvalidRequestException("Invalid workflow attachment name " + filename + ", names must be relative paths");
+        }
+        return name;
     }
 
 
@@ -568,4 +1351,34 @@ public class CromwellService {
         return processor;
     }
 
+
+    /**
+     * Run the worker on the executor the given number of times concurrently, and wait for every run to finish
+     */
+    private static void runWorkers(Executor executor, int workers, Runnable worker) {
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[workers];
+        for (int i = 0; i < workers; i++) {
+            futures[i] = CompletableFuture.runAsync(worker, executor);
+        }
+        CompletableFuture.allOf(futures).join();
+    }
+
+    private static ExecutorService newWorkerPool(int size, String threadNamePrefix) {
+        AtomicInteger threads = new AtomicInteger();
+        return Executors.newFixedThreadPool(size, runnable -> {
+            Thread thread = new Thread(runnable, threadNamePrefix + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+
+    private record StagedAttachment(String location, boolean shared) {}
+
+    /**
+     * @param locations The staged location of each attachment, by file name
+     * @param runFiles  The locations which were staged for a single submission, and are not shared with other runs
+     */
+    private record StagedAttachments(Map<String, String> locations, List<String> runFiles) {}
+
 }
@@ -0,0 +1,206 @@
+package com.dnastack.wes.cromwell;
+
+import com.dnastack.wes.api.State;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Maintains the number of runs in each WES {@link State}, so that the system state counts can be served without
+ * listing every workflow cromwell knows about. The counts are computed by issuing one query per cromwell status with a
+ * page size of 1 and reading the <code>totalResultsCount</code> of each response, which costs the same regardless of
+ * how many workflows cromwell holds.
+ * <p>
+ * The counts are recomputed by a scheduled task on a dedicated thread every refresh interval, and readers only ever
+ * serve the last snapshot the task computed, so a read never waits on cromwell. Counts which are older than the maximum
+ * staleness, because cromwell could not be queried, are not served, and neither are counts which have not been
+ * computed yet.
+ * <p>
+ * Counts may be scoped to a single tenant, in which case only the workflows carrying the tenant's user label are
+ * counted. A tenant's counts are computed once they are first read, and are refreshed until they have not been read for
+ * longer than the maximum staleness. At most the configured maximum number of tenants are refreshed, the tenant which
+ * was read least recently is dropped to make room for a new one.
+ */
+@Slf4j
+@Component
+public class CromwellStateCountAggregator implements DisposableBean {
+
+    private final CromwellClient client;
+    private final String userLabel;
+    private final Duration maxStaleness;
+    private final long maximumTenants;
+    private final Clock clock;
+    private final Executor executor;
+    private final ScheduledExecutorService scheduler;
+    private final Map<Key, TenantCounts> tenants = new ConcurrentHashMap<>();
+
+    @Autowired
+    public CromwellStateCountAggregator(CromwellClient client, CromwellConfig config, MeterRegistry meterRegistry) {
+        this(client, config, Clock.systemUTC(), Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "state-count-aggregator");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        Gauge.builder("cromwell.state.counts.tenants", tenants, Map::size)
+            .description("Tenants whose state counts are refreshed in the background")
+            .register(meterRegistry);
+        if (!config.isMultiTenant()) {
+            track(new Key(null), clock.instant());
+        }
+        long interval = config.getStateCounts().getRefreshInterval().toMillis();
+        scheduler.scheduleWithFixedDelay(this::refresh, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Create an aggregator which is only refreshed when {@link #refresh()} is called
+     *
+     * @param executor Computes the counts of a tenant which are read for the first time
+     */
+    CromwellStateCountAggregator(CromwellClient client, CromwellConfig config, Clock clock, Executor executor) {
+        this(client, config, clock, executor, null);
+    }
+
+    private CromwellStateCountAggregator(CromwellClient client, CromwellConfig config, Clock clock, ScheduledExecutorService scheduler) {
+        this(client, config, clock, scheduler, scheduler);
+    }
+
+    private CromwellStateCountAggregator(
+        CromwellClient client,
+        CromwellConfig config,
+        Clock clock,
+        Executor executor,
+        ScheduledExecutorService scheduler
+    ) {
+        CromwellConfig.StateCountsConfig stateCountsConfig = config.getStateCounts();
+        this.client = client;
+        this.userLabel = config.getUserLabel();
+        this.maxStaleness = stateCountsConfig.getMaxStaleness();
+        this.maximumTenants = stateCountsConfig.getMaximumTenants();
+        this.clock = clock;
+        this.executor = executor;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Return the number of runs in each state from the last snapshot. States without any runs are omitted
+     *
+     * @param tenant The subject to limit the counts to, or <code>null</code> to count the runs of every user
+     *
+     * @return the counts, or <code>null</code> if no snapshot which is recent enough to be served has been computed
+     */
+    public Map<State, Integer> getStateCounts(String tenant) {
+        Instant now = clock.instant();
+        TenantCounts counts = tenants.get(new Key(tenant));
+        if (counts == null) {
+            counts = track(new Key(tenant), now);
+        }
+        counts.lastRead = now;
+
+        Snapshot snapshot = counts.snapshot;
+        if (snapshot == null || snapshot.computedAt().plus(maxStaleness).isBefore(now)) {
+            return null;
+        }
+        return snapshot.counts();
+    }
+
+    /**
+     * Recompute the counts of every tenant which has been read recently, and stop refreshing the others
+     */
+    void refresh() {
+        Instant now = clock.instant();
+        tenants.entrySet().removeIf(entry -> entry.getValue().lastRead.plus(maxStaleness).isBefore(now));
+        tenants.keySet().forEach(this::refresh);
+    }
+
+    @Override
+    public void destroy() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private TenantCounts track(Key key, Instant now) {
+        TenantCounts created = new TenantCounts(now);
+        TenantCounts existing = tenants.putIfAbsent(key, created);
+        if (existing != null) {
+            return existing;
+        }
+
+        while (tenants.size() > maximumTenants) {
+            tenants.entrySet().stream()
+                .filter(entry -> !entry.getKey().equals(key))
+                .min(Comparator.comparing(entry -> entry.getValue().lastRead))
+                .ifPresent(entry -> tenants.remove(entry.getKey(), entry.getValue()));
+        }
+        executor.execute(() -> refresh(key));
+        return created;
+    }
+
+    private void refresh(Key key) {
+        TenantCounts counts = tenants.get(key);
+        if (counts == null) {
+            return;
+        }
+
+        Instant computedAt = clock.instant();
+        try {
+            counts.snapshot = new Snapshot(aggregate(key.tenant()), computedAt);
+        } catch (RuntimeException e) {
+            log.warn("Failed to aggregate state counts for {}: {}", key.tenant() == null ? "all users" : "tenant " + key.tenant(), e.getMessage());
+        }
+    }
+
+    private Map<State, Integer> aggregate(String tenant) {
+        log.debug("Aggregating state counts for {}", tenant == null ? "all users" : "tenant " + tenant);
+        Map<State, Integer> stateCounts = new EnumMap<>(State.class);
+        for (String status : CromwellWesMapper.CROMWELL_STATUSES) {
+            CromwellSearch search = CromwellSearch.builder()
+                .status(List.of(status))
+                .label(tenant == null ? null : List.of(userLabel + ":" + tenant))
+                .page(1)
+                .pageSize(1)
+                .build();
+            Long total = client.listWorkflows(search).getTotalResultsCount();
+            if (total != null && total > 0) {
+                stateCounts.merge(CromwellWesMapper.mapState(status), total.intValue(), Integer::sum);
+            }
+        }
+        return Collections.unmodifiableMap(stateCounts);
+    }
+
+
+    private record Key(String tenant) {}
+
+
+    private record Snapshot(Map<State, Integer> counts, Instant computedAt) {}
+
+
+    private static class TenantCounts {
+
+        private volatile Snapshot snapshot;
+        private volatile Instant lastRead;
+
+        TenantCounts(Instant lastRead) {
+            this.lastRead = lastRead;
+        }
+
+    }
+
+}
@@ -3,6 +3,7 @@ package com.dnastack.wes.cromwell;
 import lombok.*;
 
 import java.time.ZonedDateTime;
+import java.util.Map;
 
 /**
  * Status object received from the cromwell Query REST API for a singl
@@ -22,10 +23,17 @@ public class CromwellStatus {
 
     private String name;
 
+    private ZonedDateTime submission;
+
     private ZonedDateTime start;
 
     private ZonedDateTime end;
 
     private String status;
 
+    /**
+     * Only populated when <code>labels</code> are requested as an additional query result field
+     */
+    private Map<String, String> labels;
+
 }
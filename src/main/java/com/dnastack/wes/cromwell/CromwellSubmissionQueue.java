@@ -0,0 +1,441 @@
+package com.dnastack.wes.cromwell;
+
+import com.dnastack.wes.api.ErrorResponse;
+import com.dnastack.wes.api.RunRequest;
+import com.dnastack.wes.api.RunSubmission;
+import com.dnastack.wes.api.RunSubmission.SubmissionState;
+import com.dnastack.wes.security.AuthenticatedUser;
+import com.dnastack.wes.shared.InvalidRequestException;
+import com.dnastack.wes.shared.NotFoundException;
+import com.dnastack.wes.shared.ServiceUnavailableException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import feign.FeignException;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Accepts runs for submission in the background, so that large submissions do not hold a request thread while the
+ * workflow is prepared, its attachments are staged and it is submitted to cromwell. The id of the run is assigned when
+ * the submission is accepted and passed to cromwell as the requested workflow id, so the caller can track the run
+ * immediately.
+ * <p>
+ * Each accepted submission is written to its own directory under the configured path, along with its attachments, and
+ * is processed by a fixed pool of workers. At most the configured capacity of submissions may wait to be processed,
+ * further submissions are rejected until the queue drains. Submissions which were not processed before the service
+ * stopped are resumed when it starts again. A submission which could not reach cromwell or storage is retried with
+ * exponential backoff, while a run which cromwell rejects is failed immediately. A submission which may already have
+ * reached cromwell is only submitted again, or failed, if cromwell does not know about the run. Every attempt stages the
+ * attachments of a run under its id, so a retry reuses what an earlier attempt staged, and the staged attachments are
+ * deleted when the submission fails.
+ */
+@Slf4j
+@Component
+public class CromwellSubmissionQueue implements DisposableBean {
+
+    private static final String SUBMISSION_FILE = "submission.json";
+    private static final String ATTACHMENTS_DIRECTORY = "attachments";
+
+    private final CromwellService cromwellService;
+    private final CromwellClient client;
+    private final CromwellConfig.AsyncSubmissionConfig config;
+    private final boolean multiTenant;
+    private final Clock clock;
+    private final ObjectMapper mapper = new ObjectMapper().findAndRegisterModules()
+        .configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false)
+        .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private final Map<String, QueuedSubmission> submissions = new ConcurrentHashMap<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final ScheduledExecutorService workers;
+
+    @Autowired
+    public CromwellSubmissionQueue(
+        CromwellService cromwellService,
+        CromwellClient client,
+        CromwellConfig config,
+        MeterRegistry meterRegistry
+    ) {
+        this(cromwellService, client, config.getAsyncSubmission(), config.isMultiTenant(), Clock.systemUTC());
+        Gauge.builder("cromwell.submissions.pending", pending, AtomicInteger::get)
+            .description("Runs accepted for submission which have not yet been submitted to cromwell")
+            .register(meterRegistry);
+    }
+
+    CromwellSubmissionQueue(
+        CromwellService cromwellService,
+        CromwellClient client,
+        CromwellConfig.AsyncSubmissionConfig config,
+        boolean multiTenant,
+        Clock clock
+    ) {
+        this.cromwellService = cromwellService;
+        this.client = client;
+        this.config = config;
+        this.multiTenant = multiTenant;
+        this.clock = clock;
+        AtomicInteger threads = new AtomicInteger();
+        this.workers = Executors.newScheduledThreadPool(config.getWorkers(), runnable -> {
+            Thread thread = new Thread(runnable, "submission-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (config.isEnabled()) {
+            resume();
+        }
+    }
+
+    public boolean isEnabled() {
+        return config.isEnabled();
+    }
+
+    /**
+     * Whether a submission should be accepted into the queue rather than submitted while the caller waits
+     *
+     * @param asyncRequested Whether the caller asked for an asynchronous response
+     */
+    public boolean shouldAccept(boolean asyncRequested) {
+        return config.isEnabled() && (asyncRequested || config.isAlways());
+    }
+
+    /**
+     * Accept a run for submission. The workflow attachments are written to local disk before this method returns.
+     *
+     * @return the submission, including the id the run will be assigned
+     *
+     * @throws InvalidRequestException     if the run is rejected by a submission listener
+     * @throws ServiceUnavailableException if the queue is full
+     */
+    public RunSubmission accept(RunRequest runRequest) {
+        if (!config.isEnabled()) {
+            throw new InvalidRequestException("Asynchronous submission is not enabled");
+        }
+        cromwellService.validateSubmission(runRequest);
+        if (pending.incrementAndGet() > config.getCapacity()) {
+            pending.decrementAndGet();
+            throw new ServiceUnavailableException("Too many submissions are waiting to be processed, try again later");
+        }
+
+        String runId = UUID.randomUUID().toString();
+        Path directory = Path.of(config.getPath(), runId);
+        try {
+            List<StoredAttachment> attachments = storeAttachments(directory, runRequest.getWorkflowAttachments());
+            runRequest.setWorkflowAttachments(null);
+            Instant now = clock.instant();
+            RunSubmission status = RunSubmission.builder()
+                .runId(runId)
+                .state(SubmissionState.QUEUED)
+                .acceptedTime(now)
+                .updatedTime(now)
+                .build();
+            QueuedSubmission submission = new QueuedSubmission(status, AuthenticatedUser.getSubject(), runRequest, attachments, 0);
+            write(submission);
+            submissions.put(runId, submission);
+            workers.execute(() -> process(runId));
+            log.info("Accepted run {} for submission", runId);
+            return status;
+        } catch (IOException e) {
+            pending.decrementAndGet();
+            delete(directory);
+            throw new ServiceUnavailableException("Could not accept the submission: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Return the progress of a submission. If multi tenant support is enabled, only the user who submitted the run may
+     * see it
+     *
+     * @throws NotFoundException if the submission does not exist, or has passed its retention period
+     */
+    public RunSubmission getSubmission(String runId) {
+        QueuedSubmission submission = submissions.get(runId);
+        if (submission == null || (multiTenant && !Objects.equals(submission.user(), AuthenticatedUser.getSubject()))) {
+            throw new NotFoundException("Submission with run_id " + runId + " does not exist.");
+        }
+        return submission.status();
+    }
+
+    /**
+     * Forget the outcome of submissions which were processed longer ago than the retention period
+     */
+    @Scheduled(fixedDelayString = "PT5M", initialDelayString = "PT5M")
+    public void purge() {
+        Instant cutoff = clock.instant().minus(config.getRetention());
+        submissions.values().stream()
+            .filter(submission -> isComplete(submission.status().getState()))
+            .filter(submission -> submission.status().getUpdatedTime().isBefore(cutoff))
+            .map(submission -> submission.status().getRunId())
+            .toList()
+            .forEach(runId -> {
+                submissions.remove(runId);
+                delete(Path.of(config.getPath(), runId));
+            });
+    }
+
+    @Override
+    public void destroy() {
+        // submissions which are interrupted are resumed when the service starts again
+        workers.shutdownNow();
+    }
+
+    private void process(String runId) {
+        QueuedSubmission submission = submissions.get(runId);
+        boolean attempted = submission.status().getState() == SubmissionState.SUBMITTING;
+        boolean retrying = false;
+        try {
+            update(submission, SubmissionState.SUBMITTING, null);
+            if (attempted && existsInCromwell(runId)) {
+                log.info("Run {} was submitted by an earlier attempt", runId);
+                cromwellService.notifySubmitted(runId, submission.request());
+            } else {
+                cromwellService.execute(withAttachments(submission), submission.user(), runId);
+            }
+            update(submissions.get(runId), SubmissionState.SUBMITTED, null);
+        } catch (InvalidRequestException e) {
+            log.info("Submission of run {} was rejected: {}", runId, e.getMessage());
+            fail(runId, new ErrorResponse(e.getMessage(), 400));
+        } catch (FeignException e) {
+            if (e.status() >= 400 && e.status() < 500) {
+                log.info("Submission of run {} was rejected by cromwell: {}", runId, e.getMessage());
+                fail(runId, new ErrorResponse(e.getMessage(), 400));
+            } else {
+                retrying = retry(runId, e);
+            }
+        } catch (IOException e) {
+            retrying = retry(runId, e);
+        } catch (RuntimeException e) {
+            if (workers.isShutdown()) {
+                log.info("Submission of run {} was interrupted, it will be resumed when the service starts", runId);
+                return;
+            }
+            log.warn("Submission of run {} failed: {}", runId, e.getMessage(), e);
+            fail(runId, new ErrorResponse(e.getMessage(), 500));
+        } finally {
+            if (!retrying) {
+                pending.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Submit the run again after a delay, leaving it in the submitting state so that the next attempt first checks
+     * whether this one reached cromwell
+     *
+     * @return whether the submission will be attempted again
+     */
+    private boolean retry(String runId, Exception e) {
+        if (workers.isShutdown()) {
+            log.info("Submission of run {} was interrupted, it will be resumed when the service starts", runId);
+            return true;
+        }
+        QueuedSubmission submission = submissions.get(runId);
+        int attempts = submission.attempts() + 1;
+        if (attempts >= config.getMaxAttempts()) {
+            log.warn("Submission of run {} failed after {} attempts: {}", runId, attempts, e.getMessage());
+            fail(runId, new ErrorResponse(e.getMessage(), 503));
+            return false;
+        }
+
+        Duration delay = config.getInitialRetryDelay().multipliedBy(1L << Math.min(attempts - 1, 30));
+        if (delay.compareTo(config.getMaxRetryDelay()) > 0) {
+            delay = config.getMaxRetryDelay();
+        }
+        log.warn("Submission of run {} failed, retrying in {}: {}", runId, delay, e.getMessage());
+        update(submission, SubmissionState.SUBMITTING, null, attempts);
+        workers.schedule(() -> process(runId), delay.toMillis(), TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    /**
+     * Fail the submission, unless an earlier attempt reached cromwell after all. The attachments staged for the run by
+     * any attempt are deleted
+     */
+    private void fail(String runId, ErrorResponse error) {
+        QueuedSubmission submission = submissions.get(runId);
+        try {
+            if (existsInCromwell(runId)) {
+                log.info("Run {} was submitted by an earlier attempt", runId);
+                cromwellService.notifySubmitted(runId, submission.request());
+                update(submission, SubmissionState.SUBMITTED, null);
+                return;
+            }
+        } catch (RuntimeException e) {
+            log.warn("Could not check whether run {} exists in cromwell: {}", runId, e.getMessage());
+        }
+        try {
+            cromwellService.deleteStagedAttachments(withAttachments(submission), runId);
+        } catch (RuntimeException e) {
+            log.warn("Could not delete the staged attachments of run {}: {}", runId, e.getMessage());
+        }
+        update(submission, SubmissionState.FAILED, error);
+    }
+
+    private RunRequest withAttachments(QueuedSubmission submission) {
+        Path directory = Path.of(config.getPath(), submission.status().getRunId(), ATTACHMENTS_DIRECTORY);
+        RunRequest runRequest = submission.request();
+        runRequest.setWorkflowAttachments(submission.attachments().stream()
+            .map(attachment -> attachment.toMultipartFile(directory))
+            .toArray(MultipartFile[]::new));
+        return runRequest;
+    }
+
+    private boolean existsInCromwell(String runId) {
+        try {
+            client.getStatus(runId);
+            return true;
+        } catch (FeignException e) {
+            if (e.status() == 400 || e.status() == 404) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    private void update(QueuedSubmission submission, SubmissionState state, ErrorResponse error) {
+        update(submission, state, error, submission.attempts());
+    }
+
+    private void update(QueuedSubmission submission, SubmissionState state, ErrorResponse error, int attempts) {
+        RunSubmission status = submission.status().toBuilder()
+            .state(state)
+            .updatedTime(clock.instant())
+            .errorResponse(error)
+            .build();
+        QueuedSubmission updated = new QueuedSubmission(status, submission.user(), submission.request(), submission.attachments(), attempts);
+        if (isComplete(state)) {
+            delete(Path.of(config.getPath(), status.getRunId(), ATTACHMENTS_DIRECTORY));
+        }
+        try {
+            write(updated);
+        } catch (IOException e) {
+            log.warn("Could not record the state of submission {}: {}", status.getRunId(), e.getMessage());
+        }
+        submissions.put(status.getRunId(), updated);
+    }
+
+    private List<StoredAttachment> storeAttachments(Path directory, MultipartFile[] files) throws IOException {
+        List<StoredAttachment> attachments = new ArrayList<>();
+        Path attachmentsDirectory = directory.resolve(ATTACHMENTS_DIRECTORY);
+        Files.createDirectories(attachmentsDirectory);
+        if (files != null) {
+            for (MultipartFile file : files) {
+                String storedName = String.valueOf(attachments.size());
+                file.transferTo(attachmentsDirectory.resolve(storedName).toAbsolutePath());
+                attachments.add(new StoredAttachment(file.getName(), file.getOriginalFilename(), file.getContentType(), storedName));
+            }
+        }
+        return attachments;
+    }
+
+    private void write(QueuedSubmission submission) throws IOException {
+        Path path = Path.of(config.getPath(), submission.status().getRunId(), SUBMISSION_FILE).toAbsolutePath();
+        Path tempPath = path.resolveSibling(SUBMISSION_FILE + ".tmp");
+        Files.createDirectories(path.getParent());
+        mapper.writeValue(tempPath.toFile(), submission);
+        Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void resume() {
+        Path root = Path.of(config.getPath());
+        if (!Files.isDirectory(root)) {
+            return;
+        }
+
+        List<QueuedSubmission> resumed = new ArrayList<>();
+        try (Stream<Path> directories = Files.list(root)) {
+            for (Path directory : directories.toList()) {
+                Path file = directory.resolve(SUBMISSION_FILE);
+                if (!Files.exists(file)) {
+                    // the submission was never fully accepted
+                    delete(directory);
+                    continue;
+                }
+                try {
+                    QueuedSubmission submission = mapper.readValue(file.toFile(), QueuedSubmission.class);
+                    submissions.put(submission.status().getRunId(), submission);
+                    if (!isComplete(submission.status().getState())) {
+                        resumed.add(submission);
+                    }
+                } catch (IOException e) {
+                    log.warn("Could not read submission {}: {}", file, e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Could not read submissions from {}: {}", root, e.getMessage());
+        }
+
+        resumed.sort(Comparator.comparing(submission -> submission.status().getAcceptedTime()));
+        for (QueuedSubmission submission : resumed) {
+            pending.incrementAndGet();
+            workers.execute(() -> process(submission.status().getRunId()));
+        }
+        if (!resumed.isEmpty()) {
+            log.info("Resuming {} submissions from {}", resumed.size(), root);
+        }
+    }
+
+    private static boolean isComplete(SubmissionState state) {
+        return state == SubmissionState.SUBMITTED || state == SubmissionState.FAILED;
+    }
+
+    private static void delete(Path directory) {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        } catch (IOException e) {
+            log.warn("Could not delete {}: {}", directory, e.getMessage());
+        }
+    }
+
+
+    /**
+     * @param attempts The number of attempts to submit the run which could not reach cromwell or storage
+     */
+    record QueuedSubmission(
+        RunSubmission status,
+        String user,
+        RunRequest request,
+        List<StoredAttachment> attachments,
+        int attempts
+    ) {}
+
+
+    record StoredAttachment(String name, String originalFilename, String contentType, String storedName) {
+
+        MultipartFile toMultipartFile(Path directory) {
+            return new StoredMultipartFile(name, originalFilename, contentType, directory.resolve(storedName));
+        }
+
+    }
+
+}
@@ -0,0 +1,135 @@
+package com.dnastack.wes.cromwell;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Ticker;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Bounded in-process index of the log files of every task call of a run. The index is built once from the
+ * {@link CromwellMetadataProjection#TASK_LOGS} metadata of the run and only holds the stdout, stderr and backend log
+ * paths of each call, keyed both by task id and by call name and position, so that reading a task log costs a single
+ * storage read instead of a metadata download.
+ * <p>
+ * The index of a run in a terminal state no longer changes, so it is kept until it is evicted by size. The index of a run
+ * which is still active is only kept for the active run ttl of the metadata cache, so that new calls are picked up.
+ * Hit, miss and eviction counts are published through micrometer under the {@code cromwell.task.logs} cache name.
+ */
+@Component
+public class CromwellTaskLogIndex {
+
+    private final boolean enabled;
+    private final CromwellWesMapper cromwellWesMapper;
+    private final Cache<String, RunTaskLogs> cache;
+
+    @Autowired
+    public CromwellTaskLogIndex(CromwellConfig config, CromwellWesMapper cromwellWesMapper, MeterRegistry meterRegistry) {
+        this(config.getMetadataCache(), cromwellWesMapper, meterRegistry, Ticker.systemTicker());
+    }
+
+    CromwellTaskLogIndex(
+        CromwellConfig.MetadataCacheConfig config,
+        CromwellWesMapper cromwellWesMapper,
+        MeterRegistry meterRegistry,
+        Ticker ticker
+    ) {
+        this.enabled = config.isEnabled();
+        this.cromwellWesMapper = cromwellWesMapper;
+        this.cache = Caffeine.newBuilder()
+            .maximumSize(config.getTaskLogIndexMaximumSize())
+            .expireAfter(new TerminalStateExpiry<String, RunTaskLogs>(config.getActiveRunTtl(), RunTaskLogs::status))
+            .ticker(ticker)
+            .recordStats()
+            .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "cromwell.task.logs");
+    }
+
+    /**
+     * Return the log index of the run, building it from the metadata returned by the loader if it is absent or has
+     * expired. Concurrent requests for the same run will wait on a single load. Exceptions thrown by the loader are
+     * propagated and nothing is cached.
+     */
+    public RunTaskLogs get(String runId, Function<String, CromwellMetadataResponse> loader) {
+        if (!enabled) {
+            return index(loader.apply(runId));
+        }
+        return cache.get(runId, id -> index(loader.apply(id)));
+    }
+
+    /**
+     * Drop the index of the run, for example after it has been aborted
+     */
+    public void invalidate(String runId) {
+        cache.invalidate(runId);
+    }
+
+    private RunTaskLogs index(CromwellMetadataResponse metadata) {
+        Map<String, List<TaskLogPaths>> byCallName = new HashMap<>();
+        if (metadata.getCalls() != null) {
+            metadata.getCalls().forEach((callName, calls) -> byCallName.put(callName, calls.stream()
+                .map(TaskLogPaths::of)
+                .toList()));
+        }
+
+        Map<String, TaskLogPaths> byTaskId = new HashMap<>();
+        for (CromwellTaskCall call : cromwellWesMapper.flattenTaskCalls(metadata)) {
+            if (call.getTaskId() != null) {
+                byTaskId.putIfAbsent(call.getTaskId(), TaskLogPaths.of(call));
+            }
+        }
+        return new RunTaskLogs(metadata.getStatus(), byTaskId, byCallName);
+    }
+
+
+    /**
+     * The log files of every task call of a run
+     *
+     * @param status     The cromwell status of the run when the index was built
+     * @param byTaskId   The log files of each task call, including the calls of sub workflows, by task id
+     * @param byCallName The log files of each call of the top level workflow, by call name, in the order cromwell reports
+     *                   them
+     */
+    public record RunTaskLogs(String status, Map<String, TaskLogPaths> byTaskId, Map<String, List<TaskLogPaths>> byCallName) {
+
+        public TaskLogPaths getByTaskId(String taskId) {
+            return byTaskId.get(taskId);
+        }
+
+        public TaskLogPaths getByCallName(String callName, int index) {
+            List<TaskLogPaths> calls = byCallName.get(callName);
+            return calls == null || index < 0 || calls.size() <= index ? null : calls.get(index);
+        }
+
+    }
+
+
+    /**
+     * The log files of a single task call
+     *
+     * @param executionStatus The cromwell execution status of the call when the index was built
+     * @param stdout          The path to the stdout of the call
+     * @param stderr          The path to the stderr of the call
+     * @param backendLogs     The paths to the logs written by the cromwell backend, by name
+     */
+    public record TaskLogPaths(String executionStatus, String stdout, String stderr, Map<String, String> backendLogs) {
+
+        static TaskLogPaths of(CromwellTaskCall call) {
+            return new TaskLogPaths(call.getExecutionStatus(), call.getStdout(), call.getStderr(), call
+                .getBackendLogs() == null ? Map.of() : call.getBackendLogs());
+        }
+
+        public String get(String logKey) {
+            return logKey.equals("stderr") ? stderr : stdout;
+        }
+
+    }
+
+}
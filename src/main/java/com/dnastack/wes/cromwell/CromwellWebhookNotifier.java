@@ -0,0 +1,541 @@
+package com.dnastack.wes.cromwell;
+
+import com.dnastack.wes.api.RunStateChange;
+import com.dnastack.wes.api.RunStatus;
+import com.dnastack.wes.api.State;
+import com.dnastack.wes.shared.ConfigurationException;
+import com.dnastack.wes.shared.InvalidRequestException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.Dns;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Delivers changes to the state of runs to the callback url the run was submitted with, so that clients do not need to
+ * poll for them. The callback url is read from the configured tag of each submitted run, and the state of the run is
+ * tracked by the shared poller of the {@link CromwellRunWatcher} until it reaches a terminal state.
+ * <p>
+ * Each change is written to an outbox on local disk before it is delivered, and tracked runs are written alongside it,
+ * so neither is lost when the service restarts. Undelivered changes are sent in batches of up to the configured batch size
+ * per callback url, as a <code>POST</code> of <code>{"events": [...]}</code>. Every request is signed with an
+ * <code>HMAC-SHA256</code> of <code>{timestamp}.{body}</code> using the configured secret, sent in the
+ * <code>X-WES-Signature</code> header as <code>sha256={hex}</code>, with the timestamp in seconds since the epoch in the
+ * <code>X-WES-Timestamp</code> header. A failed delivery is retried with exponential backoff, and dropped once it has
+ * been attempted the maximum number of times. Changes to the same callback url are delivered in the order they were
+ * detected, so a change waiting to be retried holds back the newer changes to its url, while each url is delivered to
+ * independently of the others. Changes are delivered at least once.
+ */
+@Slf4j
+@Component
+public class CromwellWebhookNotifier implements RunSubmissionListener, DisposableBean {
+
+    private static final String SUBSCRIPTIONS_DIRECTORY = "subscriptions";
+    private static final String OUTBOX_DIRECTORY = "outbox";
+    private static final MediaType JSON = MediaType.get("application/json");
+    private static final Comparator<OutboxEvent> DELIVERY_ORDER = Comparator.comparing(event -> event.change().getTime());
+
+    private final CromwellRunWatcher runWatcher;
+    private final CromwellConfig.WebhookConfig config;
+    private final List<URI> allowedUrls;
+    private final OkHttpClient httpClient;
+    private final Clock clock;
+    private final ObjectMapper mapper = new ObjectMapper().findAndRegisterModules()
+        .configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false)
+        .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private final Map<String, Subscription> subscriptions = new ConcurrentHashMap<>();
+    private final Map<String, OutboxEvent> outbox = new ConcurrentHashMap<>();
+    private final Set<String> delivering = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService executor;
+    private final Executor senders;
+    private final Timer deliveryLatency;
+    private final Counter delivered;
+    private final Counter failed;
+    private final Counter dropped;
+
+    @Autowired
+    public CromwellWebhookNotifier(
+        CromwellService cromwellService,
+        CromwellRunWatcher runWatcher,
+        CromwellConfig config,
+        MeterRegistry meterRegistry
+    ) {
+        this(runWatcher, config.getWebhooks(), new OkHttpClient.Builder()
+            .connectTimeout(config.getWebhooks().getTimeout())
+            .readTimeout(config.getWebhooks().getTimeout())
+            .followRedirects(false)
+            .dns(config.getWebhooks().getAllowedUrlPrefixes().isEmpty() ? CromwellWebhookNotifier::lookupPublic : Dns.SYSTEM)
+            .build(), newSenders(config.getWebhooks()), meterRegistry, Clock.systemUTC());
+        if (this.config.isEnabled()) {
+            cromwellService.addSubmissionListener(this);
+        }
+    }
+
+    CromwellWebhookNotifier(
+        CromwellRunWatcher runWatcher,
+        CromwellConfig.WebhookConfig config,
+        OkHttpClient httpClient,
+        Executor senders,
+        MeterRegistry meterRegistry,
+        Clock clock
+    ) {
+        this.runWatcher = runWatcher;
+        this.config = config;
+        this.allowedUrls = config.getAllowedUrlPrefixes().stream().map(CromwellWebhookNotifier::parseAllowedUrl).toList();
+        this.httpClient = httpClient;
+        this.senders = senders;
+        this.clock = clock;
+        this.deliveryLatency = Timer.builder("cromwell.webhooks.delivery.latency")
+            .description("Time from detecting a change to the state of a run to delivering it to the callback url")
+            .register(meterRegistry);
+        this.delivered = deliveries(meterRegistry, "delivered");
+        this.failed = deliveries(meterRegistry, "failed");
+        this.dropped = deliveries(meterRegistry, "dropped");
+        Gauge.builder("cromwell.webhooks.outbox", outbox, Map::size)
+            .description("Changes to the state of runs which have not yet been delivered")
+            .register(meterRegistry);
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "webhook-delivery");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        if (config.isEnabled()) {
+            if (config.getSecret() == null || config.getSecret().isBlank()) {
+                throw new ConfigurationException("A secret to sign webhooks with must be provided when webhooks are enabled");
+            }
+            resume();
+            long interval = config.getDeliveryInterval().toMillis();
+            executor.scheduleWithFixedDelay(this::deliver, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void validate(Map<String, String> tags) {
+        String callbackUrl = tags == null ? null : tags.get(config.getCallbackTag());
+        if (callbackUrl == null) {
+            return;
+        }
+
+        URI uri;
+        try {
+            uri = URI.create(callbackUrl).normalize();
+        } catch (IllegalArgumentException e) {
+            throw new InvalidRequestException("The callback url " + callbackUrl + " is not a valid url");
+        }
+        String scheme = uri.getScheme() == null ? null : uri.getScheme().toLowerCase(Locale.ROOT);
+        if (!"https".equals(scheme) && !"http".equals(scheme) || uri.getHost() == null || uri.getRawUserInfo() != null) {
+            throw new InvalidRequestException("The callback url " + callbackUrl + " must be an http or https url without user info");
+        }
+
+        if (!allowedUrls.isEmpty()) {
+            if (allowedUrls.stream().noneMatch(allowed -> isUnder(uri, allowed))) {
+                throw new InvalidRequestException("The callback url " + callbackUrl + " is not allowed");
+            }
+        } else if (!"https".equals(scheme)) {
+            throw new InvalidRequestException("The callback url " + callbackUrl + " must be an https url");
+        } else {
+            try {
+                lookupPublic(uri.getHost());
+            } catch (UnknownHostException e) {
+                throw new InvalidRequestException("The callback url " + callbackUrl + " is not allowed: " + e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void submitted(String runId, Map<String, String> tags) {
+        String callbackUrl = tags == null ? null : tags.get(config.getCallbackTag());
+        if (callbackUrl == null) {
+            return;
+        }
+
+        Subscription subscription = new Subscription(runId, callbackUrl, State.QUEUED);
+        subscriptions.put(runId, subscription);
+        try {
+            write(SUBSCRIPTIONS_DIRECTORY, runId, subscription);
+        } catch (IOException e) {
+            log.warn("Could not record the callback url of run {}, it will not be notified after a restart: {}", runId, e
+                .getMessage());
+        }
+        runWatcher.track(runId, subscription.state(), this::onStateChange, () -> onMissing(runId));
+    }
+
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+        if (senders instanceof ExecutorService executorService) {
+            executorService.shutdownNow();
+        }
+    }
+
+    /**
+     * Start delivering the undelivered changes of every callback url whose oldest change is due, unless the url is
+     * already being delivered to. Each url is delivered to independently, so a slow or failing url does not hold up the
+     * others
+     */
+    void deliver() {
+        try {
+            Instant now = clock.instant();
+            outbox.values().stream()
+                .collect(Collectors.groupingBy(OutboxEvent::callbackUrl))
+                .forEach((callbackUrl, events) -> {
+                    OutboxEvent oldest = Collections.min(events, DELIVERY_ORDER);
+                    if (!oldest.nextAttempt().isAfter(now) && delivering.add(callbackUrl)) {
+                        try {
+                            senders.execute(() -> deliver(callbackUrl));
+                        } catch (RejectedExecutionException e) {
+                            delivering.remove(callbackUrl);
+                        }
+                    }
+                });
+        } catch (RuntimeException e) {
+            log.warn("Could not deliver webhooks: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Send the undelivered changes of a callback url in the order they were detected, in batches. Delivery stops at the
+     * first batch which fails, so that no change is delivered before an older change to the same url
+     */
+    private void deliver(String callbackUrl) {
+        try {
+            List<OutboxEvent> events = outbox.values().stream()
+                .filter(event -> event.callbackUrl().equals(callbackUrl))
+                .sorted(DELIVERY_ORDER)
+                .toList();
+            for (int i = 0; i < events.size(); i += config.getBatchSize()) {
+                List<OutboxEvent> batch = events.subList(i, Math.min(i + config.getBatchSize(), events.size()));
+                try {
+                    post(callbackUrl, batch);
+                } catch (IOException e) {
+                    log.warn("Could not deliver {} changes to {}: {}", batch.size(), callbackUrl, e.getMessage());
+                    // the later changes are held back until this batch has been delivered
+                    batch.forEach(this::retry);
+                    return;
+                }
+
+                Instant now = clock.instant();
+                for (OutboxEvent event : batch) {
+                    deliveryLatency.record(Duration.between(event.change().getTime(), now));
+                    delivered.increment();
+                    remove(event);
+                }
+            }
+        } catch (RuntimeException e) {
+            log.warn("Could not deliver webhooks to {}: {}", callbackUrl, e.getMessage());
+        } finally {
+            delivering.remove(callbackUrl);
+        }
+    }
+
+    private void post(String callbackUrl, List<OutboxEvent> batch) throws IOException {
+        byte[] body = mapper.writeValueAsBytes(Map.of("events", batch.stream().map(OutboxEvent::change).toList()));
+        String timestamp = Long.toString(clock.instant().getEpochSecond());
+        Request request = new Request.Builder()
+            .url(callbackUrl)
+            .header("X-WES-Timestamp", timestamp)
+            .header("X-WES-Signature", "sha256=" + sign(timestamp, body))
+            .post(RequestBody.create(body, JSON))
+            .build();
+        try (Response response = httpClient.newCall(request).execute()) {
+            if (!response.isSuccessful()) {
+                throw new IOException("The callback url responded with " + response.code());
+            }
+        }
+    }
+
+    String sign(String timestamp, byte[] body) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(config.getSecret().getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+            mac.update((timestamp + ".").getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(mac.doFinal(body));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void onStateChange(RunStatus status) {
+        Subscription subscription = subscriptions.get(status.getRunId());
+        if (subscription == null) {
+            return;
+        }
+
+        Instant now = clock.instant();
+        RunStateChange change = RunStateChange.builder()
+            .eventId(UUID.randomUUID().toString())
+            .runId(status.getRunId())
+            .state(status.getState())
+            .previousState(subscription.state())
+            .time(now)
+            .build();
+        enqueue(new OutboxEvent(change, subscription.callbackUrl(), 0, now));
+
+        try {
+            if (CromwellRunWatcher.isTerminal(status.getState())) {
+                subscriptions.remove(status.getRunId());
+                Files.deleteIfExists(file(SUBSCRIPTIONS_DIRECTORY, status.getRunId()));
+            } else {
+                Subscription updated = new Subscription(subscription.runId(), subscription.callbackUrl(), status.getState());
+                subscriptions.put(status.getRunId(), updated);
+                write(SUBSCRIPTIONS_DIRECTORY, status.getRunId(), updated);
+            }
+        } catch (IOException e) {
+            log.warn("Could not record the state of run {}: {}", status.getRunId(), e.getMessage());
+        }
+    }
+
+    /**
+     * Stop tracking a run which cromwell does not know about
+     */
+    private void onMissing(String runId) {
+        subscriptions.remove(runId);
+        try {
+            Files.deleteIfExists(file(SUBSCRIPTIONS_DIRECTORY, runId));
+        } catch (IOException e) {
+            log.warn("Could not remove the callback url of run {}: {}", runId, e.getMessage());
+        }
+    }
+
+    private void enqueue(OutboxEvent event) {
+        if (outbox.size() >= config.getCapacity()) {
+            log.warn("Dropping the change of run {} to {}, the webhook outbox is full", event.change().getRunId(), event
+                .change().getState());
+            dropped.increment();
+            return;
+        }
+        try {
+            write(OUTBOX_DIRECTORY, event.change().getEventId(), event);
+        } catch (IOException e) {
+            log.warn("Could not write the change of run {} to the outbox, it will not be delivered after a restart: {}", event
+                .change().getRunId(), e.getMessage());
+        }
+        outbox.put(event.change().getEventId(), event);
+    }
+
+    private void retry(OutboxEvent event) {
+        failed.increment();
+        int attempts = event.attempts() + 1;
+        if (attempts >= config.getMaxAttempts()) {
+            log.warn("Dropping the change of run {} to {} after {} failed deliveries", event.change().getRunId(), event
+                .change().getState(), attempts);
+            dropped.increment();
+            remove(event);
+            return;
+        }
+
+        Duration delay = config.getInitialRetryDelay().multipliedBy(1L << Math.min(attempts - 1, 30));
+        if (delay.compareTo(config.getMaxRetryDelay()) > 0) {
+            delay = config.getMaxRetryDelay();
+        }
+        OutboxEvent retried = new OutboxEvent(event.change(), event.callbackUrl(), attempts, clock.instant().plus(delay));
+        outbox.put(event.change().getEventId(), retried);
+        try {
+            write(OUTBOX_DIRECTORY, event.change().getEventId(), retried);
+        } catch (IOException e) {
+            log.warn("Could not record the delivery attempt of change {}: {}", event.change().getEventId(), e.getMessage());
+        }
+    }
+
+    private void remove(OutboxEvent event) {
+        outbox.remove(event.change().getEventId());
+        try {
+            Files.deleteIfExists(file(OUTBOX_DIRECTORY, event.change().getEventId()));
+        } catch (IOException e) {
+            log.warn("Could not remove change {} from the outbox: {}", event.change().getEventId(), e.getMessage());
+        }
+    }
+
+    private void resume() {
+        for (Subscription subscription : read(SUBSCRIPTIONS_DIRECTORY, Subscription.class)) {
+            subscriptions.put(subscription.runId(), subscription);
+            runWatcher.track(subscription.runId(), subscription.state(), this::onStateChange, () -> onMissing(subscription
+                .runId()));
+        }
+        for (OutboxEvent event : read(OUTBOX_DIRECTORY, OutboxEvent.class)) {
+            outbox.put(event.change().getEventId(), event);
+        }
+        if (!subscriptions.isEmpty() || !outbox.isEmpty()) {
+            log.info("Resuming {} tracked runs and {} undelivered changes from {}", subscriptions.size(), outbox.size(), config
+                .getPath());
+        }
+    }
+
+    private <T> List<T> read(String directory, Class<T> type) {
+        Path root = Path.of(config.getPath(), directory);
+        if (!Files.isDirectory(root)) {
+            return List.of();
+        }
+        try (Stream<Path> files = Files.list(root)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".json"))
+                .flatMap(file -> {
+                    try {
+                        return Stream.of(mapper.readValue(file.toFile(), type));
+                    } catch (IOException e) {
+                        log.warn("Could not read {}: {}", file, e.getMessage());
+                        return Stream.empty();
+                    }
+                })
+                .toList();
+        } catch (IOException e) {
+            log.warn("Could not read {}: {}", root, e.getMessage());
+            return List.of();
+        }
+    }
+
+    private void write(String directory, String id, Object value) throws IOException {
+        Path path = file(directory, id);
+        Path tempPath = path.resolveSibling(id + ".tmp");
+        Files.createDirectories(path.getParent());
+        mapper.writeValue(tempPath.toFile(), value);
+        Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Path file(String directory, String id) {
+        return Path.of(config.getPath(), directory, id + ".json").toAbsolutePath();
+    }
+
+    /**
+     * Whether the url has the same scheme, host and port as the allowed url, and a path which is the same as, or below,
+     * the path of the allowed url
+     */
+    static boolean isUnder(URI uri, URI allowed) {
+        if (!allowed.getScheme().equalsIgnoreCase(uri.getScheme())
+            || !allowed.getHost().equalsIgnoreCase(uri.getHost())
+            || port(allowed) != port(uri)) {
+            return false;
+        }
+        String allowedPath = allowed.getRawPath() == null || allowed.getRawPath().isEmpty() ? "/" : allowed.getRawPath();
+        String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+        if (path.contains("/../") || path.endsWith("/..")) {
+            return false;
+        }
+        return path.equals(allowedPath)
+            || path.startsWith(allowedPath.endsWith("/") ? allowedPath : allowedPath + "/");
+    }
+
+    private static int port(URI uri) {
+        if (uri.getPort() != -1) {
+            return uri.getPort();
+        }
+        return "https".equalsIgnoreCase(uri.getScheme()) ? 443 : 80;
+    }
+
+    private static URI parseAllowedUrl(String allowedUrl) {
+        try {
+            URI uri = URI.create(allowedUrl).normalize();
+            if (uri.getScheme() == null || uri.getHost() == null) {
+                throw new ConfigurationException("The allowed webhook url " + allowedUrl + " must have a scheme and host");
+            }
+            return uri;
+        } catch (IllegalArgumentException e) {
+            throw new ConfigurationException("The allowed webhook url " + allowedUrl + " is not a valid url", e);
+        }
+    }
+
+    /**
+     * Resolve a host, refusing it if any of its addresses is not public, so that callback urls cannot reach the services
+     * on the same host or network as this one
+     */
+    static List<InetAddress> lookupPublic(String host) throws UnknownHostException {
+        List<InetAddress> addresses = List.of(InetAddress.getAllByName(host));
+        for (InetAddress address : addresses) {
+            if (address.isAnyLocalAddress() || address.isLoopbackAddress() || address.isLinkLocalAddress()
+                || address.isSiteLocalAddress() || address.isMulticastAddress() || isUniqueLocal(address)) {
+                throw new UnknownHostException(host + " resolves to the non public address " + address.getHostAddress());
+            }
+        }
+        return addresses;
+    }
+
+    private static boolean isUniqueLocal(InetAddress address) {
+        byte[] bytes = address.getAddress();
+        // fc00::/7 for IPv6, and the 100.64.0.0/10 shared address space for IPv4
+        return bytes.length == 16 ? (bytes[0] & 0xFE) == 0xFC : (bytes[0] & 0xFF) == 100 && (bytes[1] & 0xC0) == 64;
+    }
+
+    private static ExecutorService newSenders(CromwellConfig.WebhookConfig config) {
+        AtomicInteger threads = new AtomicInteger();
+        return Executors.newFixedThreadPool(config.getDeliveryThreads(), runnable -> {
+            Thread thread = new Thread(runnable, "webhook-sender-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static Counter deliveries(MeterRegistry meterRegistry, String outcome) {
+        return Counter.builder("cromwell.webhooks.deliveries")
+            .description("Changes to the state of runs by the outcome of each delivery attempt")
+            .tag("outcome", outcome)
+            .register(meterRegistry);
+    }
+
+
+    /**
+     * A run whose changes of state are delivered to a callback url
+     *
+     * @param state The last state of the run
+     */
+    record Subscription(String runId, String callbackUrl, State state) {
+
+    }
+
+
+    /**
+     * An undelivered change to the state of a run
+     *
+     * @param attempts    The number of failed attempts to deliver the change
+     * @param nextAttempt When the change may next be delivered
+     */
+    record OutboxEvent(RunStateChange change, String callbackUrl, int attempts, Instant nextAttempt) {
+
+    }
+
+}
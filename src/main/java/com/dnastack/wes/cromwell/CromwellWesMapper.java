@@ -22,6 +22,19 @@ import java.util.Map.Entry;
 @Service
 public class CromwellWesMapper {
 
+    /**
+     * Every status a cromwell workflow may be in
+     */
+    public static final List<String> CROMWELL_STATUSES = List.of(
+        "On Hold",
+        "Submitted",
+        "Running",
+        "Aborting",
+        "Aborted",
+        "Failed",
+        "Succeeded"
+    );
+
     private static final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
     private final CromwellConfig cromwellConfig;
 
@@ -54,24 +67,39 @@ public class CromwellWesMapper {
 
     }
 
+    /**
+     * The reverse of {@link #mapState(String)}, returning every cromwell status which maps to the WES state. States
+     * which cromwell has no equivalent for map to an empty list
+     */
+    public static List<String> mapStateToCromwellStatuses(State state) {
+        return CROMWELL_STATUSES.stream().filter(status -> mapState(status) == state).toList();
+    }
+
     public RunLog mapMetadataToRunLog(
         CromwellMetadataResponse metadataResponse,
         List<PathTranslator> pathTranslators
     ) {
+        RunLog runLog = mapMetadataToRunLogSummary(metadataResponse);
+        runLog.setOutputs(translatePaths(new TypeReference<>() {
+        }, metadataResponse.getOutputs(), pathTranslators));
+        runLog.setTaskLogs(mapTaskCallsToLog(metadataResponse));
+        return runLog;
+    }
+
+    /**
+     * Map the workflow level fields of the metadata into a run log. The outputs and task logs are not set.
+     */
+    public RunLog mapMetadataToRunLogSummary(CromwellMetadataResponse metadataResponse) {
         RunLog runLog = new RunLog();
         runLog.setRunId(metadataResponse.getId());
         runLog.setState(mapState(metadataResponse.getStatus()));
 
-        runLog.setOutputs(translatePaths(new TypeReference<>() {
-        }, metadataResponse.getOutputs(), pathTranslators));
-
         Log workflowLog = Log.builder().startTime(metadataResponse.getStart()).endTime(metadataResponse.getEnd())
             .name(metadataResponse.getWorkflowName()).build();
         if (metadataResponse.getFailures() != null) {
             workflowLog.setStderr(ServletUriComponentsBuilder.fromCurrentRequest().query(null).pathSegment("logs", "stderr").build().toString());
         }
         runLog.setRunLog(workflowLog);
-        runLog.setTaskLogs(mapTaskCallsToLog(metadataResponse));
         runLog.setRequest(mapMetadataToRunRequest(metadataResponse));
 
         return runLog;
@@ -116,21 +144,31 @@ public class CromwellWesMapper {
         return flattenedTaskCalls;
     }
 
-    private String getTaskId(String jobId) {
+    static String getTaskId(String jobId) {
         return jobId == null ? null: jobId.replaceAll("/", "__");
     }
 
     private String getTaskName(CromwellMetadataResponse metadataResponse, String callName, CromwellTaskCall taskCall) {
+        return getTaskName(
+            metadataResponse.getId(),
+            metadataResponse.getWorkflowName(),
+            metadataResponse.getParentWorkflowId() != null,
+            callName,
+            taskCall.getShardIndex()
+        );
+    }
+
+    static String getTaskName(String workflowId, String workflowName, boolean subWorkflow, String callName, int shardIndex) {
         String taskName = callName;
-        if (taskCall.getShardIndex() > 0) {
-            String index = "(" + taskCall.getShardIndex() + ")";
+        if (shardIndex > 0) {
+            String index = "(" + shardIndex + ")";
             taskName = taskName + " " + index;
         }
-        if (metadataResponse.getParentWorkflowId() != null) {
-            taskName = metadataResponse.getWorkflowName() + ": " + taskName;
+        if (subWorkflow) {
+            taskName = workflowName + ": " + taskName;
         }
 
-        return taskName + "|wf-" + metadataResponse.getId();
+        return taskName + "|wf-" + workflowId;
     }
 
     private RunRequest mapMetadataToRunRequest(CromwellMetadataResponse metadataResponse) {
@@ -148,13 +186,13 @@ public class CromwellWesMapper {
         runRequest.setWorkflowParams(params);
         runRequest.setWorkflowEngineParameters(mapOptionsToEngineParameters(options));
 
-        if (metadataResponse.getLabels() != null && metadataResponse.getLabels()
-            .containsKey(cromwellConfig.getWorkflowUrlLabel())) {
-            runRequest.setWorkflowUrl(metadataResponse.getLabels().get(cromwellConfig.getWorkflowUrlLabel()));
+        // copy the labels, the metadata response may be cached and shared between requests
+        Map<String, String> tags = metadataResponse.getLabels() == null ? null : new HashMap<>(metadataResponse.getLabels());
+        if (tags != null && tags.containsKey(cromwellConfig.getWorkflowUrlLabel())) {
+            runRequest.setWorkflowUrl(tags.remove(cromwellConfig.getWorkflowUrlLabel()));
         }
-        Optional.ofNullable(metadataResponse.getLabels()).ifPresent(labels -> labels.remove(cromwellConfig.getWorkflowUrlLabel()));
 
-        runRequest.setTags(metadataResponse.getLabels());
+        runRequest.setTags(tags);
 
         return runRequest;
     }
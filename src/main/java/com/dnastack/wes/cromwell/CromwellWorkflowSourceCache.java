@@ -0,0 +1,187 @@
+package com.dnastack.wes.cromwell;
+
+import com.dnastack.wes.api.RunRequest;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import feign.form.FormData;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Bounded in-process cache of the workflow source, dependencies zip and parsed options file prepared for a submission.
+ * Entries are content addressed: the key is a digest of the workflow url and the name and digest of every attachment
+ * which contributes to the entry (the source file, any other <code>WDL</code> files, and the dependencies and options
+ * files). Repeat submissions of the same workflow therefore reuse the prepared entry regardless of their inputs, while
+ * any change to the contributing attachments produces a new key.
+ * <p>
+ * The cache is bounded by the combined size of its entries, evicting the least recently used entries first. Hit, miss
+ * and eviction counts are published through micrometer under the {@code cromwell.workflow.sources} cache name, along
+ * with the hit ratio as {@code cromwell.workflow.sources.hit.ratio}.
+ */
+@Slf4j
+@Component
+public class CromwellWorkflowSourceCache {
+
+    private final boolean enabled;
+    private final String dependenciesFilename;
+    private final String optionsFilename;
+    private final Cache<String, WorkflowSource> cache;
+
+    @Autowired
+    public CromwellWorkflowSourceCache(CromwellConfig config, MeterRegistry meterRegistry) {
+        this(config.getWorkflowSourceCache(), config.getDependenciesFilename(), config.getOptionsFilename(), meterRegistry);
+    }
+
+    CromwellWorkflowSourceCache(
+        CromwellConfig.WorkflowSourceCacheConfig config,
+        String dependenciesFilename,
+        String optionsFilename,
+        MeterRegistry meterRegistry
+    ) {
+        this.enabled = config.isEnabled();
+        this.dependenciesFilename = dependenciesFilename;
+        this.optionsFilename = optionsFilename;
+        this.cache = Caffeine.newBuilder()
+            .maximumWeight(config.getMaximumBytes())
+            .weigher((String key, WorkflowSource source) -> source.weight())
+            .recordStats()
+            .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "cromwell.workflow.sources");
+        Gauge.builder("cromwell.workflow.sources.hit.ratio", cache, sources -> sources.stats().hitRate())
+            .description("The fraction of submissions which reused a cached workflow source")
+            .register(meterRegistry);
+    }
+
+    /**
+     * Return the prepared workflow source for the run request, preparing it with the loader if no submission of the same
+     * workflow has been cached. Concurrent submissions of the same workflow will wait on a single load. Exceptions thrown
+     * by the loader are propagated and nothing is cached.
+     */
+    public WorkflowSource get(RunRequest runRequest, Loader loader) throws IOException {
+        if (!enabled) {
+            return loader.load();
+        }
+
+        String key = digest(runRequest);
+        try {
+            return cache.get(key, ignored -> {
+                try {
+                    log.trace("Preparing workflow source for {} with key {}", runRequest.getWorkflowUrl(), key);
+                    return loader.load();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Compute the key of a run request from the workflow url, whether there is more than one attachment (which decides
+     * whether a dependencies zip is sent) and the name and SHA-256 digest of each contributing attachment, in name order
+     */
+    private String digest(RunRequest runRequest) throws IOException {
+        MessageDigest digest = sha256();
+        MultipartFile[] attachments = runRequest.getWorkflowAttachments();
+        update(digest, String.valueOf(runRequest.getWorkflowUrl()));
+        update(digest, String.valueOf(attachments.length > 1));
+
+        List<MultipartFile> files = Stream.of(attachments)
+            .filter(file -> isContributing(runRequest.getWorkflowUrl(), file.getOriginalFilename()))
+            .sorted(Comparator.comparing(MultipartFile::getOriginalFilename))
+            .toList();
+        for (MultipartFile file : files) {
+            update(digest, file.getOriginalFilename());
+            update(digest, digest(file));
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private String digest(MultipartFile file) throws IOException {
+        MessageDigest digest = sha256();
+        try (InputStream inputStream = new DigestInputStream(file.getInputStream(), digest)) {
+            inputStream.transferTo(OutputStream.nullOutputStream());
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private boolean isContributing(String workflowUrl, String filename) {
+        return filename != null && (filename.equals(workflowUrl)
+            || filename.endsWith(".wdl")
+            || filename.endsWith(dependenciesFilename)
+            || filename.endsWith(optionsFilename));
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        digest.update((byte) (bytes.length >>> 24));
+        digest.update((byte) (bytes.length >>> 16));
+        digest.update((byte) (bytes.length >>> 8));
+        digest.update((byte) bytes.length);
+        digest.update(bytes);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+
+    /**
+     * The parts of a cromwell submission which only depend on the workflow and not on the inputs of the run.
+     *
+     * @param source       The main workflow source, or <code>null</code> if the workflow is referenced by url
+     * @param dependencies The dependencies zip, or <code>null</code> if the workflow has no dependencies
+     * @param options      The parsed options file, or <code>null</code> if no options file was attached. Must not be
+     *                     modified
+     */
+    public record WorkflowSource(String source, FormData dependencies, Map<String, Object> options) {
+
+        int weight() {
+            long weight = 64L;
+            if (source != null) {
+                weight += 2L * source.length();
+            }
+            if (dependencies != null) {
+                weight += dependencies.getData().length;
+            }
+            if (options != null) {
+                weight += 64L * options.size();
+            }
+            return (int) Math.min(weight, Integer.MAX_VALUE);
+        }
+
+    }
+
+
+    @FunctionalInterface
+    public interface Loader {
+
+        WorkflowSource load() throws IOException;
+
+    }
+
+}
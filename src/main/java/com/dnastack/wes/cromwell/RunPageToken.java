@@ -0,0 +1,99 @@
+package com.dnastack.wes.cromwell;
+
+import com.dnastack.wes.shared.InvalidRequestException;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+
+/**
+ * An opaque page token for listings served from the {@link CromwellRunIndex}. The token encodes the position of the last
+ * run on the previous page (its submission time and id), the snapshot of the index the listing was started against and
+ * the page size. Once a listing has reached back past the runs held by the index, the token instead encodes the offset
+ * of the next page into cromwell's results.
+ *
+ * @param submission The submission time of the last run on the previous page, may be <code>null</code>
+ * @param runId      The id of the last run on the previous page, <code>null</code> if the offset is set
+ * @param snapshot   The sequence number of the latest run in the index when the listing was started
+ * @param pageSize   The size of each page
+ * @param offset     The number of cromwell's results which precede the next page, or <code>null</code> if the next page
+ *                   is served from the index
+ */
+public record RunPageToken(Instant submission, String runId, long snapshot, int pageSize, Long offset) {
+
+    private static final String PREFIX = "keyset:";
+    private static final String OFFSET_PREFIX = "offset:";
+
+    public RunPageToken(Instant submission, String runId, long snapshot, int pageSize) {
+        this(submission, runId, snapshot, pageSize, null);
+    }
+
+    /**
+     * @return a token for the page of cromwell's results which starts at the offset
+     */
+    public static RunPageToken ofOffset(long offset, long snapshot, int pageSize) {
+        return new RunPageToken(null, null, snapshot, pageSize, offset);
+    }
+
+    public String encode() {
+        String token = offset != null
+            ? OFFSET_PREFIX + snapshot + ":" + pageSize + ":" + offset
+            : PREFIX + snapshot + ":" + pageSize + ":" + runId + ":" + (submission == null ? "" : submission.toString());
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decode a page token
+     *
+     * @return the decoded token, or <code>null</code> if the token is not a keyset token, for example a token issued for
+     *     a listing served directly by cromwell
+     *
+     * @throws InvalidRequestException if the token is a keyset token but cannot be decoded
+     */
+    public static RunPageToken decode(String pageToken) {
+        String token;
+        try {
+            token = new String(Base64.getUrlDecoder().decode(pageToken), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+
+        if (token.startsWith(OFFSET_PREFIX)) {
+            return decodeOffset(token.substring(OFFSET_PREFIX.length()));
+        } else if (!token.startsWith(PREFIX)) {
+            return null;
+        }
+
+        // the submission time contains colons, so it is the last field of the token
+        String[] fields = token.substring(PREFIX.length()).split(":", 4);
+        try {
+            long snapshot = Long.parseLong(fields[0]);
+            int pageSize = Integer.parseInt(fields[1]);
+            String runId = fields[2];
+            String submission = fields[3];
+            if (pageSize <= 0 || runId.isEmpty()) {
+                throw new InvalidRequestException("Invalid page token");
+            }
+            return new RunPageToken(submission.isEmpty() ? null : Instant.parse(submission), runId, snapshot, pageSize);
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException | DateTimeParseException e) {
+            throw new InvalidRequestException("Invalid page token");
+        }
+    }
+
+    private static RunPageToken decodeOffset(String token) {
+        String[] fields = token.split(":", 3);
+        try {
+            long snapshot = Long.parseLong(fields[0]);
+            int pageSize = Integer.parseInt(fields[1]);
+            long offset = Long.parseLong(fields[2]);
+            if (pageSize <= 0 || offset < 0) {
+                throw new InvalidRequestException("Invalid page token");
+            }
+            return ofOffset(offset, snapshot, pageSize);
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            throw new InvalidRequestException("Invalid page token");
+        }
+    }
+
+}
@@ -0,0 +1,26 @@
+package com.dnastack.wes.cromwell;
+
+import java.util.Map;
+
+/**
+ * Notified by the {@link CromwellService} of every run it submits to cromwell
+ */
+interface RunSubmissionListener {
+
+    /**
+     * Called before a run is submitted. The submission is rejected if this throws an
+     * {@link com.dnastack.wes.shared.InvalidRequestException}
+     *
+     * @param tags The tags of the run, may be <code>null</code>
+     */
+    default void validate(Map<String, String> tags) {
+    }
+
+    /**
+     * Called once cromwell has accepted a run
+     *
+     * @param tags The tags of the run, may be <code>null</code>
+     */
+    void submitted(String runId, Map<String, String> tags);
+
+}
@@ -0,0 +1,95 @@
+package com.dnastack.wes.cromwell;
+
+import com.dnastack.wes.storage.BlobStorageClient;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A workflow attachment which was written straight to blob storage while its submission was streamed. It is not staged
+ * again when the run is submitted. Reading its content downloads it from blob storage, which is only needed by workflow
+ * authorizers that inspect every attachment
+ */
+class StagedMultipartFile implements MultipartFile {
+
+    private final String name;
+    private final String originalFilename;
+    private final String contentType;
+    private final String location;
+    private final long size;
+    private final BlobStorageClient storageClient;
+
+    StagedMultipartFile(
+        String name,
+        String originalFilename,
+        String contentType,
+        String location,
+        long size,
+        BlobStorageClient storageClient
+    ) {
+        this.name = name;
+        this.originalFilename = originalFilename;
+        this.contentType = contentType;
+        this.location = location;
+        this.size = size;
+        this.storageClient = storageClient;
+    }
+
+    /**
+     * @return the location the attachment was staged at
+     */
+    String getLocation() {
+        return location;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getOriginalFilename() {
+        return originalFilename;
+    }
+
+    @Override
+    public String getContentType() {
+        return contentType;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public byte[] getBytes() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        storageClient.getBytes(outputStream, location);
+        return outputStream.toByteArray();
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return new ByteArrayInputStream(getBytes());
+    }
+
+    @Override
+    public void transferTo(File dest) throws IOException {
+        try (OutputStream outputStream = new FileOutputStream(dest)) {
+            storageClient.getBytes(outputStream, location);
+        }
+    }
+
+}
@@ -0,0 +1,266 @@
+package com.dnastack.wes.cromwell;
+
+import com.dnastack.wes.api.RunRequest;
+import com.dnastack.wes.shared.InvalidRequestException;
+import com.dnastack.wes.storage.BlobStorageClient;
+import com.fasterxml.jackson.core.JacksonException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.Part;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.tomcat.util.http.fileupload.FileItemIterator;
+import org.apache.tomcat.util.http.fileupload.FileItemStream;
+import org.apache.tomcat.util.http.fileupload.FileUpload;
+import org.apache.tomcat.util.http.fileupload.FileUploadException;
+import org.apache.tomcat.util.http.fileupload.UploadContext;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Reads a multipart run submission incrementally, as it arrives, instead of letting the servlet container buffer every
+ * part to local disk first. Workflow sources, <code>JSON</code> files, the options and dependencies files, and any file
+ * which is not staged are read into memory, up to {@link CromwellConfig#getMaxBufferedPartSize()} bytes each. Every other
+ * <code>workflow_attachment</code> is piped straight into the {@link BlobStorageClient} while it is read, so memory and
+ * disk usage do not grow with the size of the attachments.
+ * <p>
+ * Streamed attachments are staged in a new folder for every submission. Content addressed staging does not apply to
+ * them, since the digest of an attachment is only known once it has been uploaded.
+ */
+@Slf4j
+@Component
+public class StreamingRunRequestReader {
+
+    private static final ObjectMapper mapper = new ObjectMapper().findAndRegisterModules();
+
+    private final BlobStorageClient storageClient;
+    private final CromwellConfig config;
+
+    @Autowired
+    public StreamingRunRequestReader(BlobStorageClient storageClient, CromwellConfig config) {
+        this.storageClient = storageClient;
+        this.config = config;
+    }
+
+    /**
+     * Read the run request from the body of a <code>multipart/form-data</code> request. If the body has already been
+     * parsed by the servlet container, the parsed parts are read instead. If reading the request fails, any attachment
+     * which was already staged is deleted.
+     */
+    public RunRequest read(HttpServletRequest request) throws IOException {
+        RunRequest runRequest = new RunRequest();
+        List<MultipartFile> attachments = new ArrayList<>();
+        String stagingFolder = UUID.randomUUID().toString();
+        try {
+            PushbackInputStream body = new PushbackInputStream(request.getInputStream());
+            int first = body.read();
+            if (first < 0 && request.getContentLengthLong() != 0) {
+                // a filter read the request parameters, so the container has already parsed (and buffered) the parts
+                for (Part part : request.getParts()) {
+                    try (InputStream inputStream = part.getInputStream()) {
+                        readPart(runRequest, attachments, stagingFolder, part.getName(), part.getSubmittedFileName(), part
+                            .getContentType(), inputStream);
+                    }
+                }
+            } else {
+                if (first >= 0) {
+                    body.unread(first);
+                }
+                FileItemIterator items = new FileUpload().getItemIterator(new RequestBody(request, body));
+                while (items.hasNext()) {
+                    FileItemStream item = items.next();
+                    try (InputStream inputStream = item.openStream()) {
+                        readPart(runRequest, attachments, stagingFolder, item.getFieldName(), item.isFormField() ? null : item
+                            .getName(), item.getContentType(), inputStream);
+                    }
+                }
+            }
+        } catch (FileUploadException | ServletException e) {
+            deleteStaged(attachments);
+            throw new InvalidRequestException("Could not read the multipart request: " + e.getMessage(), e);
+        } catch (IOException | RuntimeException e) {
+            deleteStaged(attachments);
+            throw e;
+        }
+
+        if (runRequest.getWorkflowUrl() == null) {
+            deleteStaged(attachments);
+            throw new InvalidRequestException("Required part 'workflow_url' is not present");
+        }
+        runRequest.setWorkflowAttachments(attachments.toArray(new MultipartFile[0]));
+        return runRequest;
+    }
+
+    /**
+     * Delete the attachments of a run request which were staged while it was read, when the run could not be submitted
+     */
+    public void discard(RunRequest runRequest) {
+        if (runRequest.getWorkflowAttachments() != null) {
+            deleteStaged(List.of(runRequest.getWorkflowAttachments()));
+        }
+    }
+
+    private void readPart(
+        RunRequest runRequest,
+        List<MultipartFile> attachments,
+        String stagingFolder,
+        String fieldName,
+        String filename,
+        String contentType,
+        InputStream inputStream
+    ) throws IOException {
+        switch (fieldName) {
+            case "workflow_url" -> runRequest.setWorkflowUrl(readString(fieldName, inputStream));
+            case "workflow_type" -> runRequest.setWorkflowType(readString(fieldName, inputStream));
+            case "workflow_type_version" -> runRequest.setWorkflowTypeVersion(readString(fieldName, inputStream));
+            case "workflow_engine_parameters" -> runRequest.setWorkflowEngineParameters(readJson(fieldName, inputStream, new TypeReference<>() {
+            }));
+            case "workflow_params" -> runRequest.setWorkflowParams(readJson(fieldName, inputStream, new TypeReference<>() {
+            }));
+            case "tags" -> runRequest.setTags(readJson(fieldName, inputStream, new TypeReference<>() {
+            }));
+            case "workflow_attachment" -> {
+                if (isStreamed(filename)) {
+                    CountingInputStream countingStream = new CountingInputStream(inputStream);
+                    String location = storageClient.writeBytes(countingStream, -1, stagingFolder, filename);
+                    log.debug("Streamed attachment {} to {}", filename, location);
+                    attachments.add(new StagedMultipartFile(fieldName, filename, contentType, location, countingStream
+                        .getCount(), storageClient));
+                } else {
+                    attachments.add(new BufferedMultipartFile(fieldName, filename, contentType, readBytes(fieldName, inputStream)));
+                }
+            }
+            default -> log.debug("Ignoring unknown part {}", fieldName);
+        }
+    }
+
+    /**
+     * Attachments are streamed to blob storage unless they are workflow sources, <code>JSON</code> files, the options or
+     * dependencies files, or files which are never staged
+     */
+    private boolean isStreamed(String filename) {
+        return filename != null
+            && !filename.endsWith("wdl")
+            && !filename.endsWith(".json")
+            && !filename.endsWith(config.getOptionsFilename())
+            && !filename.endsWith(config.getDependenciesFilename())
+            && !config.getFilesToIgnoreForStaging().contains(filename);
+    }
+
+    private byte[] readBytes(String fieldName, InputStream inputStream) throws IOException {
+        byte[] bytes = inputStream.readNBytes(Math.toIntExact(Math.min(config.getMaxBufferedPartSize() + 1, Integer.MAX_VALUE - 8)));
+        if (bytes.length > config.getMaxBufferedPartSize()) {
+            throw new InvalidRequestException("Part " + fieldName + " is larger than " + config.getMaxBufferedPartSize() + " bytes");
+        }
+        return bytes;
+    }
+
+    private String readString(String fieldName, InputStream inputStream) throws IOException {
+        return new String(readBytes(fieldName, inputStream), StandardCharsets.UTF_8);
+    }
+
+    private <T> T readJson(String fieldName, InputStream inputStream, TypeReference<T> type) throws IOException {
+        try {
+            return mapper.readValue(readBytes(fieldName, inputStream), type);
+        } catch (JacksonException e) {
+            throw new InvalidRequestException("Part " + fieldName + " is not valid JSON: " + e.getOriginalMessage(), e);
+        }
+    }
+
+    private void deleteStaged(List<MultipartFile> attachments) {
+        for (MultipartFile attachment : attachments) {
+            if (attachment instanceof StagedMultipartFile staged) {
+                try {
+                    storageClient.deleteFile(staged.getLocation());
+                } catch (IOException | RuntimeException e) {
+                    log.warn("Could not delete streamed attachment {}: {}", staged.getLocation(), e.getMessage());
+                }
+            }
+        }
+    }
+
+
+    private static class RequestBody implements UploadContext {
+
+        private final HttpServletRequest request;
+        private final InputStream body;
+
+        RequestBody(HttpServletRequest request, InputStream body) {
+            this.request = request;
+            this.body = body;
+        }
+
+        @Override
+        public String getCharacterEncoding() {
+            return request.getCharacterEncoding();
+        }
+
+        @Override
+        public String getContentType() {
+            return request.getContentType();
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return body;
+        }
+
+        @Override
+        public long contentLength() {
+            return request.getContentLengthLong();
+        }
+
+    }
+
+
+    private static class CountingInputStream extends FilterInputStream {
+
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read = super.read();
+            if (read >= 0) {
+                count++;
+            }
+            return read;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+
+    }
+
+}
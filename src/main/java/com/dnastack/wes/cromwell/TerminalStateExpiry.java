@@ -0,0 +1,44 @@
+package com.dnastack.wes.cromwell;
+
+import com.github.benmanes.caffeine.cache.Expiry;
+
+import java.time.Duration;
+import java.util.function.Function;
+
+/**
+ * Expiry policy for caches of what cromwell reports about a run. Entries for runs in a terminal state no longer change,
+ * so they are kept until they are evicted by size, while entries for runs which are still active expire after the active
+ * run ttl so that changes are picked up quickly.
+ *
+ * @param <K> The type of the cache keys
+ * @param <V> The type of the cached values
+ */
+class TerminalStateExpiry<K, V> implements Expiry<K, V> {
+
+    private final long activeRunTtlNanos;
+    private final Function<V, String> cromwellStatus;
+
+    /**
+     * @param cromwellStatus Returns the cromwell status of the run a value belongs to
+     */
+    TerminalStateExpiry(Duration activeRunTtl, Function<V, String> cromwellStatus) {
+        this.activeRunTtlNanos = activeRunTtl.toNanos();
+        this.cromwellStatus = cromwellStatus;
+    }
+
+    @Override
+    public long expireAfterCreate(K key, V value, long currentTime) {
+        return CromwellMetadataCache.isTerminal(cromwellStatus.apply(value)) ? Long.MAX_VALUE : activeRunTtlNanos;
+    }
+
+    @Override
+    public long expireAfterUpdate(K key, V value, long currentTime, long currentDuration) {
+        return expireAfterCreate(key, value, currentTime);
+    }
+
+    @Override
+    public long expireAfterRead(K key, V value, long currentTime, long currentDuration) {
+        return currentDuration;
+    }
+
+}
@@ -1,6 +1,7 @@
 package com.dnastack.wes.files;
 
 import com.dnastack.wes.api.ErrorResponse;
+import com.dnastack.wes.cromwell.CromwellMetadataProjection;
 import com.dnastack.wes.cromwell.CromwellMetadataResponse;
 import com.dnastack.wes.cromwell.CromwellService;
 import com.dnastack.wes.cromwell.CromwellTaskCall;
@@ -58,7 +59,7 @@ public class RunFileService {
      * @return a list of generated files for the run
      */
     public RunFiles getRunFiles(String runId) {
-        CromwellMetadataResponse metadataResponse = cromwellService.getMetadata(runId);
+        CromwellMetadataResponse metadataResponse = cromwellService.getMetadata(runId, CromwellMetadataProjection.FILES);
         Set<String> finalFileSet = new HashSet<>();
         Set<String> secondaryFileSet = new HashSet<>();
         Set<String> logFileSet = new HashSet<>();
@@ -29,6 +29,11 @@ public class GlobalControllerExceptionHandler {
         return ResponseEntity.status(404).body(ErrorResponse.builder().msg(ex.getMessage()).errorCode(404).build());
     }
 
+    @ExceptionHandler(ServiceUnavailableException.class)
+    public ResponseEntity<ErrorResponse> handle(ServiceUnavailableException ex) {
+        return ResponseEntity.status(503).body(ErrorResponse.builder().msg(ex.getMessage()).errorCode(503).build());
+    }
+
     @ExceptionHandler({ AccessDeniedException.class, UnauthorizedWorkflowException.class })
     public ResponseEntity<ErrorResponse> handle(Exception ex) {
         return ResponseEntity.status(403).body(ErrorResponse.builder().msg(ex.getMessage()).errorCode(403).build());
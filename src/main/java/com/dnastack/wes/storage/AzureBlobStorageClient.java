@@ -1,9 +1,14 @@
 package com.dnastack.wes.storage;
 
+import com.azure.core.util.Context;
 import com.azure.storage.blob.*;
 import com.azure.storage.blob.models.BlobProperties;
+import com.azure.storage.blob.models.BlobRequestConditions;
+import com.azure.storage.blob.models.BlobStorageException;
 import com.azure.storage.blob.models.BlobRange;
 import com.azure.storage.blob.models.DownloadRetryOptions;
+import com.azure.storage.blob.models.ParallelTransferOptions;
+import com.azure.storage.blob.options.BlobParallelUploadOptions;
 import com.azure.storage.blob.sas.BlobSasPermission;
 import com.azure.storage.blob.sas.BlobServiceSasSignatureValues;
 import com.dnastack.wes.shared.ConfigurationException;
@@ -28,6 +33,7 @@ public class AzureBlobStorageClient implements BlobStorageClient {
     private final long signedUrlTtl;
     private final String container;
     private final String stagingPath;
+    private final ParallelTransferOptions uploadOptions;
 
     public AzureBlobStorageClient(AzureBlobStorageClientConfig config) {
         if (config == null) {
@@ -50,6 +56,10 @@ public class AzureBlobStorageClient implements BlobStorageClient {
 
         signedUrlTtl = config.getSignedUrlTtl();
         stagingPath = config.getStagingPath();
+        uploadOptions = new ParallelTransferOptions()
+            .setBlockSizeLong(config.getUploadBlockSize())
+            .setMaxSingleUploadSizeLong(config.getUploadBlockSize())
+            .setMaxConcurrency(config.getUploadConcurrency());
     }
 
     @Override
@@ -67,11 +77,7 @@ public class AzureBlobStorageClient implements BlobStorageClient {
 
     @Override
     public String writeBytes(InputStream stream, long size, String stagingFolder, String fileName) throws IOException {
-        UriComponentsBuilder builder = UriComponentsBuilder.newInstance();
-        if (stagingPath != null) {
-            builder.pathSegment(stagingPath);
-        }
-        String objectName = builder.pathSegment(stagingFolder, fileName).build().toString();
+        String objectName = getObjectName(stagingFolder, fileName);
 
         BlobClient blobClient = getBlobClient(objectName);
         if (Boolean.TRUE.equals(blobClient.exists())) {
@@ -79,10 +85,34 @@ public class AzureBlobStorageClient implements BlobStorageClient {
                                   + ". Object already exists");
         }
 
-        blobClient.upload(new BufferedInputStream(stream), size);
+        // blobs larger than a single block are uploaded as blocks in parallel and then committed. The upload fails if
+        // another blob was created with the same name in the meantime
+        try {
+            BlobParallelUploadOptions options = size < 0
+                ? new BlobParallelUploadOptions(new BufferedInputStream(stream))
+                : new BlobParallelUploadOptions(new BufferedInputStream(stream), size);
+            blobClient.uploadWithResponse(options
+                .setParallelTransferOptions(uploadOptions)
+                .setRequestConditions(new BlobRequestConditions().setIfNoneMatch("*")), null, Context.NONE);
+        } catch (BlobStorageException e) {
+            throw new IOException("Could not write object " + fileName + " to target destination " + objectName + ": " + e.getMessage(), e);
+        }
         return blobClient.getBlobUrl();
     }
 
+    @Override
+    public String getStagingLocation(String stagingFolder, String fileName) {
+        return getBlobClient(getObjectName(stagingFolder, fileName)).getBlobUrl();
+    }
+
+    private String getObjectName(String stagingFolder, String fileName) {
+        UriComponentsBuilder builder = UriComponentsBuilder.newInstance();
+        if (stagingPath != null) {
+            builder.pathSegment(stagingPath);
+        }
+        return builder.pathSegment(stagingFolder, fileName).build().toString();
+    }
+
     @Override
     public void readBytes(OutputStream outputStream, String blobUri, HttpRange httpRange) throws IOException {
         BlobClient blobClient = getBlobClient(blobUri);
@@ -13,5 +13,7 @@ public class AzureBlobStorageClientConfig {
     private String container;
     private String stagingPath;
     private Long signedUrlTtl = 1000L * 60L * 60L * 24L;
+    private long uploadBlockSize = 8L * 1024L * 1024L;
+    private int uploadConcurrency = 4;
 
 }
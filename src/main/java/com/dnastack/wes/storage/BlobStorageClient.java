@@ -12,8 +12,21 @@ public interface BlobStorageClient {
 
     URL getSignedUrl(String blobUri);
 
+    /**
+     * Write the stream to a new blob in the staging folder. The blob only becomes visible once it has been written
+     * completely, and an existing blob is never overwritten
+     *
+     * @param uploadSize The number of bytes in the stream, or <code>-1</code> if it is not known in advance
+     *
+     * @return the location of the blob, which is the same as {@link #getStagingLocation(String, String)}
+     */
     String writeBytes(InputStream stream, long uploadSize, String stagingFolder, String fileName) throws IOException;
 
+    /**
+     * @return the location a blob written to the staging folder with the file name is stored at
+     */
+    String getStagingLocation(String stagingFolder, String fileName);
+
     default void getBytes(OutputStream outputStream, String blobUri) throws IOException {
         readBytes(outputStream, blobUri, null);
     }
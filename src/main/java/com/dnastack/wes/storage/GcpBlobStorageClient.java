@@ -16,7 +16,6 @@ import org.springframework.web.util.UriComponentsBuilder;
 import java.io.*;
 import java.net.URI;
 import java.net.URL;
-import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
@@ -28,6 +27,7 @@ public class GcpBlobStorageClient implements BlobStorageClient {
     private final long ttl;
     private final URI stagingLocation;
     private final String project;
+    private final int uploadChunkSize;
 
     public GcpBlobStorageClient(GcpBlobStorageConfig config) throws IOException {
         StorageOptions.Builder builder;
@@ -52,6 +52,7 @@ public class GcpBlobStorageClient implements BlobStorageClient {
         ttl = config.getSigndUrlTtl().toMillis();
         stagingLocation = config.getStagingLocation();
         project = config.getProject();
+        uploadChunkSize = config.getUploadChunkSize();
     }
 
     @Override
@@ -63,28 +64,32 @@ public class GcpBlobStorageClient implements BlobStorageClient {
 
     @Override
     public String writeBytes(InputStream blobStream, long size, String stagingFolder, String blobName) throws IOException {
-        String blobUri = UriComponentsBuilder.fromUri(stagingLocation).pathSegment(stagingFolder, blobName)
-            .toUriString();
+        String blobUri = getStagingLocation(stagingFolder, blobName);
         if (doesFileExist(blobUri)) {
             throw new IOException("A blob in the current staging directory with the name: " + blobName
                                   + " already exists. Could not overrwrite file");
         }
 
-        BlobId blobId = getBlobId(blobUri);
-        Blob blob = client.create(BlobInfo.newBuilder(blobId).build());
-        try (WriteChannel writeChannel = blob.writer(BlobWriteOption.userProject(project))) {
-            ByteBuffer byteBuffer = ByteBuffer.allocate(64 * 1024);
-            while (blobStream.available() > 0) {
-                byteBuffer.put(blobStream.readNBytes(64 * 1024));
-                byteBuffer.flip();
-                writeChannel.write(byteBuffer);
-                byteBuffer.compact();
-            }
-            blobStream.close();
+        // the blob is written through a resumable upload, sending one chunk per request. It is only created once the
+        // upload is finalized, and the upload fails if another blob was created with the same name in the meantime
+        BlobInfo blobInfo = BlobInfo.newBuilder(getBlobId(blobUri)).build();
+        try (
+            WriteChannel writeChannel = client.writer(blobInfo, BlobWriteOption.userProject(project), BlobWriteOption.doesNotExist());
+            blobStream
+        ) {
+            writeChannel.setChunkSize(uploadChunkSize);
+            blobStream.transferTo(Channels.newOutputStream(writeChannel));
+        } catch (com.google.cloud.storage.StorageException e) {
+            throw new IOException("Could not write blob " + blobUri + ": " + e.getMessage(), e);
         }
         return blobUri;
     }
 
+    @Override
+    public String getStagingLocation(String stagingFolder, String blobName) {
+        return UriComponentsBuilder.fromUri(stagingLocation).pathSegment(stagingFolder, blobName).toUriString();
+    }
+
     @Override
     public void readBytes(OutputStream outputStream, String blobUri, HttpRange httpRange) throws IOException {
         Blob blob = getBlob(blobUri);
@@ -13,5 +13,6 @@ public class GcpBlobStorageConfig {
     private String project;
     private String billingProject;
     private Duration signdUrlTtl = Duration.ofDays(1);
+    private int uploadChunkSize = 16 * 1024 * 1024;
 
 }
@@ -10,6 +10,7 @@ import java.net.URI;
 import java.net.URL;
 import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -52,7 +53,7 @@ public class LocalBlobStorageClient implements BlobStorageClient {
 
     @Override
     public String writeBytes(InputStream stream, long uploadSize, String stagingFolder, String fileName) throws IOException {
-        Path filePath = stagingPath.resolve(Paths.get(stagingFolder, fileName));
+        Path filePath = Path.of(getStagingLocation(stagingFolder, fileName));
         File fileToWrite = filePath.toFile();
 
         if (!filePath.startsWith(stagingPath)) {
@@ -65,13 +66,27 @@ public class LocalBlobStorageClient implements BlobStorageClient {
 
         fileToWrite.getParentFile().mkdirs();
 
-        try (FileOutputStream fileOutputStream = new FileOutputStream(fileToWrite)) {
-            stream.transferTo(fileOutputStream);
+        // the file is written next to its destination and then moved into place, so it is never seen partially written
+        Path partialPath = Files.createTempFile(filePath.getParent(), ".staging-", ".part");
+        try {
+            try (FileOutputStream fileOutputStream = new FileOutputStream(partialPath.toFile())) {
+                stream.transferTo(fileOutputStream);
+            }
+            Files.move(partialPath, filePath);
+        } catch (FileAlreadyExistsException e) {
+            throw new IOException("Could not write to file path " + filePath + ". File already exists", e);
+        } finally {
+            Files.deleteIfExists(partialPath);
         }
 
         return filePath.toString();
     }
 
+    @Override
+    public String getStagingLocation(String stagingFolder, String fileName) {
+        return stagingPath.resolve(Paths.get(stagingFolder, fileName)).normalize().toString();
+    }
+
     @Override
     public void readBytes(OutputStream outputStream, String blobUri, HttpRange httpRange) throws IOException {
         File fileToRead = new File(blobUri);
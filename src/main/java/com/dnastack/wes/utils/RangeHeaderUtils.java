@@ -5,6 +5,7 @@ import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpRange;
 
+import java.io.IOException;
 import java.util.List;
 
 public class RangeHeaderUtils {
@@ -24,4 +25,40 @@ public class RangeHeaderUtils {
             return ranges.get(0);
         }
     }
+
+    /**
+     * Write the requested range of an in memory buffer to the response, setting the <code>Content-Length</code> and, for a
+     * range request, the <code>Content-Range</code> of the response. The range is written straight from the buffer
+     * without copying it
+     *
+     * @param range The range returned by {@link #getRangeFromHeaders(HttpServletResponse, HttpHeaders)}, or
+     *              <code>null</code> to write the whole buffer
+     */
+    public static void writeRange(HttpServletResponse response, byte[] bytes, HttpRange range) throws IOException {
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        if (range == null) {
+            response.setContentLengthLong(bytes.length);
+            response.getOutputStream().write(bytes);
+            return;
+        }
+
+        long start;
+        long end;
+        try {
+            start = range.getRangeStart(bytes.length);
+            end = range.getRangeEnd(bytes.length);
+        } catch (IllegalArgumentException e) {
+            start = bytes.length;
+            end = bytes.length - 1;
+        }
+        if (start >= bytes.length || end < start) {
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + bytes.length);
+            throw new RangeNotSatisfiableException("The requested range is outside of the " + bytes.length + " bytes available");
+        }
+
+        int length = (int) (end - start + 1);
+        response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + bytes.length);
+        response.setContentLengthLong(length);
+        response.getOutputStream().write(bytes, (int) start, length);
+    }
 }
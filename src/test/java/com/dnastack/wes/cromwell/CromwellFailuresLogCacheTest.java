@@ -0,0 +1,59 @@
+package com.dnastack.wes.cromwell;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class CromwellFailuresLogCacheTest {
+
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @Test
+    public void testTerminalRunsAreRenderedOnce() throws IOException {
+        CromwellFailuresLogCache cache = createCache();
+
+        byte[] log = cache.get("run", id -> load(id, "Failed"));
+
+        Assertions.assertSame(log, cache.get("run", id -> load(id, "Failed")));
+        Assertions.assertEquals(1, loads.get());
+        Assertions.assertTrue(new String(log, StandardCharsets.UTF_8).contains("Task failed"));
+    }
+
+    @Test
+    public void testActiveRunsAreRenderedOnEveryRequest() throws IOException {
+        CromwellFailuresLogCache cache = createCache();
+
+        cache.get("run", id -> load(id, "Running"));
+        cache.get("run", id -> load(id, "Running"));
+
+        Assertions.assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void testRunsWithoutFailuresHaveAnEmptyLog() throws IOException {
+        CromwellFailuresLogCache cache = createCache();
+
+        byte[] log = cache.get("run", id -> CromwellMetadataResponse.builder().id(id).status("Succeeded").build());
+
+        Assertions.assertEquals(0, log.length);
+    }
+
+    private CromwellFailuresLogCache createCache() {
+        return new CromwellFailuresLogCache(new CromwellConfig.MetadataCacheConfig(), new SimpleMeterRegistry());
+    }
+
+    private CromwellMetadataResponse load(String id, String status) {
+        loads.incrementAndGet();
+        return CromwellMetadataResponse.builder()
+            .id(id)
+            .status(status)
+            .failures(List.of(CromwellFailure.builder().message("Task failed").build()))
+            .build();
+    }
+
+}
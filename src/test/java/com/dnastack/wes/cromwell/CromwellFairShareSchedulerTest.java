@@ -0,0 +1,120 @@
+package com.dnastack.wes.cromwell;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+class CromwellFairShareSchedulerTest {
+
+    private static final ZonedDateTime T0 = ZonedDateTime.of(2024, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC);
+
+    private final Map<String, CromwellStatus> cromwell = new LinkedHashMap<>();
+    private final List<String> released = new ArrayList<>();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    /**
+     * The gauges only hold a weak reference to the state they report, so the scheduler must outlive their assertions
+     */
+    private CromwellFairShareScheduler scheduler;
+
+    @Test
+    public void testHeldRunsAreReleasedRoundRobinUnderUserQuota() {
+        submit("alice-running", 0, "Running", "alice", Map.of());
+        for (int i = 1; i <= 4; i++) {
+            submit("alice-" + i, i, CromwellFairShareScheduler.ON_HOLD, "alice", Map.of());
+        }
+        submit("bob-1", 5, CromwellFairShareScheduler.ON_HOLD, "bob", Map.of());
+        submit("bob-2", 6, CromwellFairShareScheduler.ON_HOLD, "bob", Map.of());
+
+        createScheduler(3, Map.of()).schedule();
+
+        Assertions.assertEquals(List.of("alice-1", "bob-1", "alice-2", "bob-2"), released);
+        Assertions.assertEquals(2.0, meterRegistry.get("cromwell.scheduler.held").gauge().value());
+        Assertions.assertEquals(4, meterRegistry.get("cromwell.scheduler.wait").timer().count());
+
+        released.clear();
+        scheduler.schedule();
+        Assertions.assertEquals(List.of(), released);
+    }
+
+    @Test
+    public void testRunsOverTagQuotaAreHeld() {
+        submit("running", 0, "Running", "alice", Map.of("cohort", "a"));
+        submit("cohort-a", 1, CromwellFairShareScheduler.ON_HOLD, "alice", Map.of("cohort", "a"));
+        submit("cohort-b", 2, CromwellFairShareScheduler.ON_HOLD, "alice", Map.of("cohort", "b"));
+
+        createScheduler(10, Map.of("cohort:a", 1)).schedule();
+
+        Assertions.assertEquals(List.of("cohort-b"), released);
+    }
+
+    @Test
+    public void testRunsHeldByOthersAreNotReleased() {
+        submit("held", 1, CromwellFairShareScheduler.ON_HOLD, "alice", Map.of());
+        submit("operator-held", 0, CromwellFairShareScheduler.ON_HOLD, "alice", Map.of());
+        cromwell.get("operator-held").getLabels().remove("held_by");
+
+        createScheduler(10, Map.of()).schedule();
+
+        Assertions.assertEquals(List.of("held"), released);
+        Assertions.assertEquals(0.0, meterRegistry.get("cromwell.scheduler.held").gauge().value());
+    }
+
+    private CromwellFairShareScheduler createScheduler(int maxActiveRunsPerUser, Map<String, Integer> tagQuotas) {
+        CromwellConfig.SchedulerConfig config = new CromwellConfig.SchedulerConfig();
+        config.setEnabled(true);
+        config.setMaxActiveRunsPerUser(maxActiveRunsPerUser);
+        config.setTagQuotas(tagQuotas);
+        config.setQueryPageSize(2);
+        Clock clock = Clock.fixed(Instant.parse("2024-01-02T00:00:00Z"), ZoneOffset.UTC);
+        scheduler = new CromwellFairShareScheduler(client(), config, "user_id", meterRegistry, clock);
+        return scheduler;
+    }
+
+    private void submit(String id, int hoursAfterT0, String status, String user, Map<String, String> tags) {
+        Map<String, String> labels = new LinkedHashMap<>(tags);
+        labels.put("user_id", user);
+        if (status.equals(CromwellFairShareScheduler.ON_HOLD)) {
+            labels.put("held_by", "wes");
+        }
+        cromwell.put(id, new CromwellStatus(id, "main", T0.plusHours(hoursAfterT0), null, null, status, labels));
+    }
+
+    private CromwellClient client() {
+        return (CromwellClient) Proxy.newProxyInstance(
+            getClass().getClassLoader(),
+            new Class[] { CromwellClient.class },
+            (proxy, method, args) -> {
+                if (method.getName().equals("releaseHold")) {
+                    CromwellStatus status = cromwell.get((String) args[0]);
+                    status.setStatus("Submitted");
+                    released.add(status.getId());
+                    return status;
+                } else if (method.getName().equals("listWorkflows") && args != null) {
+                    CromwellSearch search = (CromwellSearch) args[0];
+                    List<CromwellStatus> matches = cromwell.values().stream()
+                        .filter(status -> search.getStatus().contains(status.getStatus()))
+                        .filter(status -> search.getLabel() == null || search.getLabel().stream()
+                            .allMatch(label -> label.equals("held_by:" + status.getLabels().get("held_by"))))
+                        .toList();
+                    List<CromwellStatus> page = matches.stream()
+                        .skip((long) (search.getPage() - 1) * search.getPageSize())
+                        .limit(search.getPageSize())
+                        .toList();
+                    return new CromwellResponse((long) matches.size(), page);
+                }
+                throw new UnsupportedOperationException(method.getName());
+            }
+        );
+    }
+
+}
@@ -0,0 +1,120 @@
+package com.dnastack.wes.cromwell;
+
+import com.dnastack.wes.storage.LocalBlobStorageClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+
+class CromwellLogFollowerTest {
+
+    @TempDir
+    Path tempDir;
+
+    private volatile String taskStatus = "Running";
+    private CromwellLogFollower follower;
+
+    @AfterEach
+    public void tearDown() {
+        if (follower != null) {
+            follower.destroy();
+        }
+    }
+
+    @Test
+    public void testFollowersReceiveAppendedContentUntilTheTaskEnds() throws Exception {
+        Path stdout = Files.writeString(tempDir.resolve("stdout"), "hello\n");
+        MockMvc mockMvc = createMockMvc(stdout);
+
+        MvcResult first = mockMvc.perform(get("/follow")).andExpect(request().asyncStarted()).andReturn();
+        MvcResult resumed = mockMvc.perform(get("/follow").param("offset", "3")).andExpect(request().asyncStarted()).andReturn();
+        awaitContent(first, "id:6\ndata:hello\n");
+        awaitContent(resumed, "id:6\ndata:lo\n");
+
+        Files.writeString(stdout, "world\n", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        awaitContent(first, "id:12\ndata:world\n");
+        taskStatus = "Done";
+        first.getAsyncResult(5000);
+        resumed.getAsyncResult(5000);
+
+        Assertions.assertEquals(
+            "id:6\ndata:hello\ndata:\n\nid:12\ndata:world\ndata:\n\nevent:end\ndata:Done\n\n",
+            first.getResponse().getContentAsString()
+        );
+        Assertions.assertTrue(resumed.getResponse().getContentAsString().endsWith("id:12\ndata:world\ndata:\n\nevent:end\ndata:Done\n\n"));
+    }
+
+    @Test
+    public void testCharacterBoundary() {
+        byte[] text = "aé中".getBytes(StandardCharsets.UTF_8);
+
+        Assertions.assertEquals(6, CromwellLogFollower.characterBoundary(text, 6));
+        Assertions.assertEquals(3, CromwellLogFollower.characterBoundary(text, 5));
+        Assertions.assertEquals(3, CromwellLogFollower.characterBoundary(text, 4));
+        Assertions.assertEquals(3, CromwellLogFollower.characterBoundary(text, 3));
+        Assertions.assertEquals(1, CromwellLogFollower.characterBoundary(text, 2));
+    }
+
+    private MockMvc createMockMvc(Path stdout) throws IOException {
+        CromwellService service = new TestCromwellService() {
+            @Override
+            public CromwellTaskLogIndex.RunTaskLogs getTaskLogs(String runId) {
+                CromwellTaskLogIndex.TaskLogPaths logPaths = new CromwellTaskLogIndex.TaskLogPaths(taskStatus, stdout
+                    .toString(), null, Map.of());
+                return new CromwellTaskLogIndex.RunTaskLogs("Running", Map.of("task", logPaths), Map.of("main.task", List
+                    .of(logPaths)));
+            }
+        };
+        CromwellConfig.LogFollowConfig config = new CromwellConfig.LogFollowConfig();
+        config.setMinPollInterval(Duration.ofMillis(10));
+        config.setMaxPollInterval(Duration.ofMillis(50));
+        follower = new CromwellLogFollower(service, new LocalBlobStorageClient(), config);
+        return MockMvcBuilders.standaloneSetup(new FollowController(follower)).build();
+    }
+
+    private void awaitContent(MvcResult result, String content) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!result.getResponse().getContentAsString().contains(content)) {
+            Assertions.assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting for " + content);
+            Thread.sleep(10);
+        }
+    }
+
+
+    @RestController
+    static class FollowController {
+
+        private final CromwellLogFollower follower;
+
+        FollowController(CromwellLogFollower follower) {
+            this.follower = follower;
+        }
+
+        @GetMapping("/follow")
+        public SseEmitter follow(@RequestParam(defaultValue = "0") long offset) throws FileNotFoundException {
+            return follower.follow("run", "task", "stdout", offset);
+        }
+
+    }
+
+}
@@ -0,0 +1,114 @@
+package com.dnastack.wes.cromwell;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+class CromwellMetadataCacheTest {
+
+    private final AtomicLong time = new AtomicLong();
+
+    @Test
+    public void testTerminalRunsAreRetained() {
+        CromwellMetadataCache cache = createCache(true);
+        AtomicInteger loads = new AtomicInteger();
+
+        cache.get("run", CromwellMetadataProjection.FULL, id -> load(loads, id, "Succeeded"));
+        time.addAndGet(TimeUnit.DAYS.toNanos(1));
+        cache.get("run", CromwellMetadataProjection.FULL, id -> load(loads, id, "Succeeded"));
+
+        Assertions.assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void testActiveRunsExpire() {
+        CromwellMetadataCache cache = createCache(true);
+        AtomicInteger loads = new AtomicInteger();
+
+        cache.get("run", CromwellMetadataProjection.FULL, id -> load(loads, id, "Running"));
+        cache.get("run", CromwellMetadataProjection.FULL, id -> load(loads, id, "Running"));
+        Assertions.assertEquals(1, loads.get());
+
+        time.addAndGet(TimeUnit.SECONDS.toNanos(11));
+        cache.get("run", CromwellMetadataProjection.FULL, id -> load(loads, id, "Running"));
+        Assertions.assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void testInvalidate() {
+        CromwellMetadataCache cache = createCache(true);
+        AtomicInteger loads = new AtomicInteger();
+
+        cache.get("run", CromwellMetadataProjection.FULL, id -> load(loads, id, "Failed"));
+        cache.invalidate("run");
+        Assertions.assertNull(cache.getIfPresent("run", CromwellMetadataProjection.FULL));
+
+        cache.get("run", CromwellMetadataProjection.FULL, id -> load(loads, id, "Failed"));
+        Assertions.assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void testDisabledCacheAlwaysLoads() {
+        CromwellMetadataCache cache = createCache(false);
+        AtomicInteger loads = new AtomicInteger();
+
+        cache.get("run", CromwellMetadataProjection.FULL, id -> load(loads, id, "Succeeded"));
+        cache.get("run", CromwellMetadataProjection.FULL, id -> load(loads, id, "Succeeded"));
+
+        Assertions.assertEquals(2, loads.get());
+        Assertions.assertNull(cache.getIfPresent("run", CromwellMetadataProjection.FULL));
+    }
+
+    @Test
+    public void testProjectionsAreCachedIndependently() {
+        CromwellMetadataCache cache = createCache(true);
+        AtomicInteger loads = new AtomicInteger();
+
+        cache.get("run", CromwellMetadataProjection.RUN_LOG, id -> load(loads, id, "Succeeded"));
+        cache.get("run", CromwellMetadataProjection.TASK_LOGS, id -> load(loads, id, "Succeeded"));
+        cache.get("run", CromwellMetadataProjection.TASK_LOGS, id -> load(loads, id, "Succeeded"));
+        Assertions.assertEquals(2, loads.get());
+        Assertions.assertNotNull(cache.getIfPresent("run", CromwellMetadataProjection.RUN_LOG));
+    }
+
+    @Test
+    public void testInvalidateDiscardsAllProjections() {
+        CromwellMetadataCache cache = createCache(true);
+        AtomicInteger loads = new AtomicInteger();
+
+        cache.get("run", CromwellMetadataProjection.FAILURES, id -> load(loads, id, "Failed"));
+        cache.get("run", CromwellMetadataProjection.FILES, id -> load(loads, id, "Failed"));
+        cache.invalidate("run");
+
+        Assertions.assertNull(cache.getIfPresent("run", CromwellMetadataProjection.FAILURES));
+        Assertions.assertNull(cache.getIfPresent("run", CromwellMetadataProjection.FILES));
+    }
+
+    @Test
+    public void testIsTerminal() {
+        Assertions.assertTrue(CromwellMetadataCache.isTerminal("Succeeded"));
+        Assertions.assertTrue(CromwellMetadataCache.isTerminal("Aborted"));
+        Assertions.assertTrue(CromwellMetadataCache.isTerminal("Failed"));
+        Assertions.assertFalse(CromwellMetadataCache.isTerminal("Aborting"));
+        Assertions.assertFalse(CromwellMetadataCache.isTerminal("Running"));
+        Assertions.assertFalse(CromwellMetadataCache.isTerminal(null));
+    }
+
+    private CromwellMetadataCache createCache(boolean enabled) {
+        CromwellConfig.MetadataCacheConfig config = new CromwellConfig.MetadataCacheConfig();
+        config.setEnabled(enabled);
+        config.setActiveRunTtl(Duration.ofSeconds(10));
+        return new CromwellMetadataCache(config, new SimpleMeterRegistry(), time::get);
+    }
+
+    private CromwellMetadataResponse load(AtomicInteger loads, String id, String status) {
+        loads.incrementAndGet();
+        return CromwellMetadataResponse.builder().id(id).status(status).build();
+    }
+
+}
@@ -0,0 +1,206 @@
+package com.dnastack.wes.cromwell;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares the payload size and latency of each {@link CromwellMetadataProjection} against the full metadata fetch. A
+ * local http server answers the metadata requests with a large synthetic metadata document, applying the
+ * {@code includeKey} and {@code excludeKey} parameters the same way cromwell does.
+ * <p>
+ * Run with {@code mvn test -Dtest=CromwellMetadataProjectionBenchmarkTest -Dbenchmark=true}
+ */
+@Slf4j
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class CromwellMetadataProjectionBenchmarkTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper().findAndRegisterModules();
+    private static final int TASKS = 20;
+    private static final int SHARDS = 500;
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int ITERATIONS = 10;
+
+    private static HttpServer server;
+    private static ObjectNode metadata;
+    private static final AtomicLong bytesServed = new AtomicLong();
+
+    @BeforeAll
+    static void startServer() throws IOException {
+        metadata = syntheticMetadata();
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/api/workflows/v1/", CromwellMetadataProjectionBenchmarkTest::handle);
+        server.start();
+    }
+
+    @AfterAll
+    static void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    public void compareProjectionsToFullFetch() {
+        CromwellClient client = createClient();
+        Result full = measure(client, CromwellMetadataProjection.FULL);
+        for (CromwellMetadataProjection projection : CromwellMetadataProjection.values()) {
+            Result result = projection == CromwellMetadataProjection.FULL ? full : measure(client, projection);
+            log.info("{}: {} bytes, {} ms on average, {}% of the full metadata",
+                projection,
+                result.bytes(),
+                String.format("%.2f", result.averageMillis()),
+                String.format("%.1f", 100.0 * result.bytes() / full.bytes())
+            );
+            if (projection != CromwellMetadataProjection.FULL) {
+                Assertions.assertTrue(result.bytes() < full.bytes());
+            }
+        }
+    }
+
+    private Result measure(CromwellClient client, CromwellMetadataProjection projection) {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            client.getMetadata("benchmark", projection.toQuery());
+        }
+
+        bytesServed.set(0);
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            client.getMetadata("benchmark", projection.toQuery());
+        }
+        double averageMillis = (System.nanoTime() - start) / 1_000_000.0 / ITERATIONS;
+        return new Result(bytesServed.get() / ITERATIONS, averageMillis);
+    }
+
+    private CromwellClient createClient() {
+        CromwellConfig config = new CromwellConfig();
+        config.setUrl("http://localhost:" + server.getAddress().getPort());
+        // mirror the application object mapper, which ignores unknown properties
+        ObjectMapper clientMapper = MAPPER.copy().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        CromwellClientConfiguration configuration = new CromwellClientConfiguration();
+        return configuration.cromwellClient(configuration.encoder(clientMapper), configuration.decoder(clientMapper), config, configuration
+            .cromwellHttpClient(config, new SimpleMeterRegistry()));
+    }
+
+    private static void handle(HttpExchange exchange) throws IOException {
+        Map<String, List<String>> params = UriComponentsBuilder.fromUri(exchange.getRequestURI()).build().getQueryParams();
+        List<String> includeKeys = decode(params.get("includeKey"));
+        List<String> excludeKeys = decode(params.get("excludeKey"));
+        byte[] body = MAPPER.writeValueAsBytes(filter(metadata, includeKeys, excludeKeys));
+        bytesServed.addAndGet(body.length);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(body);
+        }
+    }
+
+    private static List<String> decode(List<String> values) {
+        return values == null ? List.of() : values.stream().map(value -> URLDecoder.decode(value, StandardCharsets.UTF_8)).toList();
+    }
+
+    /**
+     * Mirror cromwell's key filtering, which is applied to the keys at the workflow level and to the keys of every
+     * call, while retaining the structure of the calls themselves
+     */
+    private static ObjectNode filter(ObjectNode workflow, List<String> includeKeys, List<String> excludeKeys) {
+        ObjectNode filtered = MAPPER.createObjectNode();
+        Iterator<Map.Entry<String, JsonNode>> fields = workflow.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            if (field.getKey().equals("calls")) {
+                ObjectNode calls = filtered.putObject("calls");
+                field.getValue().fields().forEachRemaining(call -> {
+                    ArrayNode shards = calls.putArray(call.getKey());
+                    call.getValue().forEach(shard -> shards.add(filter((ObjectNode) shard, includeKeys, excludeKeys)));
+                });
+            } else if (isRetained(field.getKey(), includeKeys, excludeKeys)) {
+                filtered.set(field.getKey(), field.getValue());
+            }
+        }
+        return filtered;
+    }
+
+    private static boolean isRetained(String key, List<String> includeKeys, List<String> excludeKeys) {
+        if (!includeKeys.isEmpty() && includeKeys.stream().noneMatch(key::startsWith)) {
+            return false;
+        }
+        return excludeKeys.stream().noneMatch(key::startsWith);
+    }
+
+    private static ObjectNode syntheticMetadata() {
+        ObjectNode workflow = MAPPER.createObjectNode();
+        workflow.put("id", "benchmark");
+        workflow.put("workflowName", "benchmark");
+        workflow.put("status", "Succeeded");
+        workflow.put("workflowRoot", "gs://bucket/benchmark");
+        workflow.put("start", "2024-01-01T00:00:00Z");
+        workflow.put("end", "2024-01-02T00:00:00Z");
+        workflow.putObject("submittedFiles").put("options", "{}");
+        workflow.putObject("labels").put("user_id", "benchmark");
+        workflow.putArray("failures").addObject().put("message", "synthetic failure");
+        workflow.putObject("inputs").put("benchmark.sample_sheet", "gs://bucket/inputs/samples.tsv");
+        ArrayNode outputs = workflow.putObject("outputs").putArray("benchmark.outputs");
+        ArrayNode workflowEvents = workflow.putArray("workflowProcessingEvents");
+        for (int i = 0; i < 10; i++) {
+            workflowEvents.addObject().put("description", "PickedUp").put("timestamp", "2024-01-01T00:00:00Z");
+        }
+
+        ObjectNode calls = workflow.putObject("calls");
+        for (int task = 0; task < TASKS; task++) {
+            ArrayNode shards = calls.putArray("benchmark.task_" + task);
+            for (int shard = 0; shard < SHARDS; shard++) {
+                String callRoot = "gs://bucket/benchmark/call-task_" + task + "/shard-" + shard;
+                ObjectNode call = shards.addObject();
+                call.put("executionStatus", "Done");
+                call.put("backendStatus", "Success");
+                call.put("shardIndex", shard);
+                call.put("attempt", 1);
+                call.put("jobId", "projects/benchmark/operations/" + task + "-" + shard);
+                call.put("callRoot", callRoot);
+                call.put("stdout", callRoot + "/stdout");
+                call.put("stderr", callRoot + "/stderr");
+                call.put("returnCode", 0);
+                call.put("start", "2024-01-01T00:00:00Z");
+                call.put("end", "2024-01-01T01:00:00Z");
+                call.put("commandLine", "run_tool --input " + callRoot + "/inputs/sample.bam ".repeat(10));
+                call.putObject("backendLogs").put("log", callRoot + "/task.log");
+                call.putObject("inputs").put("sample", callRoot + "/inputs/sample.bam");
+                call.putObject("outputs").put("result", callRoot + "/outputs/result.vcf");
+                call.putObject("runtimeAttributes").put("docker", "ubuntu:latest").put("memory", "4 GB").put("cpu", "2");
+                call.putObject("callCaching").put("allowResultReuse", true).put("effectiveCallCachingMode", "ReadAndWriteCache")
+                    .put("hashes", "0123456789abcdef".repeat(16));
+                ArrayNode events = call.putArray("executionEvents");
+                for (int event = 0; event < 8; event++) {
+                    events.addObject().put("description", "RunningJob").put("startTime", "2024-01-01T00:00:00Z")
+                        .put("endTime", "2024-01-01T00:10:00Z");
+                }
+                outputs.add(callRoot + "/outputs/result.vcf");
+            }
+        }
+        return workflow;
+    }
+
+    private record Result(long bytes, double averageMillis) {}
+
+}
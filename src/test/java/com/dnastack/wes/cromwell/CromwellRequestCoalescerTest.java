@@ -0,0 +1,62 @@
+package com.dnastack.wes.cromwell;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class CromwellRequestCoalescerTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final CromwellRequestCoalescer coalescer = new CromwellRequestCoalescer(true, meterRegistry);
+    private final AtomicInteger calls = new AtomicInteger();
+
+    @Test
+    public void testConcurrentIdenticalRequestsShareOneCall() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<String> leader = CompletableFuture.supplyAsync(() -> coalescer
+            .execute(CromwellOperation.STATUS, "run", null, () -> {
+                started.countDown();
+                await(release);
+                return "Running-" + calls.incrementAndGet();
+            }));
+        Assertions.assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        CompletableFuture<String> follower = CompletableFuture.supplyAsync(() -> coalescer
+            .execute(CromwellOperation.STATUS, "run", null, () -> "Running-" + calls.incrementAndGet()));
+        while (meterRegistry.counter("cromwell.requests.coalesced", "operation", "STATUS").count() == 0) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+
+        Assertions.assertEquals("Running-1", leader.get(5, TimeUnit.SECONDS));
+        Assertions.assertEquals("Running-1", follower.get(5, TimeUnit.SECONDS));
+        Assertions.assertEquals("Running-2", coalescer.execute(CromwellOperation.STATUS, "run", null, () -> "Running-" + calls
+            .incrementAndGet()));
+    }
+
+    @Test
+    public void testFailuresArePropagatedAndNotRetained() {
+        Assertions.assertThrows(IllegalStateException.class, () -> coalescer
+            .execute(CromwellOperation.METADATA, "run", CromwellMetadataProjection.FULL, () -> {
+                throw new IllegalStateException();
+            }));
+
+        Assertions.assertEquals("ok", coalescer.execute(CromwellOperation.METADATA, "run", CromwellMetadataProjection.FULL, () -> "ok"));
+        Assertions.assertEquals(0, meterRegistry.counter("cromwell.requests.coalesced", "operation", "METADATA").count());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
@@ -0,0 +1,320 @@
+package com.dnastack.wes.cromwell;
+
+import com.dnastack.wes.shared.InvalidRequestException;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+class CromwellRunIndexTest {
+
+    private static final ZonedDateTime T0 = ZonedDateTime.of(2024, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC);
+
+    @TempDir
+    Path tempDir;
+
+    private final Map<String, CromwellStatus> cromwell = new LinkedHashMap<>();
+    private final List<CromwellSearch> searches = new ArrayList<>();
+    private int maxRuns = 1000;
+
+    @Test
+    public void testInitialSyncIndexesEveryRunInSubmissionOrder() {
+        for (int i = 0; i < 7; i++) {
+            submit("run-" + i, i, "Succeeded");
+        }
+        CromwellRunIndex index = createIndex(null);
+        Assertions.assertFalse(index.isReady());
+
+        index.sync();
+
+        Assertions.assertTrue(index.isReady());
+        CromwellResponse firstPage = index.query(search(1, 3));
+        Assertions.assertEquals(7L, firstPage.getTotalResultsCount());
+        Assertions.assertEquals(List.of("run-6", "run-5", "run-4"), ids(firstPage));
+        Assertions.assertEquals(List.of("run-0"), ids(index.query(search(3, 3))));
+        Assertions.assertEquals(3, searches.size());
+        Assertions.assertNull(searches.get(0).getSubmission());
+    }
+
+    @Test
+    public void testIncrementalSyncPicksUpNewAndChangedRuns() {
+        submit("active", 0, "Running");
+        submit("done", 1, "Succeeded");
+        CromwellRunIndex index = createIndex(null);
+        index.sync();
+        searches.clear();
+
+        cromwell.get("active").setStatus("Failed");
+        submit("new", 2, "Submitted");
+        index.sync();
+
+        Assertions.assertEquals("2024-01-01T00:59:00Z", searches.get(0).getSubmission());
+        Assertions.assertEquals(List.of("active"), searches.get(1).getId());
+        CromwellResponse response = index.query(search(1, 10));
+        Assertions.assertEquals(List.of("new", "done", "active"), ids(response));
+        Assertions.assertEquals("Failed", response.getResults().get(2).getStatus());
+
+        // the new run is still within the submission lookback, and no other runs are active
+        searches.clear();
+        index.sync();
+        Assertions.assertEquals(1, searches.size());
+    }
+
+    @Test
+    public void testIndexIsRestoredFromSnapshot() {
+        Path snapshot = tempDir.resolve("index/runs.json");
+        submit("active", 0, "Running");
+        submit("done", 1, "Succeeded");
+        CromwellRunIndex index = createIndex(snapshot);
+        index.sync();
+
+        CromwellRunIndex restored = createIndex(snapshot);
+
+        Assertions.assertTrue(restored.isReady());
+        Assertions.assertEquals(List.of("done", "active"), ids(restored.query(search(1, 10))));
+        Assertions.assertEquals("labels", restored.query(search(1, 10)).getResults().get(0).getLabels().get("source"));
+
+        searches.clear();
+        restored.sync();
+        Assertions.assertEquals(List.of("active"), searches.get(1).getId());
+    }
+
+    @Test
+    public void testOldestTerminalRunsAreEvictedOnceTheIndexIsFull() {
+        submit("run-0", 0, "Running");
+        for (int i = 1; i < 5; i++) {
+            submit("run-" + i, i, "Succeeded");
+        }
+        maxRuns = 3;
+        CromwellRunIndex index = createIndex(null);
+        index.sync();
+
+        CromwellResponse response = index.query(search(1, 10));
+        Assertions.assertEquals(List.of("run-4", "run-3", "run-0"), ids(response));
+        Assertions.assertEquals(3L, response.getTotalResultsCount());
+        Assertions.assertTrue(index.isTruncated());
+    }
+
+    @Test
+    public void testListingsContinueFromCromwellPastTheEvictedRuns() {
+        submit("run-0", 0, "Running");
+        for (int i = 1; i < 7; i++) {
+            submit("run-" + i, i, "Succeeded");
+        }
+        maxRuns = 3;
+        CromwellRunIndex index = createIndex(null);
+        index.sync();
+
+        List<String> expected = List.of("run-6", "run-5", "run-4", "run-3", "run-2", "run-1", "run-0");
+        for (int pageSize : List.of(2, 5)) {
+            List<String> seen = new ArrayList<>();
+            CromwellRunIndex.RunPage page = index.page(null, null, pageSize);
+            seen.addAll(page.runs().stream().map(CromwellStatus::getId).toList());
+            while (page.nextPageToken() != null) {
+                Assertions.assertEquals(pageSize, page.runs().size());
+                page = index.page(null, RunPageToken.decode(page.nextPageToken().encode()), pageSize);
+                seen.addAll(page.runs().stream().map(CromwellStatus::getId).toList());
+            }
+            Assertions.assertEquals(expected, seen, "page size " + pageSize);
+        }
+
+        CromwellSearch recent = search(1, 10);
+        recent.setSubmission("2024-01-01T05:00:00Z");
+        searches.clear();
+        Assertions.assertEquals(List.of("run-6", "run-5"), index.page(recent, null, 10).runs().stream().map(CromwellStatus::getId).toList());
+        Assertions.assertEquals(List.of(), searches);
+    }
+
+    @Test
+    public void testKeysetPagesSeeEachRunInSnapshotExactlyOnce() {
+        for (int i = 0; i < 7; i++) {
+            submit("run-" + i, i * 10, "Succeeded");
+        }
+        CromwellRunIndex index = createIndex(null, Duration.ofDays(365));
+        index.sync();
+
+        List<String> seen = new ArrayList<>();
+        CromwellRunIndex.RunPage page = index.page(null, null, 3);
+        seen.addAll(page.runs().stream().map(CromwellStatus::getId).toList());
+        while (page.nextPageToken() != null) {
+            // newer runs, and an older run which only becomes visible in cromwell now, are added mid listing
+            submit("newer-" + seen.size(), 100 + seen.size(), "Running");
+            submit("late-" + seen.size(), 5, "Running");
+            index.sync();
+
+            RunPageToken token = RunPageToken.decode(page.nextPageToken().encode());
+            Assertions.assertEquals(page.nextPageToken(), token);
+            page = index.page(null, token, 50);
+            seen.addAll(page.runs().stream().map(CromwellStatus::getId).toList());
+        }
+
+        Assertions.assertEquals(List.of("run-6", "run-5", "run-4", "run-3", "run-2", "run-1", "run-0"), seen);
+        Assertions.assertEquals("newer-6", index.page(null, null, 1).runs().get(0).getId());
+        Assertions.assertTrue(index.page(null, null, 20).runs().stream().anyMatch(run -> run.getId().equals("late-3")));
+    }
+
+    @Test
+    public void testPageTokens() {
+        Assertions.assertNull(RunPageToken.decode("cGFnZSUzRDIlMjZwYWdlU2l6ZSUzRDIw"));
+        Assertions.assertThrows(InvalidRequestException.class, () -> RunPageToken
+            .decode(new RunPageToken(null, "id", 1, 0).encode()));
+
+        RunPageToken token = new RunPageToken(null, "id", 4, 10);
+        Assertions.assertEquals(token, RunPageToken.decode(token.encode()));
+        RunPageToken offsetToken = RunPageToken.ofOffset(40, 4, 10);
+        Assertions.assertEquals(offsetToken, RunPageToken.decode(offsetToken.encode()));
+    }
+
+    @Test
+    public void testIndexAnswersFilteredSearches() {
+        submit("a", 0, "Succeeded");
+        submit("b", 1, "Failed");
+        submit("c", 2, "Running");
+        cromwell.get("b").setLabels(Map.of("source", "labels", "cohort", "x"));
+        CromwellRunIndex index = createIndex(null);
+        index.sync();
+
+        CromwellSearch byStatus = search(1, 10);
+        byStatus.setStatus(List.of("Succeeded", "failed"));
+        Assertions.assertEquals(List.of("b", "a"), ids(index.query(byStatus)));
+        Assertions.assertEquals(2L, index.query(byStatus).getTotalResultsCount());
+
+        CromwellSearch byLabel = search(1, 10);
+        byLabel.setLabel(List.of("cohort:x", "source:labels"));
+        Assertions.assertEquals(List.of("b"), ids(index.query(byLabel)));
+
+        CromwellSearch bySubmission = search(1, 10);
+        bySubmission.setSubmission("2024-01-01T01:00:00Z");
+        Assertions.assertEquals(List.of("c", "b"), index.page(bySubmission, null, 10).runs().stream().map(CromwellStatus::getId).toList());
+    }
+
+    @Test
+    public void testStatusPagesFollowTheCurrentStatusOfEachRun() {
+        submit("a", 0, "Succeeded");
+        submit("b", 1, "Running");
+        submit("c", 2, "Failed");
+        submit("d", 3, "Succeeded");
+        submit("e", 4, "Running");
+        submit("f", 5, "Succeeded");
+        CromwellRunIndex index = createIndex(null);
+        index.sync();
+
+        CromwellSearch byStatus = search(1, 10);
+        byStatus.setStatus(List.of("Succeeded", "failed"));
+        CromwellRunIndex.RunPage page = index.page(byStatus, null, 2);
+        List<String> seen = new ArrayList<>(page.runs().stream().map(CromwellStatus::getId).toList());
+
+        // b finishes after the listing has passed e, and before its own page is read
+        cromwell.get("b").setStatus("Succeeded");
+        cromwell.get("e").setStatus("Succeeded");
+        index.sync();
+        while (page.nextPageToken() != null) {
+            page = index.page(byStatus, page.nextPageToken(), 2);
+            seen.addAll(page.runs().stream().map(CromwellStatus::getId).toList());
+        }
+
+        Assertions.assertEquals(List.of("f", "d", "c", "b", "a"), seen);
+        Assertions.assertEquals(List.of("f", "e", "d", "c", "b", "a"), ids(index.query(byStatus)));
+        Assertions.assertEquals(6L, index.query(byStatus).getTotalResultsCount());
+
+        CromwellSearch running = search(1, 10);
+        running.setStatus(List.of("Running"));
+        Assertions.assertEquals(List.of(), ids(index.query(running)));
+    }
+
+    @Test
+    public void testUserSearchesOnlyConsiderTheUsersRuns() {
+        submit("a", 0, "Running");
+        submit("b", 1, "Running");
+        submit("c", 2, "Succeeded");
+        cromwell.get("a").setLabels(Map.of("user_id", "alice"));
+        cromwell.get("b").setLabels(Map.of("user_id", "bob"));
+        cromwell.get("c").setLabels(Map.of("user_id", "alice"));
+        CromwellRunIndex index = createIndex(null);
+        index.sync();
+
+        CromwellSearch alice = search(1, 10);
+        alice.setLabel(List.of("user_id:alice"));
+        Assertions.assertEquals(List.of("c", "a"), ids(index.query(alice)));
+        Assertions.assertEquals(2L, index.query(alice).getTotalResultsCount());
+
+        cromwell.get("b").setLabels(Map.of("user_id", "alice"));
+        index.sync();
+        Assertions.assertEquals(List.of("c", "b", "a"), index.page(alice, null, 10).runs().stream().map(CromwellStatus::getId).toList());
+
+        CromwellSearch bob = search(1, 10);
+        bob.setLabel(List.of("user_id:bob"));
+        Assertions.assertEquals(List.of(), ids(index.query(bob)));
+    }
+
+    private CromwellSearch search(int page, int pageSize) {
+        return CromwellSearch.builder().page(page).pageSize(pageSize).build();
+    }
+
+    private CromwellRunIndex createIndex(Path snapshot) {
+        return createIndex(snapshot, Duration.ofMinutes(1));
+    }
+
+    private CromwellRunIndex createIndex(Path snapshot, Duration submissionLookback) {
+        CromwellConfig.RunIndexConfig config = new CromwellConfig.RunIndexConfig();
+        config.setEnabled(true);
+        config.setSyncPageSize(3);
+        config.setSubmissionLookback(submissionLookback);
+        config.setPersistInterval(Duration.ZERO);
+        config.setMaxRuns(maxRuns);
+        config.setPath(snapshot == null ? null : snapshot.toString());
+        return new CromwellRunIndex(client(), config, "user_id", Clock.systemUTC());
+    }
+
+    private void submit(String id, int hoursAfterT0, String status) {
+        cromwell.put(id, new CromwellStatus(id, "main", T0.plusHours(hoursAfterT0), null, null, status, Map.of("source", "labels")));
+    }
+
+    private List<String> ids(CromwellResponse response) {
+        return response.getResults().stream().map(CromwellStatus::getId).toList();
+    }
+
+    private CromwellClient client() {
+        return (CromwellClient) Proxy.newProxyInstance(
+            getClass().getClassLoader(),
+            new Class[] { CromwellClient.class },
+            (proxy, method, args) -> {
+                if (!method.getName().equals("listWorkflows") || args == null) {
+                    throw new UnsupportedOperationException(method.getName());
+                }
+                CromwellSearch search = (CromwellSearch) args[0];
+                searches.add(search);
+                return query(search);
+            }
+        );
+    }
+
+    /**
+     * Answer the query the way cromwell does, returning copies so that the index never shares state with the fake
+     */
+    private CromwellResponse query(CromwellSearch search) {
+        List<CromwellStatus> matches = cromwell.values().stream()
+            .filter(status -> search.getId() == null || search.getId().contains(status.getId()))
+            .filter(status -> search.getSubmission() == null || !status.getSubmission().isBefore(ZonedDateTime.parse(search.getSubmission())))
+            .sorted(Comparator.comparing(CromwellStatus::getSubmission).reversed())
+            .map(status -> new CromwellStatus(status.getId(), status.getName(), status.getSubmission(), status.getStart(), status.getEnd(), status.getStatus(), status.getLabels()))
+            .toList();
+        List<CromwellStatus> page = matches.stream()
+            .skip((long) (search.getPage() - 1) * search.getPageSize())
+            .limit(search.getPageSize())
+            .toList();
+        return new CromwellResponse((long) matches.size(), page);
+    }
+
+}
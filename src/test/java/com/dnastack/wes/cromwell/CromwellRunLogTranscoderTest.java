@@ -0,0 +1,152 @@
+package com.dnastack.wes.cromwell;
+
+import com.dnastack.wes.translation.PathTranslator;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class CromwellRunLogTranscoderTest {
+
+    private static final String METADATA = """
+        {
+          "id": "root-id",
+          "status": "Failed",
+          "workflowName": "main",
+          "workflowRoot": "gs://bucket/main/root-id",
+          "start": "2024-01-01T00:00:00Z",
+          "end": "2024-01-01T02:00:00Z",
+          "submittedFiles": {"options": "{\\"write_to_cache\\": false}"},
+          "labels": {"user_id": "user", "workflow_url": "main.wdl"},
+          "calls": {
+            "main.first": [
+              {"shardIndex": 0, "jobId": "operations/1", "returnCode": 0, "commandLine": "echo 1", "start": "2024-01-01T00:00:00Z", "stdout": "gs://bucket/stdout"},
+              {"shardIndex": 1, "jobId": "operations/2", "returnCode": 1, "commandLine": "echo 2", "executionEvents": [{"description": "ignored"}]}
+            ],
+            "main.sub": [
+              {
+                "shardIndex": -1,
+                "subWorkflowId": "sub-id",
+                "subWorkflowMetadata": {
+                  "calls": {
+                    "sub.inner": [{"shardIndex": -1, "jobId": "operations/3", "returnCode": 0}]
+                  },
+                  "id": "sub-id",
+                  "workflowName": "sub",
+                  "parentWorkflowId": "root-id"
+                }
+              }
+            ],
+            "main.last": [{"shardIndex": -1, "jobId": "operations/4"}]
+          },
+          "outputs": {"main.result": ["gs://bucket/out/a.txt", "gs://other/b.txt"], "main.count": 2},
+          "inputs": {"main.input": "gs://bucket/in.txt"},
+          "failures": [{"message": "task failed", "causedBy": []}],
+          "workflowProcessingEvents": [{"description": "PickedUp"}]
+        }
+        """;
+
+    private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules()
+        .setSerializationInclusion(JsonInclude.Include.NON_NULL)
+        .configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false)
+        .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    private final CromwellWesMapper cromwellWesMapper = new CromwellWesMapper(new CromwellConfig());
+    private final CromwellRunLogTranscoder transcoder = new CromwellRunLogTranscoder(objectMapper, cromwellWesMapper);
+    private final List<PathTranslator> translators = List.of(new PathTranslator("gs://bucket/", "https://storage/bucket/"));
+
+    @BeforeEach
+    public void setupRequest() {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/ga4gh/wes/v1/runs/root-id");
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+    }
+
+    @AfterEach
+    public void resetRequest() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    @Test
+    public void testTranscodedRunLogMatchesMappedRunLog() throws Exception {
+        CromwellMetadataResponse metadata = objectMapper.readValue(METADATA, CromwellMetadataResponse.class);
+        JsonNode expected = objectMapper.valueToTree(cromwellWesMapper.mapMetadataToRunLog(metadata, translators));
+
+        JsonNode actual = transcode(METADATA);
+
+        Assertions.assertEquals(expected, actual);
+        Assertions.assertEquals(4, actual.get("task_logs").size());
+        Assertions.assertEquals("sub: sub.inner|wf-sub-id", actual.get("task_logs").get(2).get("name").asText());
+        Assertions.assertEquals("https://storage/bucket/out/a.txt", actual.get("outputs").get("main.result").get(0).asText());
+    }
+
+    @Test
+    public void testSubWorkflowIdentifiedAfterCalls() throws Exception {
+        String metadata = """
+            {
+              "id": "root-id",
+              "status": "Running",
+              "calls": {
+                "main.sub": [{
+                  "subWorkflowMetadata": {
+                    "calls": {"sub.inner": [{"shardIndex": 2, "jobId": "operations/3"}]},
+                    "workflowName": "sub",
+                    "id": "sub-id"
+                  }
+                }],
+                "main.after": [{"shardIndex": -1, "jobId": "operations/4"}]
+              }
+            }
+            """;
+
+        JsonNode taskLogs = transcode(metadata).get("task_logs");
+
+        Assertions.assertEquals(2, taskLogs.size());
+        Assertions.assertEquals("sub: sub.inner (2)|wf-sub-id", taskLogs.get(0).get("name").asText());
+        Assertions.assertEquals("main.after|wf-root-id", taskLogs.get(1).get("name").asText());
+    }
+
+    @Test
+    public void testMetadataWithoutCalls() throws Exception {
+        JsonNode actual = transcode("{\"id\": \"root-id\", \"status\": \"Submitted\"}");
+
+        Assertions.assertEquals(0, actual.get("task_logs").size());
+        Assertions.assertEquals("INITIALIZING", actual.get("state").asText());
+        Assertions.assertFalse(actual.has("outputs"));
+    }
+
+    @Test
+    public void testOutputIsFlushedOnceAfterTheRunLog() throws Exception {
+        AtomicInteger flushes = new AtomicInteger();
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream() {
+            @Override
+            public void flush() {
+                flushes.incrementAndGet();
+            }
+        };
+
+        transcoder.transcode(new ByteArrayInputStream(METADATA.getBytes(StandardCharsets.UTF_8)), outputStream, "root-id", translators);
+
+        Assertions.assertEquals(1, flushes.get());
+        Assertions.assertEquals(4, objectMapper.readTree(outputStream.toByteArray()).get("task_logs").size());
+    }
+
+    private JsonNode transcode(String metadata) throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        transcoder.transcode(new ByteArrayInputStream(metadata.getBytes(StandardCharsets.UTF_8)), outputStream, "root-id", translators);
+        return objectMapper.readTree(outputStream.toByteArray());
+    }
+
+}
@@ -0,0 +1,158 @@
+package com.dnastack.wes.cromwell;
+
+import com.dnastack.wes.api.RunStatus;
+import com.dnastack.wes.api.RunStatusBatchResponse;
+import com.dnastack.wes.api.RunStatusWatchRequest;
+import com.dnastack.wes.api.State;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.context.request.async.DeferredResult;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class CromwellRunWatcherTest {
+
+    private static final String RUN_A = "c806516e-ea5b-4505-8d0f-70b0c7bfc48c";
+    private static final String RUN_B = "5d435f79-7c7b-41fe-9ed0-c333ae32e4de";
+    private static final Duration INTERVAL = Duration.ofHours(1);
+
+    private final Map<String, State> states = new ConcurrentHashMap<>();
+    private final AtomicInteger queries = new AtomicInteger();
+    private Instant now = Instant.parse("2024-01-01T00:00:00Z");
+    private CromwellRunWatcher watcher;
+
+    @AfterEach
+    public void tearDown() {
+        watcher.destroy();
+    }
+
+    @Test
+    public void testWatchersOfTheSameRunsShareOnePoll() {
+        watcher = createWatcher();
+        states.put(RUN_A, State.RUNNING);
+        states.put(RUN_B, State.QUEUED);
+
+        DeferredResult<RunStatusBatchResponse> first = watcher.waitForChange(request(Map.of(RUN_A, State.RUNNING, RUN_B, State.QUEUED)));
+        DeferredResult<RunStatusBatchResponse> second = watcher.waitForChange(request(Map.of(RUN_A, State.RUNNING, RUN_B, State.QUEUED)));
+        Assertions.assertFalse(first.hasResult());
+
+        states.put(RUN_B, State.RUNNING);
+        advance(INTERVAL);
+        watcher.poll();
+
+        Assertions.assertEquals(1, queries.get());
+        RunStatus changed = new RunStatus(RUN_B, State.RUNNING);
+        Assertions.assertEquals(List.of(changed), ((RunStatusBatchResponse) first.getResult()).getRuns());
+        Assertions.assertEquals(List.of(changed), ((RunStatusBatchResponse) second.getResult()).getRuns());
+    }
+
+    @Test
+    public void testChangesAreReportedImmediately() {
+        watcher = createWatcher();
+        states.put(RUN_A, State.COMPLETE);
+
+        DeferredResult<RunStatusBatchResponse> result = watcher.waitForChange(request(Map.of(RUN_A, State.RUNNING)));
+
+        Assertions.assertEquals(List.of(new RunStatus(RUN_A, State.COMPLETE)), ((RunStatusBatchResponse) result.getResult()).getRuns());
+        Assertions.assertEquals(0, queries.get());
+    }
+
+    @Test
+    public void testUnchangedRunsArePolledLessOften() {
+        watcher = createWatcher();
+        states.put(RUN_A, State.RUNNING);
+        watcher.waitForChange(request(Map.of(RUN_A, State.RUNNING)));
+
+        advance(INTERVAL);
+        watcher.poll();
+        advance(INTERVAL);
+        watcher.poll();
+        Assertions.assertEquals(1, queries.get());
+
+        advance(INTERVAL);
+        watcher.poll();
+        Assertions.assertEquals(2, queries.get());
+    }
+
+    @Test
+    public void testRunsMissingFromCromwellAreNoLongerTracked() {
+        watcher = createWatcher();
+        AtomicInteger missing = new AtomicInteger();
+        watcher.track(RUN_A, State.QUEUED, status -> Assertions.fail("Unexpected change " + status), missing::incrementAndGet);
+
+        advance(INTERVAL);
+        watcher.poll();
+        advance(INTERVAL.multipliedBy(2));
+        watcher.poll();
+        Assertions.assertEquals(0, missing.get());
+
+        advance(INTERVAL.multipliedBy(4));
+        watcher.poll();
+        Assertions.assertEquals(1, missing.get());
+
+        advance(INTERVAL.multipliedBy(4));
+        watcher.poll();
+        Assertions.assertEquals(3, queries.get());
+    }
+
+    private CromwellRunWatcher createWatcher() {
+        CromwellService service = new TestCromwellService() {
+            @Override
+            public RunStatusBatchResponse getRunStatuses(List<String> runIds) {
+                return RunStatusBatchResponse.builder()
+                    .runs(runIds.stream().map(runId -> new RunStatus(runId, states.get(runId))).toList())
+                    .notFound(List.of())
+                    .build();
+            }
+
+            @Override
+            Map<String, RunStatus> queryRunStatuses(Collection<String> runIds, String tenant) {
+                queries.incrementAndGet();
+                Map<String, RunStatus> statuses = new ConcurrentHashMap<>();
+                runIds.stream()
+                    .filter(states::containsKey)
+                    .forEach(runId -> statuses.put(runId, new RunStatus(runId, states.get(runId))));
+                return statuses;
+            }
+        };
+        CromwellConfig.RunWatchConfig config = new CromwellConfig.RunWatchConfig();
+        config.setMinPollInterval(INTERVAL);
+        config.setMaxPollInterval(INTERVAL.multipliedBy(4));
+        config.setMissingRunTimeout(INTERVAL.multipliedBy(5));
+        return new CromwellRunWatcher(service, config, new Clock() {
+            @Override
+            public ZoneId getZone() {
+                return ZoneOffset.UTC;
+            }
+
+            @Override
+            public Clock withZone(ZoneId zone) {
+                return this;
+            }
+
+            @Override
+            public Instant instant() {
+                return now;
+            }
+        });
+    }
+
+    private void advance(Duration duration) {
+        now = now.plus(duration);
+    }
+
+    private RunStatusWatchRequest request(Map<String, State> known) {
+        return RunStatusWatchRequest.builder().runIds(List.copyOf(known.keySet())).states(known).build();
+    }
+
+}
@@ -0,0 +1,434 @@
+package com.dnastack.wes.cromwell;
+
+import com.dnastack.wes.AppConfig;
+import com.dnastack.wes.api.RunBatchResponse;
+import com.dnastack.wes.api.RunBatchResult;
+import com.dnastack.wes.api.RunCancelBatchRequest;
+import com.dnastack.wes.api.RunCancellation;
+import com.dnastack.wes.api.RunCancellations;
+import com.dnastack.wes.api.RunListFilter;
+import com.dnastack.wes.api.RunRequest;
+import com.dnastack.wes.api.RunStatus;
+import com.dnastack.wes.api.RunStatusBatchResponse;
+import com.dnastack.wes.api.State;
+import com.dnastack.wes.shared.InvalidRequestException;
+import com.dnastack.wes.storage.LocalBlobStorageClient;
+import com.dnastack.wes.storage.LocalBlobStorageClientConfig;
+import feign.FeignException;
+import feign.Request;
+import feign.form.FormData;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+class CromwellServiceTest {
+
+    private static final String RUN_A = "c806516e-ea5b-4505-8d0f-70b0c7bfc48c";
+    private static final String RUN_B = "5d435f79-7c7b-41fe-9ed0-c333ae32e4de";
+    private static final String RUN_C = "0b6c7b1e-4a4f-4c1e-9f5d-2f1f6f0c2d4a";
+
+    @TempDir
+    Path tempDir;
+
+    private final Map<String, Function<Object[], Object>> cromwell = new ConcurrentHashMap<>();
+    private final List<String> cromwellCalls = new ArrayList<>();
+    private final CromwellConfig config = new CromwellConfig();
+    private final AppConfig appConfig = new AppConfig();
+    private Path staging;
+
+    @BeforeEach
+    public void setUp() {
+        staging = tempDir.resolve("staging");
+        config.setStagingParallelism(4);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    public void testStagedAttachmentsAreDeletedWhenTheRunIsNotCreated() throws IOException {
+        cromwell.put("createWorkflow", args -> {
+            throw new FeignException.BadRequest("Bad Request", request(), null, null);
+        });
+        CromwellService service = service(storage(null));
+
+        Assertions.assertThrows(InvalidRequestException.class, () -> service.execute(runRequest("a.csv", "b.csv", "c.csv")));
+        Assertions.assertEquals(List.of("createWorkflow"), cromwellCalls);
+        Assertions.assertEquals(List.of(), stagedFiles());
+    }
+
+    @Test
+    public void testStagedAttachmentsAreDeletedWhenAnUploadFails() throws IOException {
+        CromwellService service = service(storage("c.csv"));
+
+        Assertions.assertThrows(InvalidRequestException.class, () -> service.execute(runRequest("a.csv", "b.csv", "c.csv", "d.csv")));
+        Assertions.assertEquals(List.of(), cromwellCalls);
+        Assertions.assertEquals(List.of(), stagedFiles());
+    }
+
+    @Test
+    public void testStagedAttachmentsAreDeletedWhenNoRunOfABatchIsSubmitted() throws IOException {
+        cromwell.put("createWorkflows", args -> {
+            throw new FeignException.InternalServerError("Internal Server Error", request(), null, null);
+        });
+        CromwellService service = service(storage(null));
+
+        RunBatchResponse response = service.executeBatch(runRequest("a.csv", "b.csv"), List.of(
+            Map.of("main.data", "a.csv"),
+            Map.of("main.data", "b.csv")
+        ));
+
+        Assertions.assertEquals(List.of(500, 500), response.getRuns().stream()
+            .map(result -> result.getErrorResponse().getErrorCode())
+            .toList());
+        Assertions.assertEquals(List.of(), stagedFiles());
+    }
+
+    @Test
+    public void testBatchResultsAreMappedToTheInputsOfEachChunk() throws IOException {
+        config.setBatchSubmissionSize(2);
+        List<String> submittedInputs = new ArrayList<>();
+        cromwell.put("createWorkflows", args -> {
+            CromwellBatchExecutionRequest request = (CromwellBatchExecutionRequest) args[0];
+            submittedInputs.add(request.getWorkflowInputs());
+            return switch (submittedInputs.size()) {
+                case 1 -> List.of(status(RUN_A, "Submitted"), status(RUN_B, "Submitted"));
+                case 2 -> List.of(status(RUN_C, "Submitted"));
+                default -> throw new FeignException.ServiceUnavailable("Service Unavailable", request(), null, null);
+            };
+        });
+        CromwellService service = service(storage(null));
+
+        RunBatchResponse response = service.executeBatch(runRequest("a.csv"), List.of(
+            Map.of("main.index", 0),
+            Map.of("main.index", 1),
+            Map.of("main.index", 2),
+            Map.of("main.index", 3),
+            Map.of("main.index", 4)
+        ));
+
+        Assertions.assertEquals(List.of(
+            "[{\"main.index\":0},{\"main.index\":1}]",
+            "[{\"main.index\":2},{\"main.index\":3}]",
+            "[{\"main.index\":4}]"
+        ), submittedInputs);
+        Assertions.assertEquals(Arrays.asList(RUN_A, RUN_B, RUN_C, null, null), response.getRuns().stream()
+            .map(RunBatchResult::getRunId)
+            .toList());
+        Assertions.assertEquals(Arrays.asList(null, null, null, 500, 503), response.getRuns().stream()
+            .map(result -> result.getErrorResponse() == null ? null : result.getErrorResponse().getErrorCode())
+            .toList());
+        Assertions.assertEquals(1, stagedFiles().size());
+    }
+
+    @Test
+    public void testDependenciesAreZippedWithEveryImpliedDirectory() throws IOException {
+        CromwellService service = service(null);
+
+        FormData zip = service.createDependenciesZip(List.of(
+            wdl("main.wdl"),
+            wdl("./tasks/align.wdl"),
+            wdl("tasks/sub/call.wdl"),
+            wdl("lib\\util.wdl")
+        ));
+
+        Map<String, String> entries = new LinkedHashMap<>();
+        try (ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(zip.getData()))) {
+            for (ZipEntry entry = zipInputStream.getNextEntry(); entry != null; entry = zipInputStream.getNextEntry()) {
+                entries.put(entry.getName(), new String(zipInputStream.readAllBytes(), StandardCharsets.UTF_8));
+            }
+        }
+        Assertions.assertEquals(List.of("lib/", "tasks/", "tasks/sub/", "main.wdl", "tasks/align.wdl", "tasks/sub/call.wdl", "lib/util.wdl"), List
+            .copyOf(entries.keySet()));
+        Assertions.assertEquals("workflow ./tasks/align.wdl {}", entries.get("tasks/align.wdl"));
+        Assertions.assertEquals("application/zip", zip.getContentType());
+        Assertions.assertEquals(config.getDependenciesFilename(), zip.getFileName());
+    }
+
+    @Test
+    public void testZipEntryNamesMustBeRelativePaths() {
+        Assertions.assertEquals("tasks/align.wdl", CromwellService.getZipEntryName("././tasks/align.wdl"));
+        Assertions.assertEquals("tasks/..align.wdl", CromwellService.getZipEntryName("tasks\\..align.wdl"));
+        for (String name : List.of("/etc/main.wdl", "\\main.wdl", "..", "../main.wdl", "..\\main.wdl", "tasks/../../main.wdl", "tasks/..", "./../main.wdl")) {
+            Assertions.assertThrows(InvalidRequestException.class, () -> CromwellService.getZipEntryName(name), name);
+        }
+    }
+
+    @Test
+    public void testFiltersAreMappedToACromwellSearch() {
+        CromwellService service = service(null);
+
+        CromwellSearch search = service.mapFilterToSearch(RunListFilter.builder()
+            .states(List.of(State.RUNNING, State.EXECUTOR_ERROR, State.RUNNING))
+            .tags(List.of("reference:hg19", "cohort:a:b"))
+            .name("main")
+            .submittedAfter(ZonedDateTime.parse("2024-01-01T00:00:00Z"))
+            .startedAfter(ZonedDateTime.parse("2024-01-02T00:00:00+01:00"))
+            .endedBefore(ZonedDateTime.parse("2024-01-03T00:00:00Z"))
+            .build());
+
+        Assertions.assertEquals(List.of("Running", "Failed"), search.getStatus());
+        Assertions.assertEquals(List.of("reference:hg19", "cohort:a:b"), search.getLabel());
+        Assertions.assertEquals("main", search.getName());
+        Assertions.assertEquals("2024-01-01T00:00:00Z", search.getSubmission());
+        Assertions.assertEquals("2024-01-02T00:00:00+01:00", search.getStart());
+        Assertions.assertEquals("2024-01-03T00:00:00Z", search.getEnd());
+        Assertions.assertEquals(new CromwellSearch(), service.mapFilterToSearch(null));
+    }
+
+    @Test
+    public void testFiltersNoRunCanMatchAreNotMapped() {
+        CromwellService service = service(null);
+
+        Assertions.assertNull(service.mapFilterToSearch(RunListFilter.builder().states(List.of(State.PAUSED, State.SYSTEM_ERROR)).build()));
+        Assertions.assertEquals(List.of("Succeeded"), service.mapFilterToSearch(RunListFilter.builder()
+            .states(List.of(State.PAUSED, State.COMPLETE))
+            .build()).getStatus());
+    }
+
+    @Test
+    public void testTagFiltersMustBeKeyValuePairs() {
+        CromwellService service = service(null);
+
+        for (String tag : List.of("reference", ":hg19", "")) {
+            Assertions.assertThrows(InvalidRequestException.class, () -> service
+                .mapFilterToSearch(RunListFilter.builder().tags(List.of("cohort:a", tag)).build()), tag);
+        }
+    }
+
+    @Test
+    public void testSearchesAreLimitedToTheTenantInMultiTenantMode() {
+        config.setMultiTenant(true);
+        authenticate("alice");
+        CromwellService service = service(null);
+
+        Assertions.assertEquals(List.of("user_id:alice"), service.mapFilterToSearch(null).getLabel());
+        Assertions.assertEquals(List.of("user_id:alice", "reference:hg19"), service.mapFilterToSearch(RunListFilter.builder()
+            .tags(List.of("reference:hg19"))
+            .build()).getLabel());
+
+        config.setMultiTenant(false);
+        Assertions.assertNull(service.mapFilterToSearch(null).getLabel());
+    }
+
+    @Test
+    public void testRunsTheCallerMayNotAccessAreReportedAsNotFound() {
+        List<List<String>> queriedIds = new ArrayList<>();
+        cromwell.put("listWorkflows", args -> {
+            CromwellSearch search = (CromwellSearch) args[0];
+            queriedIds.add(search.getId());
+            return new CromwellResponse((long) search.getId().size(), search.getId().stream().map(id -> status(id, "Running")).toList());
+        });
+        CromwellService service = service(null);
+
+        RunStatusBatchResponse response = service.getRunStatuses(List.of(RUN_A, RUN_B, RUN_C), runId -> !runId.equals(RUN_B));
+
+        Assertions.assertEquals(List.of(RUN_A, RUN_C), response.getRuns().stream().map(RunStatus::getRunId).toList());
+        Assertions.assertEquals(List.of(RUN_B), response.getNotFound());
+        Assertions.assertEquals(List.of(List.of(RUN_A, RUN_C)), queriedIds);
+    }
+
+    @Test
+    public void testListedRunsAreCanceledAndMissingRunsAreReported() {
+        List<String> aborted = abortInto(new ArrayList<>());
+        cromwell.put("listWorkflows", args -> new CromwellResponse(1L, List.of(status(RUN_A, "Running"))));
+        CromwellService service = service(null);
+
+        RunCancellations cancellations = service.cancelRuns(RunCancelBatchRequest.builder()
+            .runIds(List.of(RUN_A, RUN_B, "not-a-run-id", RUN_A))
+            .build());
+
+        Assertions.assertEquals(List.of(
+            new RunCancellation(RUN_B, RunCancellation.CancellationState.NOT_FOUND, null),
+            new RunCancellation("not-a-run-id", RunCancellation.CancellationState.NOT_FOUND, null),
+            new RunCancellation(RUN_A, RunCancellation.CancellationState.CANCELING, null)
+        ), cancellations.cancellations());
+        Assertions.assertEquals(List.of(RUN_A), aborted);
+    }
+
+    @Test
+    public void testSelectorsOnlySelectRunsWhichCanBeCanceled() {
+        List<CromwellSearch> searches = new ArrayList<>();
+        List<String> aborted = abortInto(new ArrayList<>());
+        cromwell.put("listWorkflows", args -> {
+            searches.add((CromwellSearch) args[0]);
+            return new CromwellResponse(1L, List.of(status(RUN_A, "Running")));
+        });
+        CromwellService service = service(null);
+
+        RunCancellations cancellations = service.cancelRuns(RunCancelBatchRequest.builder()
+            .tags(List.of("reference:hg19"))
+            .states(List.of(State.RUNNING, State.COMPLETE))
+            .build());
+        Assertions.assertEquals(List.of(new RunCancellation(RUN_A, RunCancellation.CancellationState.CANCELING, null)), cancellations.cancellations());
+        Assertions.assertEquals(List.of(RUN_A), aborted);
+        Assertions.assertEquals(List.of("Running"), searches.get(0).getStatus());
+        Assertions.assertEquals(List.of("reference:hg19"), searches.get(0).getLabel());
+
+        searches.clear();
+        Assertions.assertEquals(List.of(), service.cancelRuns(RunCancelBatchRequest.builder()
+            .states(List.of(State.COMPLETE, State.CANCELED))
+            .build()).cancellations());
+        Assertions.assertEquals(List.of(), searches);
+    }
+
+    @Test
+    public void testSelectorsMatchingMoreThanTheMaxBatchSizeAreRejected() {
+        appConfig.setMaxBatchSize(2);
+        List<String> aborted = abortInto(new ArrayList<>());
+        cromwell.put("listWorkflows", args -> new CromwellResponse(3L, List.of(status(RUN_A, "Running"), status(RUN_B, "Running"))));
+        CromwellService service = service(null);
+
+        Assertions.assertThrows(InvalidRequestException.class, () -> service.cancelRuns(RunCancelBatchRequest.builder()
+            .tags(List.of("reference:hg19"))
+            .build()));
+        Assertions.assertEquals(List.of(), aborted);
+    }
+
+    @Test
+    public void testEitherRunIdsOrASelectorMustBeProvided() {
+        CromwellService service = service(null);
+
+        Assertions.assertThrows(InvalidRequestException.class, () -> service.cancelRuns(RunCancelBatchRequest.builder().build()));
+        Assertions.assertThrows(InvalidRequestException.class, () -> service.cancelRuns(RunCancelBatchRequest.builder()
+            .runIds(List.of(RUN_A))
+            .tags(List.of("reference:hg19"))
+            .build()));
+        Assertions.assertEquals(List.of(), cromwellCalls);
+    }
+
+    @Test
+    public void testSelectedRunsTheCallerMayNotCancelAreNotAborted() {
+        List<String> aborted = abortInto(new ArrayList<>());
+        cromwell.put("listWorkflows", args -> new CromwellResponse(2L, List.of(status(RUN_A, "Running"), status(RUN_B, "Running"))));
+        CromwellService service = service(null);
+
+        RunCancellations cancellations = service.cancelRuns(RunCancelBatchRequest.builder()
+            .tags(List.of("reference:hg19"))
+            .build(), runId -> !runId.equals(RUN_B));
+
+        Assertions.assertEquals(List.of(
+            new RunCancellation(RUN_B, RunCancellation.CancellationState.NOT_FOUND, null),
+            new RunCancellation(RUN_A, RunCancellation.CancellationState.CANCELING, null)
+        ), cancellations.cancellations());
+        Assertions.assertEquals(List.of(RUN_A), aborted);
+    }
+
+    /**
+     * Abort runs in cromwell by recording their ids
+     */
+    private List<String> abortInto(List<String> aborted) {
+        cromwell.put("abortWorkflow", args -> {
+            synchronized (aborted) {
+                aborted.add((String) args[0]);
+            }
+            return status((String) args[0], "Aborting");
+        });
+        return aborted;
+    }
+
+    private static void authenticate(String subject) {
+        Jwt jwt = Jwt.withTokenValue("token").header("alg", "none").subject(subject).build();
+        SecurityContextHolder.getContext().setAuthentication(new TestingAuthenticationToken(jwt, null));
+    }
+
+    private CromwellService service(LocalBlobStorageClient storageClient) {
+        CromwellClient client = (CromwellClient) Proxy.newProxyInstance(
+            getClass().getClassLoader(),
+            new Class[] { CromwellClient.class },
+            (proxy, method, args) -> {
+                Function<Object[], Object> handler = cromwell.get(method.getName());
+                if (handler == null) {
+                    throw new UnsupportedOperationException(method.getName());
+                }
+                synchronized (cromwellCalls) {
+                    cromwellCalls.add(method.getName());
+                }
+                return handler.apply(args);
+            }
+        );
+        return TestCromwellService.builder()
+            .client(client)
+            .storageClient(storageClient)
+            .config(config)
+            .appConfig(appConfig)
+            .build();
+    }
+
+    /**
+     * @param failingFile The name of an attachment which can not be staged, or <code>null</code>
+     */
+    private LocalBlobStorageClient storage(String failingFile) throws IOException {
+        LocalBlobStorageClientConfig storageConfig = new LocalBlobStorageClientConfig();
+        storageConfig.setStagingPath(staging.toString());
+        return new LocalBlobStorageClient(storageConfig) {
+            @Override
+            public String writeBytes(InputStream stream, long uploadSize, String stagingFolder, String fileName) throws IOException {
+                if (fileName.equals(failingFile)) {
+                    throw new IOException("Could not write " + fileName);
+                }
+                return super.writeBytes(stream, uploadSize, stagingFolder, fileName);
+            }
+        };
+    }
+
+    private List<Path> stagedFiles() throws IOException {
+        try (Stream<Path> files = Files.walk(staging)) {
+            return files.filter(Files::isRegularFile).toList();
+        }
+    }
+
+    private static RunRequest runRequest(String... attachments) {
+        List<MultipartFile> files = new ArrayList<>();
+        files.add(new MockMultipartFile("workflow_attachment", "main.wdl", "text/plain", "workflow main {}".getBytes(StandardCharsets.UTF_8)));
+        for (String attachment : attachments) {
+            files.add(new MockMultipartFile("workflow_attachment", attachment, "text/csv", attachment.getBytes(StandardCharsets.UTF_8)));
+        }
+        return RunRequest.builder()
+            .workflowUrl("main.wdl")
+            .workflowParams(Map.of("main.data", attachments[0]))
+            .workflowAttachments(files.toArray(MultipartFile[]::new))
+            .build();
+    }
+
+    private static CromwellStatus status(String runId, String status) {
+        return new CromwellStatus(runId, "main", null, null, null, status, null);
+    }
+
+    private static MultipartFile wdl(String name) {
+        return new MockMultipartFile("workflow_attachment", name, "text/plain", ("workflow " + name + " {}").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Request request() {
+        return Request.create(Request.HttpMethod.GET, "http://cromwell", Map.of(), null, StandardCharsets.UTF_8, null);
+    }
+
+}
@@ -0,0 +1,178 @@
+package com.dnastack.wes.cromwell;
+
+import com.dnastack.wes.api.State;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.stream.Collectors;
+
+class CromwellStateCountAggregatorTest {
+
+    private final CromwellConfig config = new CromwellConfig();
+    private Instant now = Instant.parse("2024-01-01T00:00:00Z");
+    private boolean unavailable;
+    private final List<CromwellSearch> searches = new ArrayList<>();
+    private final Map<String, Long> totals = new HashMap<>(Map.of(
+        "Submitted", 2L,
+        "Running", 5L,
+        "Succeeded", 40L,
+        "Failed", 3L
+    ));
+
+    @Test
+    public void testCountsAreAggregatedPerState() {
+        CromwellStateCountAggregator aggregator = createAggregator();
+
+        Map<State, Integer> counts = aggregator.getStateCounts(null);
+
+        Assertions.assertEquals(Map.of(
+            State.INITIALIZING, 2,
+            State.RUNNING, 5,
+            State.COMPLETE, 40,
+            State.EXECUTOR_ERROR, 3
+        ), counts);
+        Assertions.assertEquals(CromwellWesMapper.CROMWELL_STATUSES.size(), searches.size());
+        Assertions.assertTrue(searches.stream().allMatch(search -> search.getPageSize() == 1 && search.getLabel() == null));
+    }
+
+    @Test
+    public void testReadsServeTheLastSnapshotUntilItIsRefreshed() {
+        CromwellStateCountAggregator aggregator = createAggregator();
+
+        aggregator.getStateCounts(null);
+        totals.put("Running", 6L);
+        advance(Duration.ofMinutes(1));
+        Assertions.assertEquals(5, aggregator.getStateCounts(null).get(State.RUNNING));
+        Assertions.assertEquals(CromwellWesMapper.CROMWELL_STATUSES.size(), searches.size());
+
+        aggregator.refresh();
+        Assertions.assertEquals(6, aggregator.getStateCounts(null).get(State.RUNNING));
+        Assertions.assertEquals(2 * CromwellWesMapper.CROMWELL_STATUSES.size(), searches.size());
+    }
+
+    @Test
+    public void testCountsAreNotServedUntilTheyAreComputed() {
+        List<Runnable> pending = new ArrayList<>();
+        CromwellStateCountAggregator aggregator = createAggregator(pending::add);
+
+        Assertions.assertNull(aggregator.getStateCounts(null));
+        Assertions.assertEquals(List.of(), searches);
+
+        pending.forEach(Runnable::run);
+        Assertions.assertEquals(5, aggregator.getStateCounts(null).get(State.RUNNING));
+    }
+
+    @Test
+    public void testCountsOlderThanTheMaxStalenessAreNotServed() {
+        CromwellStateCountAggregator aggregator = createAggregator();
+        aggregator.getStateCounts(null);
+
+        unavailable = true;
+        advance(Duration.ofMinutes(3));
+        aggregator.refresh();
+        Assertions.assertEquals(5, aggregator.getStateCounts(null).get(State.RUNNING));
+
+        advance(Duration.ofMinutes(3));
+        aggregator.refresh();
+        Assertions.assertNull(aggregator.getStateCounts(null));
+    }
+
+    @Test
+    public void testTenantsWhichAreNotReadAreNoLongerRefreshed() {
+        CromwellStateCountAggregator aggregator = createAggregator();
+        aggregator.getStateCounts("alice");
+
+        advance(Duration.ofMinutes(6));
+        aggregator.refresh();
+
+        Assertions.assertEquals(CromwellWesMapper.CROMWELL_STATUSES.size(), searches.size());
+    }
+
+    @Test
+    public void testTheTenantReadLeastRecentlyIsDroppedForANewTenant() {
+        config.getStateCounts().setMaximumTenants(2);
+        CromwellStateCountAggregator aggregator = createAggregator();
+        aggregator.getStateCounts("alice");
+        advance(Duration.ofSeconds(1));
+        aggregator.getStateCounts("bob");
+        advance(Duration.ofSeconds(1));
+        aggregator.getStateCounts("alice");
+        advance(Duration.ofSeconds(1));
+        aggregator.getStateCounts("carol");
+        searches.clear();
+
+        aggregator.refresh();
+
+        Assertions.assertEquals(Set.of(List.of("user_id:alice"), List.of("user_id:carol")), searches.stream()
+            .map(CromwellSearch::getLabel)
+            .collect(Collectors.toSet()));
+    }
+
+    @Test
+    public void testTenantCountsAreLimitedByUserLabel() {
+        CromwellStateCountAggregator aggregator = createAggregator();
+
+        aggregator.getStateCounts("alice");
+
+        Assertions.assertTrue(searches.stream().allMatch(search -> search.getLabel().equals(List.of("user_id:alice"))));
+    }
+
+    private CromwellStateCountAggregator createAggregator() {
+        return createAggregator(Runnable::run);
+    }
+
+    private CromwellStateCountAggregator createAggregator(Executor executor) {
+        Clock clock = new Clock() {
+            @Override
+            public ZoneId getZone() {
+                return ZoneOffset.UTC;
+            }
+
+            @Override
+            public Clock withZone(ZoneId zone) {
+                return this;
+            }
+
+            @Override
+            public Instant instant() {
+                return now;
+            }
+        };
+        return new CromwellStateCountAggregator(client(), config, clock, executor);
+    }
+
+    private void advance(Duration duration) {
+        now = now.plus(duration);
+    }
+
+    private CromwellClient client() {
+        return (CromwellClient) Proxy.newProxyInstance(
+            getClass().getClassLoader(),
+            new Class[] { CromwellClient.class },
+            (proxy, method, args) -> {
+                if (!method.getName().equals("listWorkflows") || args == null) {
+                    throw new UnsupportedOperationException(method.getName());
+                }
+                if (unavailable) {
+                    throw new IllegalStateException("cromwell is unavailable");
+                }
+                CromwellSearch search = (CromwellSearch) args[0];
+                searches.add(search);
+                return new CromwellResponse(totals.getOrDefault(search.getStatus().get(0), 0L), List.of());
+            }
+        );
+    }
+
+}
@@ -0,0 +1,264 @@
+package com.dnastack.wes.cromwell;
+
+import com.dnastack.wes.api.RunId;
+import com.dnastack.wes.api.RunRequest;
+import com.dnastack.wes.api.RunSubmission;
+import com.dnastack.wes.shared.InvalidRequestException;
+import com.dnastack.wes.shared.ServiceUnavailableException;
+import com.dnastack.wes.storage.LocalBlobStorageClient;
+import com.dnastack.wes.storage.LocalBlobStorageClientConfig;
+import feign.FeignException;
+import feign.Request;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+class CromwellSubmissionQueueTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final List<String> submitted = new CopyOnWriteArrayList<>();
+
+    @Test
+    public void testAcceptedRunIsSubmittedWithItsAssignedId() throws Exception {
+        CromwellSubmissionQueue queue = createQueue(1, () -> null, false);
+
+        RunSubmission accepted = queue.accept(runRequest());
+        Assertions.assertEquals(RunSubmission.SubmissionState.QUEUED, accepted.getState());
+
+        RunSubmission submission = awaitState(queue, accepted.getRunId(), RunSubmission.SubmissionState.SUBMITTED);
+        Assertions.assertNull(submission.getErrorResponse());
+        Assertions.assertEquals(List.of(accepted.getRunId() + ":main.wdl=workflow {}"), submitted);
+        Assertions.assertFalse(Files.exists(tempDir.resolve(accepted.getRunId()).resolve("attachments")));
+        queue.destroy();
+    }
+
+    @Test
+    public void testInterruptedSubmissionIsResumedWithoutResubmitting() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CromwellSubmissionQueue queue = createQueue(1, () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            return null;
+        }, false);
+
+        String runId = queue.accept(runRequest()).getRunId();
+        awaitState(queue, runId, RunSubmission.SubmissionState.SUBMITTING);
+        Assertions.assertThrows(ServiceUnavailableException.class, () -> queue.accept(runRequest()));
+        queue.destroy();
+
+        submitted.clear();
+        CromwellSubmissionQueue resumed = createQueue(1, () -> null, true);
+        awaitState(resumed, runId, RunSubmission.SubmissionState.SUBMITTED);
+        Assertions.assertEquals(List.of(), submitted);
+        resumed.destroy();
+    }
+
+    @Test
+    public void testRejectedRunIsNotAccepted() throws Exception {
+        CromwellSubmissionQueue queue = createQueue(1, () -> null, false);
+        RunRequest rejected = runRequest();
+        rejected.setTags(Map.of("reject", "true"));
+
+        Assertions.assertThrows(InvalidRequestException.class, () -> queue.accept(rejected));
+        try (Stream<Path> accepted = Files.list(tempDir)) {
+            Assertions.assertEquals(0, accepted.count());
+        }
+        queue.accept(runRequest());
+        queue.destroy();
+    }
+
+    @Test
+    public void testUnavailableCromwellIsRetried() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        CromwellSubmissionQueue queue = createQueue(1, () -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new FeignException.ServiceUnavailable("Service Unavailable", request(), null, null);
+            }
+            return null;
+        }, false);
+
+        String runId = queue.accept(runRequest()).getRunId();
+
+        RunSubmission submission = awaitState(queue, runId, RunSubmission.SubmissionState.SUBMITTED);
+        Assertions.assertNull(submission.getErrorResponse());
+        Assertions.assertEquals(2, attempts.get());
+        Assertions.assertEquals(List.of(runId + ":main.wdl=workflow {}"), submitted);
+        queue.destroy();
+    }
+
+    @Test
+    public void testRetriesReuseTheAttachmentsStagedByEarlierAttempts() throws Exception {
+        Path staging = tempDir.resolve("staging");
+        AtomicInteger attempts = new AtomicInteger();
+        CromwellSubmissionQueue queue = createStagingQueue(staging, 10, () -> attempts.incrementAndGet() < 3);
+
+        String runId = queue.accept(stagingRunRequest()).getRunId();
+
+        awaitState(queue, runId, RunSubmission.SubmissionState.SUBMITTED);
+        Assertions.assertEquals(3, attempts.get());
+        try (Stream<Path> folders = Files.list(staging)) {
+            Assertions.assertEquals(List.of(staging.resolve(runId)), folders.toList());
+        }
+        Assertions.assertEquals("a,b", Files.readString(staging.resolve(runId).resolve("data.csv")));
+        queue.destroy();
+    }
+
+    @Test
+    public void testStagedAttachmentsAreDeletedWhenTheSubmissionFails() throws Exception {
+        Path staging = tempDir.resolve("staging");
+        CromwellSubmissionQueue queue = createStagingQueue(staging, 2, () -> true);
+
+        String runId = queue.accept(stagingRunRequest()).getRunId();
+
+        RunSubmission submission = awaitState(queue, runId, RunSubmission.SubmissionState.FAILED);
+        Assertions.assertEquals(503, submission.getErrorResponse().getErrorCode());
+        Assertions.assertFalse(Files.exists(staging.resolve(runId).resolve("data.csv")));
+        queue.destroy();
+    }
+
+    private RunSubmission awaitState(CromwellSubmissionQueue queue, String runId, RunSubmission.SubmissionState state) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (queue.getSubmission(runId).getState() != state) {
+            Assertions.assertTrue(System.nanoTime() < deadline, "Submission did not reach " + state);
+            Thread.sleep(5);
+        }
+        return queue.getSubmission(runId);
+    }
+
+    private RunRequest runRequest() {
+        return RunRequest.builder()
+            .workflowUrl("main.wdl")
+            .workflowParams(Map.of("main.x", 1))
+            .workflowAttachments(new MultipartFile[] {
+                new MockMultipartFile("workflow_attachment", "main.wdl", "text/plain", "workflow {}".getBytes(StandardCharsets.UTF_8))
+            })
+            .build();
+    }
+
+    private static RunRequest stagingRunRequest() {
+        return RunRequest.builder()
+            .workflowUrl("main.wdl")
+            .workflowParams(Map.of("main.data", "data.csv"))
+            .workflowAttachments(new MultipartFile[] {
+                new MockMultipartFile("workflow_attachment", "main.wdl", "text/plain", "workflow {}".getBytes(StandardCharsets.UTF_8)),
+                new MockMultipartFile("workflow_attachment", "data.csv", "text/csv", "a,b".getBytes(StandardCharsets.UTF_8))
+            })
+            .build();
+    }
+
+    /**
+     * Create a queue which submits runs through the real service, staging attachments to local storage
+     *
+     * @param unavailable Whether cromwell is unavailable for the next attempt to create the run
+     */
+    private CromwellSubmissionQueue createStagingQueue(Path staging, int maxAttempts, BooleanSupplier unavailable) throws IOException {
+        CromwellConfig.AsyncSubmissionConfig config = new CromwellConfig.AsyncSubmissionConfig();
+        config.setEnabled(true);
+        config.setPath(tempDir.resolve("submissions").toString());
+        config.setWorkers(1);
+        config.setInitialRetryDelay(Duration.ofMillis(10));
+        config.setMaxAttempts(maxAttempts);
+        LocalBlobStorageClientConfig storageConfig = new LocalBlobStorageClientConfig();
+        storageConfig.setStagingPath(staging.toString());
+        CromwellClient client = (CromwellClient) Proxy.newProxyInstance(
+            getClass().getClassLoader(),
+            new Class[] { CromwellClient.class },
+            (proxy, method, args) -> switch (method.getName()) {
+                case "getStatus" -> throw new FeignException.NotFound("Not Found", request(), null, null);
+                case "createWorkflow" -> {
+                    if (unavailable.getAsBoolean()) {
+                        throw new FeignException.ServiceUnavailable("Service Unavailable", request(), null, null);
+                    }
+                    String runId = ((CromwellExecutionRequest) args[0]).getRequestedWorkflowId();
+                    yield new CromwellStatus(runId, "main", null, null, null, "Submitted", Map.of());
+                }
+                default -> throw new UnsupportedOperationException(method.getName());
+            }
+        );
+        CromwellService service = TestCromwellService.builder()
+            .client(client)
+            .storageClient(new LocalBlobStorageClient(storageConfig))
+            .build();
+        return new CromwellSubmissionQueue(service, client, config, false, Clock.systemUTC());
+    }
+
+    private CromwellSubmissionQueue createQueue(int capacity, Supplier<Void> onSubmit, boolean runsExist) {
+        CromwellConfig.AsyncSubmissionConfig config = new CromwellConfig.AsyncSubmissionConfig();
+        config.setEnabled(true);
+        config.setPath(tempDir.toString());
+        config.setCapacity(capacity);
+        config.setWorkers(1);
+        config.setInitialRetryDelay(Duration.ofMillis(10));
+        CromwellService service = new TestCromwellService() {
+            @Override
+            RunId execute(RunRequest runRequest, String user, String requestedRunId) {
+                onSubmit.get();
+                try {
+                    MultipartFile attachment = runRequest.getWorkflowAttachments()[0];
+                    submitted.add(requestedRunId + ":" + attachment.getOriginalFilename() + "=" + new String(attachment.getBytes(), StandardCharsets.UTF_8));
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+                return RunId.builder().runId(requestedRunId).build();
+            }
+        };
+        service.addSubmissionListener(new RunSubmissionListener() {
+            @Override
+            public void validate(Map<String, String> tags) {
+                if (tags != null && tags.containsKey("reject")) {
+                    throw new InvalidRequestException("Rejected");
+                }
+            }
+
+            @Override
+            public void submitted(String runId, Map<String, String> tags) {
+            }
+        });
+        return new CromwellSubmissionQueue(service, client(runsExist), config, false, Clock.systemUTC());
+    }
+
+    private CromwellClient client(boolean runsExist) {
+        return (CromwellClient) Proxy.newProxyInstance(
+            getClass().getClassLoader(),
+            new Class[] { CromwellClient.class },
+            (proxy, method, args) -> {
+                if (!method.getName().equals("getStatus") || args == null) {
+                    throw new UnsupportedOperationException(method.getName());
+                }
+                if (!runsExist) {
+                    throw new FeignException.NotFound("Not Found", request(), null, null);
+                }
+                return new CromwellStatus((String) args[0], "main", null, null, null, "Running", Map.of());
+            }
+        );
+    }
+
+    private static Request request() {
+        return Request.create(Request.HttpMethod.GET, "http://cromwell", Map.of(), null, StandardCharsets.UTF_8, null);
+    }
+
+}
@@ -0,0 +1,100 @@
+package com.dnastack.wes.cromwell;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+class CromwellTaskLogIndexTest {
+
+    private final AtomicLong time = new AtomicLong();
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @Test
+    public void testTasksAreIndexedByIdAndCallName() {
+        CromwellTaskLogIndex index = createIndex(true);
+
+        CromwellTaskLogIndex.RunTaskLogs logs = index.get("run", id -> load(id, "Succeeded"));
+
+        Assertions.assertEquals("gs://bucket/scatter-1/stderr", logs.getByTaskId("run__main.scatter__1__1").stderr());
+        Assertions.assertEquals("gs://bucket/sub/stdout", logs.getByTaskId("sub__nested.task__-1__1").stdout());
+        Assertions.assertEquals("gs://bucket/scatter-1/stdout", logs.getByCallName("main.scatter", 1).get("stdout"));
+        Assertions.assertEquals(Map.of("log", "gs://bucket/scatter-0/log"), logs.getByCallName("main.scatter", 0).backendLogs());
+        Assertions.assertNull(logs.getByCallName("main.scatter", 2));
+        Assertions.assertNull(logs.getByCallName("main.missing", 0));
+        Assertions.assertNull(logs.getByTaskId("missing"));
+    }
+
+    @Test
+    public void testTerminalRunsAreRetained() {
+        CromwellTaskLogIndex index = createIndex(true);
+
+        index.get("run", id -> load(id, "Failed"));
+        time.addAndGet(TimeUnit.DAYS.toNanos(1));
+        index.get("run", id -> load(id, "Failed"));
+
+        Assertions.assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void testActiveRunsExpire() {
+        CromwellTaskLogIndex index = createIndex(true);
+
+        index.get("run", id -> load(id, "Running"));
+        index.get("run", id -> load(id, "Running"));
+        Assertions.assertEquals(1, loads.get());
+
+        time.addAndGet(TimeUnit.SECONDS.toNanos(11));
+        index.get("run", id -> load(id, "Running"));
+        Assertions.assertEquals(2, loads.get());
+
+        index.invalidate("run");
+        index.get("run", id -> load(id, "Aborted"));
+        Assertions.assertEquals(3, loads.get());
+    }
+
+    private CromwellTaskLogIndex createIndex(boolean enabled) {
+        CromwellConfig.MetadataCacheConfig config = new CromwellConfig.MetadataCacheConfig();
+        config.setEnabled(enabled);
+        return new CromwellTaskLogIndex(config, new CromwellWesMapper(new CromwellConfig()), new SimpleMeterRegistry(), time::get);
+    }
+
+    private CromwellMetadataResponse load(String id, String status) {
+        loads.incrementAndGet();
+        CromwellMetadataResponse subWorkflow = CromwellMetadataResponse.builder()
+            .id("sub")
+            .workflowName("nested")
+            .parentWorkflowId(id)
+            .calls(Map.of("nested.task", List.of(call("sub/nested.task/-1/1", -1, "gs://bucket/sub"))))
+            .build();
+        CromwellTaskCall subWorkflowCall = new CromwellTaskCall();
+        subWorkflowCall.setSubWorkflowMetadata(subWorkflow);
+
+        CromwellTaskCall first = call(id + "/main.scatter/0/1", 0, "gs://bucket/scatter-0");
+        first.setBackendLogs(Map.of("log", "gs://bucket/scatter-0/log"));
+        return CromwellMetadataResponse.builder()
+            .id(id)
+            .workflowName("main")
+            .status(status)
+            .calls(Map.of(
+                "main.scatter", List.of(first, call(id + "/main.scatter/1/1", 1, "gs://bucket/scatter-1")),
+                "main.sub", List.of(subWorkflowCall)
+            ))
+            .build();
+    }
+
+    private CromwellTaskCall call(String jobId, int shardIndex, String root) {
+        CromwellTaskCall call = new CromwellTaskCall();
+        call.setJobId(jobId);
+        call.setShardIndex(shardIndex);
+        call.setStdout(root + "/stdout");
+        call.setStderr(root + "/stderr");
+        return call;
+    }
+
+}
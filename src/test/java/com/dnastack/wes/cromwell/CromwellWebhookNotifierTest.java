@@ -0,0 +1,288 @@
+package com.dnastack.wes.cromwell;
+
+import com.dnastack.wes.api.RunStatus;
+import com.dnastack.wes.api.RunStatusBatchResponse;
+import com.dnastack.wes.api.State;
+import com.dnastack.wes.shared.InvalidRequestException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import okhttp3.OkHttpClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class CromwellWebhookNotifierTest {
+
+    private static final String RUN_A = "c806516e-ea5b-4505-8d0f-70b0c7bfc48c";
+    private static final String RUN_B = "5d435f79-7c7b-41fe-9ed0-c333ae32e4de";
+    private static final Duration INTERVAL = Duration.ofHours(1);
+
+    @TempDir
+    Path tempDir;
+
+    private final Map<String, State> states = new ConcurrentHashMap<>();
+    private final List<Delivery> deliveries = new CopyOnWriteArrayList<>();
+    private final AtomicInteger responseCode = new AtomicInteger(200);
+    private Instant now = Instant.parse("2024-01-01T00:00:00Z");
+    private HttpServer server;
+    private String callbackUrl;
+    private CromwellRunWatcher watcher;
+    private CromwellWebhookNotifier notifier;
+    private int batchSize = 100;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/callback", exchange -> {
+            deliveries.add(new Delivery(
+                exchange.getRequestHeaders().getFirst("X-WES-Timestamp"),
+                exchange.getRequestHeaders().getFirst("X-WES-Signature"),
+                exchange.getRequestBody().readAllBytes()
+            ));
+            exchange.sendResponseHeaders(responseCode.get(), -1);
+            exchange.close();
+        });
+        server.start();
+        callbackUrl = "http://localhost:" + server.getAddress().getPort() + "/callback";
+    }
+
+    @AfterEach
+    public void tearDown() {
+        if (notifier != null) {
+            notifier.destroy();
+        }
+        if (watcher != null) {
+            watcher.destroy();
+        }
+        server.stop(0);
+    }
+
+    @Test
+    public void testChangesAreBatchedAndSigned() throws Exception {
+        notifier = createNotifier();
+        states.put(RUN_A, State.RUNNING);
+        states.put(RUN_B, State.COMPLETE);
+        notifier.submitted(RUN_A, Map.of("callback_url", callbackUrl));
+        notifier.submitted(RUN_B, Map.of("callback_url", callbackUrl));
+        notifier.submitted("untracked", Map.of());
+
+        advance(INTERVAL);
+        watcher.poll();
+        notifier.deliver();
+
+        Assertions.assertEquals(1, deliveries.size());
+        Delivery delivery = deliveries.get(0);
+        Assertions.assertEquals(Long.toString(now.getEpochSecond()), delivery.timestamp());
+        Assertions.assertEquals("sha256=" + notifier.sign(delivery.timestamp(), delivery.body()), delivery.signature());
+        JsonNode events = new ObjectMapper().readTree(delivery.body()).get("events");
+        Assertions.assertEquals(2, events.size());
+        for (JsonNode event : events) {
+            Assertions.assertEquals("QUEUED", event.get("previous_state").asText());
+            Assertions.assertEquals(states.get(event.get("run_id").asText()).name(), event.get("state").asText());
+            Assertions.assertNotNull(event.get("event_id").asText());
+        }
+
+        notifier.deliver();
+        Assertions.assertEquals(1, deliveries.size());
+    }
+
+    @Test
+    public void testFailedDeliveriesAreRetriedAfterARestart() {
+        notifier = createNotifier();
+        states.put(RUN_A, State.RUNNING);
+        notifier.submitted(RUN_A, Map.of("callback_url", callbackUrl));
+        advance(INTERVAL);
+        watcher.poll();
+
+        responseCode.set(503);
+        notifier.deliver();
+        notifier.deliver();
+        Assertions.assertEquals(1, deliveries.size());
+
+        notifier.destroy();
+        watcher.destroy();
+        notifier = createNotifier();
+        responseCode.set(204);
+        advance(Duration.ofSeconds(5));
+        notifier.deliver();
+        Assertions.assertEquals(2, deliveries.size());
+
+        states.put(RUN_A, State.COMPLETE);
+        advance(INTERVAL);
+        watcher.poll();
+        notifier.deliver();
+        Assertions.assertEquals(3, deliveries.size());
+        Assertions.assertTrue(new String(deliveries.get(2).body()).contains("\"state\":\"COMPLETE\""));
+    }
+
+    @Test
+    public void testChangesAreHeldBackWhileAnOlderChangeIsRetried() throws Exception {
+        batchSize = 1;
+        notifier = createNotifier();
+        states.put(RUN_A, State.RUNNING);
+        notifier.submitted(RUN_A, Map.of("callback_url", callbackUrl));
+        advance(INTERVAL);
+        watcher.poll();
+        states.put(RUN_A, State.COMPLETE);
+        advance(INTERVAL);
+        watcher.poll();
+
+        responseCode.set(503);
+        notifier.deliver();
+        responseCode.set(200);
+        notifier.deliver();
+        Assertions.assertEquals(1, deliveries.size());
+
+        advance(Duration.ofSeconds(5));
+        notifier.deliver();
+        Assertions.assertEquals(3, deliveries.size());
+        Assertions.assertEquals(List.of("RUNNING", "RUNNING", "COMPLETE"), deliveries.stream()
+            .map(delivery -> state(delivery.body()))
+            .toList());
+    }
+
+    @Test
+    public void testRunsMissingFromCromwellAreForgotten() {
+        notifier = createNotifier();
+        notifier.submitted(RUN_A, Map.of("callback_url", callbackUrl));
+        Path subscription = tempDir.resolve("subscriptions").resolve(RUN_A + ".json");
+        Assertions.assertTrue(Files.exists(subscription));
+
+        advance(INTERVAL);
+        watcher.poll();
+        advance(INTERVAL.multipliedBy(2));
+        watcher.poll();
+
+        Assertions.assertFalse(Files.exists(subscription));
+    }
+
+    @Test
+    public void testCallbackUrlsAreValidated() {
+        notifier = createNotifier();
+
+        notifier.validate(Map.of("callback_url", callbackUrl));
+        notifier.validate(Map.of());
+        Assertions.assertThrows(InvalidRequestException.class, () -> notifier.validate(Map.of("callback_url", "file:///etc/passwd")));
+        Assertions.assertThrows(InvalidRequestException.class, () -> notifier.validate(Map.of("callback_url", "https://example.com/hook")));
+    }
+
+    @Test
+    public void testCallbackUrlsMustFallUnderAnAllowedUrl() {
+        URI allowed = URI.create("https://hooks.example.com/wes");
+
+        Assertions.assertTrue(CromwellWebhookNotifier.isUnder(URI.create("https://hooks.example.com/wes"), allowed));
+        Assertions.assertTrue(CromwellWebhookNotifier.isUnder(URI.create("https://HOOKS.example.com:443/wes/runs"), allowed));
+        Assertions.assertFalse(CromwellWebhookNotifier.isUnder(URI.create("https://hooks.example.com.attacker.net/wes"), allowed));
+        Assertions.assertFalse(CromwellWebhookNotifier.isUnder(URI.create("https://hooks.example.com:8443/wes"), allowed));
+        Assertions.assertFalse(CromwellWebhookNotifier.isUnder(URI.create("http://hooks.example.com/wes"), allowed));
+        Assertions.assertFalse(CromwellWebhookNotifier.isUnder(URI.create("https://hooks.example.com/wesley"), allowed));
+        Assertions.assertThrows(InvalidRequestException.class, () -> notifier(List.of("https://hooks.example.com"))
+            .validate(Map.of("callback_url", "https://hooks.example.com@evil.net/")));
+    }
+
+    @Test
+    public void testNonPublicCallbackUrlsAreRejectedWithoutAnAllowList() {
+        CromwellWebhookNotifier unrestricted = notifier(List.of());
+
+        unrestricted.validate(Map.of("callback_url", "https://93.184.215.14/hook"));
+        for (String url : List.of("http://93.184.215.14/hook", "https://127.0.0.1/hook", "https://169.254.169.254/latest", "https://10.0.0.1/hook", "https://[::1]/hook", "https://[fd00::1]/hook")) {
+            Assertions.assertThrows(InvalidRequestException.class, () -> unrestricted.validate(Map.of("callback_url", url)), url);
+        }
+    }
+
+    private CromwellWebhookNotifier notifier(List<String> allowedUrls) {
+        CromwellConfig.WebhookConfig config = new CromwellConfig.WebhookConfig();
+        config.setAllowedUrlPrefixes(allowedUrls);
+        return new CromwellWebhookNotifier(null, config, new OkHttpClient(), Runnable::run, new SimpleMeterRegistry(), Clock.systemUTC());
+    }
+
+    private CromwellWebhookNotifier createNotifier() {
+        CromwellService service = new TestCromwellService() {
+            @Override
+            public RunStatusBatchResponse getRunStatuses(List<String> runIds) {
+                return RunStatusBatchResponse.builder()
+                    .runs(runIds.stream().map(runId -> new RunStatus(runId, states.get(runId))).toList())
+                    .notFound(List.of())
+                    .build();
+            }
+
+            @Override
+            Map<String, RunStatus> queryRunStatuses(Collection<String> runIds, String tenant) {
+                Map<String, RunStatus> statuses = new ConcurrentHashMap<>();
+                runIds.stream()
+                    .filter(states::containsKey)
+                    .forEach(runId -> statuses.put(runId, new RunStatus(runId, states.get(runId))));
+                return statuses;
+            }
+        };
+        Clock clock = new Clock() {
+            @Override
+            public ZoneId getZone() {
+                return ZoneOffset.UTC;
+            }
+
+            @Override
+            public Clock withZone(ZoneId zone) {
+                return this;
+            }
+
+            @Override
+            public Instant instant() {
+                return now;
+            }
+        };
+        CromwellConfig.RunWatchConfig watchConfig = new CromwellConfig.RunWatchConfig();
+        watchConfig.setMinPollInterval(INTERVAL);
+        watchConfig.setMaxPollInterval(INTERVAL);
+        watchConfig.setMissingRunTimeout(INTERVAL);
+        watcher = new CromwellRunWatcher(service, watchConfig, clock);
+
+        CromwellConfig.WebhookConfig config = new CromwellConfig.WebhookConfig();
+        config.setEnabled(true);
+        config.setSecret("secret");
+        config.setPath(tempDir.toString());
+        config.setAllowedUrlPrefixes(List.of(callbackUrl));
+        config.setDeliveryInterval(INTERVAL);
+        config.setBatchSize(batchSize);
+        return new CromwellWebhookNotifier(watcher, config, new OkHttpClient(), Runnable::run, new SimpleMeterRegistry(), clock);
+    }
+
+    private static String state(byte[] body) {
+        try {
+            return new ObjectMapper().readTree(body).get("events").get(0).get("state").asText();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void advance(Duration duration) {
+        now = now.plus(duration);
+    }
+
+
+    record Delivery(String timestamp, String signature, byte[] body) {
+
+    }
+
+}
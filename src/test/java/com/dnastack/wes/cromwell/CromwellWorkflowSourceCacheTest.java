@@ -0,0 +1,88 @@
+package com.dnastack.wes.cromwell;
+
+import com.dnastack.wes.api.RunRequest;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class CromwellWorkflowSourceCacheTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @Test
+    public void testSubmissionsOfTheSameWorkflowShareAnEntry() throws IOException {
+        CromwellWorkflowSourceCache cache = createCache(true);
+
+        cache.get(request(file("main.wdl", "workflow main {}"), file("lib/tasks.wdl", "task a {}"), file("inputs.json", "{\"a\": 1}")), this::load);
+        cache.get(request(file("lib/tasks.wdl", "task a {}"), file("main.wdl", "workflow main {}"), file("inputs.json", "{\"a\": 2}")), this::load);
+
+        Assertions.assertEquals(1, loads.get());
+        Assertions.assertEquals(0.5, meterRegistry.get("cromwell.workflow.sources.hit.ratio").gauge().value());
+    }
+
+    @Test
+    public void testChangedWorkflowIsLoadedAgain() throws IOException {
+        CromwellWorkflowSourceCache cache = createCache(true);
+
+        cache.get(request(file("main.wdl", "workflow main {}"), file("lib/tasks.wdl", "task a {}")), this::load);
+        cache.get(request(file("main.wdl", "workflow main {}"), file("lib/tasks.wdl", "task b {}")), this::load);
+        cache.get(request(file("main.wdl", "workflow main {}"), file("lib/other.wdl", "task a {}")), this::load);
+        cache.get(request(file("main.wdl", "workflow main {}")), this::load);
+
+        Assertions.assertEquals(4, loads.get());
+    }
+
+    @Test
+    public void testFailuresAreNotCached() throws IOException {
+        CromwellWorkflowSourceCache cache = createCache(true);
+        RunRequest request = request(file("main.wdl", "workflow main {}"));
+
+        Assertions.assertThrows(IOException.class, () -> cache.get(request, () -> {
+            throw new IOException("unreadable");
+        }));
+        cache.get(request, this::load);
+
+        Assertions.assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void testDisabledCacheAlwaysLoads() throws IOException {
+        CromwellWorkflowSourceCache cache = createCache(false);
+
+        cache.get(request(file("main.wdl", "workflow main {}")), this::load);
+        cache.get(request(file("main.wdl", "workflow main {}")), this::load);
+
+        Assertions.assertEquals(2, loads.get());
+    }
+
+    private CromwellWorkflowSourceCache.WorkflowSource load() {
+        loads.incrementAndGet();
+        return new CromwellWorkflowSourceCache.WorkflowSource("workflow main {}", null, Map.of());
+    }
+
+    private CromwellWorkflowSourceCache createCache(boolean enabled) {
+        CromwellConfig.WorkflowSourceCacheConfig config = new CromwellConfig.WorkflowSourceCacheConfig();
+        config.setEnabled(enabled);
+        return new CromwellWorkflowSourceCache(config, "dependencies.zip", "options.json", meterRegistry);
+    }
+
+    private RunRequest request(MultipartFile... attachments) {
+        RunRequest request = new RunRequest();
+        request.setWorkflowUrl("main.wdl");
+        request.setWorkflowAttachments(attachments);
+        return request;
+    }
+
+    private MultipartFile file(String name, String content) {
+        return new MockMultipartFile("workflow_attachment", name, "text/plain", content.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
@@ -0,0 +1,92 @@
+package com.dnastack.wes.cromwell;
+
+import com.dnastack.wes.api.RunRequest;
+import com.dnastack.wes.shared.InvalidRequestException;
+import com.dnastack.wes.storage.LocalBlobStorageClient;
+import com.dnastack.wes.storage.LocalBlobStorageClientConfig;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.stream.Stream;
+
+class StreamingRunRequestReaderTest {
+
+    private static final String BOUNDARY = "wes-boundary";
+
+    @TempDir
+    Path stagingPath;
+
+    @Test
+    public void testDataAttachmentsAreStreamedToStorage() throws IOException {
+        StreamingRunRequestReader reader = createReader();
+        MockHttpServletRequest request = request(
+            field("workflow_url", "main.wdl"),
+            field("workflow_params", "{\"main.reads\": \"reads.bam\"}"),
+            field("tags", "{\"cohort\": \"x\"}"),
+            file("main.wdl", "workflow main {}"),
+            file("reads.bam", "a".repeat(100_000))
+        );
+
+        RunRequest runRequest = reader.read(request);
+
+        Assertions.assertEquals("main.wdl", runRequest.getWorkflowUrl());
+        Assertions.assertEquals(Map.of("main.reads", "reads.bam"), runRequest.getWorkflowParams());
+        Assertions.assertEquals(Map.of("cohort", "x"), runRequest.getTags());
+        MultipartFile[] attachments = runRequest.getWorkflowAttachments();
+        Assertions.assertInstanceOf(BufferedMultipartFile.class, attachments[0]);
+        Assertions.assertEquals("workflow main {}", new String(attachments[0].getBytes(), StandardCharsets.UTF_8));
+
+        StagedMultipartFile staged = Assertions.assertInstanceOf(StagedMultipartFile.class, attachments[1]);
+        Assertions.assertEquals("reads.bam", staged.getOriginalFilename());
+        Assertions.assertEquals(100_000, staged.getSize());
+        Assertions.assertEquals("a".repeat(100_000), Files.readString(Path.of(staged.getLocation())));
+
+        reader.discard(runRequest);
+        Assertions.assertFalse(Files.exists(Path.of(staged.getLocation())));
+    }
+
+    @Test
+    public void testStreamedAttachmentsAreDeletedWhenTheRequestIsInvalid() throws IOException {
+        StreamingRunRequestReader reader = createReader();
+        MockHttpServletRequest request = request(
+            file("reads.bam", "reads"),
+            field("workflow_params", "{not json")
+        );
+
+        Assertions.assertThrows(InvalidRequestException.class, () -> reader.read(request));
+        try (Stream<Path> files = Files.walk(stagingPath)) {
+            Assertions.assertTrue(files.allMatch(Files::isDirectory));
+        }
+    }
+
+    private StreamingRunRequestReader createReader() throws IOException {
+        LocalBlobStorageClientConfig storageConfig = new LocalBlobStorageClientConfig();
+        storageConfig.setStagingPath(stagingPath.toString());
+        return new StreamingRunRequestReader(new LocalBlobStorageClient(storageConfig), new CromwellConfig());
+    }
+
+    private MockHttpServletRequest request(String... parts) {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/ga4gh/wes/v1/runs:stream");
+        request.setContentType("multipart/form-data; boundary=" + BOUNDARY);
+        request.setContent((String.join("", parts) + "--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.UTF_8));
+        return request;
+    }
+
+    private String field(String name, String value) {
+        return "--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"" + name + "\"\r\n\r\n" + value + "\r\n";
+    }
+
+    private String file(String filename, String content) {
+        return "--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"workflow_attachment\"; filename=\"" + filename
+            + "\"\r\nContent-Type: application/octet-stream\r\n\r\n" + content + "\r\n";
+    }
+
+}
@@ -0,0 +1,83 @@
+package com.dnastack.wes.cromwell;
+
+import com.dnastack.wes.AppConfig;
+import com.dnastack.wes.storage.BlobStorageClient;
+import com.dnastack.wes.translation.PathTranslatorFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.time.Clock;
+
+/**
+ * A {@link CromwellService} for unit tests. The caches and mappers the service depends on are built from the provided
+ * configuration, while the cromwell client and the storage client are only present if the test provides them. Tests
+ * which only need to replace a few methods of the service can subclass it anonymously.
+ */
+class TestCromwellService extends CromwellService {
+
+    TestCromwellService() {
+        this(builder());
+    }
+
+    TestCromwellService(Builder builder) {
+        this(builder, new SimpleMeterRegistry(), new CromwellWesMapper(builder.config));
+    }
+
+    private TestCromwellService(Builder builder, SimpleMeterRegistry meterRegistry, CromwellWesMapper cromwellWesMapper) {
+        super(
+            builder.client,
+            builder.storageClient,
+            new PathTranslatorFactory(builder.appConfig),
+            cromwellWesMapper,
+            builder.appConfig,
+            builder.config,
+            new CromwellMetadataCache(builder.config, meterRegistry),
+            new CromwellRunLogTranscoder(new ObjectMapper(), cromwellWesMapper),
+            null,
+            new CromwellRunIndex(builder.client, builder.config.getRunIndex(), builder.config.getUserLabel(), Clock.systemUTC()),
+            new CromwellRequestCoalescer(builder.config, meterRegistry),
+            new CromwellWorkflowSourceCache(builder.config, meterRegistry),
+            new CromwellFailuresLogCache(builder.config, meterRegistry),
+            new CromwellTaskLogIndex(builder.config, cromwellWesMapper, meterRegistry)
+        );
+    }
+
+    static Builder builder() {
+        return new Builder();
+    }
+
+
+    static class Builder {
+
+        private CromwellClient client;
+        private BlobStorageClient storageClient;
+        private CromwellConfig config = new CromwellConfig();
+        private AppConfig appConfig = new AppConfig();
+
+        Builder client(CromwellClient client) {
+            this.client = client;
+            return this;
+        }
+
+        Builder storageClient(BlobStorageClient storageClient) {
+            this.storageClient = storageClient;
+            return this;
+        }
+
+        Builder config(CromwellConfig config) {
+            this.config = config;
+            return this;
+        }
+
+        Builder appConfig(AppConfig appConfig) {
+            this.appConfig = appConfig;
+            return this;
+        }
+
+        TestCromwellService build() {
+            return new TestCromwellService(this);
+        }
+
+    }
+
+}
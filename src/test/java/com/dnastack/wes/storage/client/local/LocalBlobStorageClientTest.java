@@ -12,6 +12,7 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.stream.Stream;
 
 class LocalBlobStorageClientTest {
 
@@ -47,6 +48,21 @@ class LocalBlobStorageClientTest {
     }
 
 
+    @Test
+    public void testWritingBytesToStagingLocation() throws IOException {
+        LocalBlobStorageClient storageClient = new LocalBlobStorageClient();
+        String location = storageClient.getStagingLocation(directory, fileName);
+
+        Assertions.assertFalse(storageClient.doesFileExist(location));
+        Assertions.assertEquals(location, storageClient
+            .writeBytes(new ByteArrayInputStream(toWrite.getBytes()), toWrite.length(), directory, fileName));
+        Assertions.assertEquals(toWrite.length(), storageClient.getBlobMetadata(location).getSize());
+        try (Stream<Path> files = Files.list(Path.of(location).getParent())) {
+            Assertions.assertEquals(1, files.count());
+        }
+    }
+
+
     @Test
     public void testWritingBytesToFile_existingFileThrowsError() throws IOException {
         LocalBlobStorageClient storageClient = new LocalBlobStorageClient();